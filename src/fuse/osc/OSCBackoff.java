@@ -0,0 +1,81 @@
+package fuse.osc;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * How a polling thread waits when there is nothing to do: it first busy spins,
+ * then yields its time slice, then parks for a while, starting over once
+ * {@link #reset()} tells it work was found.
+ * <p>
+ * A backoff keeps count of the idle rounds, so every polling thread needs
+ * its own instance.
+ */
+public class OSCBackoff
+{
+	private final long spinTries;
+	private final long yieldTries;
+	private final long parkNanos;
+	private long count;
+
+	/**
+	 * @return a backoff that never gives up the CPU, for the lowest latency
+	 */
+	public static OSCBackoff busySpin()
+	{
+		return new OSCBackoff(Long.MAX_VALUE, 0, 0);
+	}
+
+	/**
+	 * @param parkNanos how long to park when idle
+	 * @return a backoff that parks straight away, sparing the CPU
+	 */
+	public static OSCBackoff park(long parkNanos)
+	{
+		return new OSCBackoff(0, 0, parkNanos);
+	}
+
+	/**
+	 * @param spinTries idle rounds spent busy spinning
+	 * @param yieldTries idle rounds spent yielding after spinning
+	 * @param parkNanos how long to park in every following idle round
+	 */
+	public OSCBackoff(long spinTries, long yieldTries, long parkNanos)
+	{
+		this.spinTries = spinTries;
+		this.yieldTries = yieldTries;
+		this.parkNanos = parkNanos;
+	}
+
+	/**
+	 * @return a fresh backoff with the same settings, for another thread
+	 */
+	public OSCBackoff copy()
+	{
+		return new OSCBackoff(spinTries, yieldTries, parkNanos);
+	}
+
+	/**
+	 * Wait one idle round.
+	 */
+	public void idle()
+	{
+		if (count < spinTries)
+		{
+			count++;
+		}
+		else if (count - spinTries < yieldTries)
+		{
+			count++;
+			Thread.yield();
+		}
+		else LockSupport.parkNanos(parkNanos);
+	}
+
+	/**
+	 * Start over with spinning, called when work was found.
+	 */
+	public void reset()
+	{
+		count = 0;
+	}
+}
@@ -0,0 +1,13 @@
+package fuse.osc;
+
+/**
+ * A listener that gets all the messages received in one wakeup at once,
+ * to spread its per call costs over the whole batch.
+ */
+public interface OSCBatchListener
+{
+	/**
+	 * @param batch the messages, only valid during the call
+	 */
+	public void acceptBatch(OSCMessageBatch batch);
+}
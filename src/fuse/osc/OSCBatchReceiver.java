@@ -0,0 +1,214 @@
+package fuse.osc;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import fuse.osc.utils.OSCByteArrayToJavaConverter;
+import fuse.osc.utils.OSCPacketValidator;
+
+/**
+ * Receives OSC packets like {@link OSCReceiver}, but on every wakeup drains
+ * all the datagrams already waiting on the socket, up to a batch limit, and
+ * hands the decoded messages to its {@link OSCBatchListener}s as one batch.
+ * Plain {@link OSCListener}s still get the messages one by one.
+ */
+public class OSCBatchReceiver extends OSCPort implements Runnable
+{
+	private volatile boolean isListening;
+	private int batchLimit;
+	private DatagramChannel channel;
+	private Selector selector;
+	private OSCByteArrayToJavaConverter converter;
+	private OSCPacketValidator validator;
+	private volatile OSCTracer tracer;
+	private OSCPacketDispatcher dispatcher;
+	private List<OSCBatchListener> batchListeners;
+	private OSCMessageBatch batch;
+
+	public OSCBatchReceiver(int port) throws IOException
+	{
+		this(port, 256);
+	}
+
+	/**
+	 * @param port the port to listen on
+	 * @param batchLimit maximum number of datagrams read in one wakeup
+	 */
+	public OSCBatchReceiver(int port, int batchLimit) throws IOException
+	{
+		this.port = port;
+		this.batchLimit = batchLimit;
+		channel = DatagramChannel.open();
+		socket = channel.socket();
+		socket.bind(new InetSocketAddress(port));
+		channel.configureBlocking(false);
+		selector = Selector.open();
+		channel.register(selector, SelectionKey.OP_READ);
+		converter = new OSCByteArrayToJavaConverter();
+		validator = new OSCPacketValidator();
+		dispatcher = new OSCPacketDispatcher();
+		batchListeners = new CopyOnWriteArrayList<OSCBatchListener>();
+		batch = new OSCMessageBatch();
+		// collects the messages of the current wakeup, bundles flattened
+		dispatcher.addSourceListener(new OSCSourceListener()
+		{
+			@Override
+			public void acceptMessage(OSCMessage message, SocketAddress source)
+			{
+				batch.add(message, source);
+			}
+		});
+	}
+
+	public void startListening()
+	{
+		isListening = true;
+		Thread thread = new Thread(this);
+		thread.start();
+	}
+
+	public void stopListening()
+	{
+		isListening = false;
+		selector.wakeup();
+	}
+
+	public boolean isListening()
+	{
+		return isListening;
+	}
+
+	public void addListener(OSCListener listener)
+	{
+		dispatcher.addListener(listener);
+	}
+
+	public void removeListener(OSCListener listener)
+	{
+		dispatcher.removeListener(listener);
+	}
+
+	public void addBatchListener(OSCBatchListener listener)
+	{
+		batchListeners.add(listener);
+	}
+
+	public void removeBatchListener(OSCBatchListener listener)
+	{
+		batchListeners.remove(listener);
+	}
+
+	/**
+	 * @return the validator dropping malformed datagrams before decoding
+	 */
+	public OSCPacketValidator getValidator()
+	{
+		return validator;
+	}
+
+	/**
+	 * @param tracer told about every received, decoded and dispatched packet, or null
+	 */
+	public void setTracer(OSCTracer tracer)
+	{
+		this.tracer = tracer;
+	}
+
+	@Override
+	public void close()
+	{
+		stopListening();
+		try
+		{
+			selector.close();
+		}
+		catch (IOException e)
+		{
+			e.printStackTrace();
+		}
+		super.close();
+	}
+
+	@Override
+	public void run()
+	{
+		ByteBuffer buffer = ByteBuffer.allocate(3072);
+		while (isListening)
+		{
+			try
+			{
+				selector.select();
+				selector.selectedKeys().clear();
+				for (int i = 0; i < batchLimit; i++)
+				{
+					buffer.clear();
+					SocketAddress source = channel.receive(buffer);
+					if (source == null) break;
+					int length = buffer.position();
+					OSCTracer tracer = this.tracer;
+					if (tracer != null) tracer.packetReceived(buffer.array(), length, source, System.nanoTime());
+					if (validator.validate(buffer.array(), length) != OSCPacketValidator.VALID) continue;
+					OSCPacket oscPacket = OSCTracing.decode(converter, buffer.array(), length, source, tracer);
+					if (oscPacket == null) continue;
+					try
+					{
+						OSCTracing.dispatch(dispatcher, oscPacket, source, tracer);
+					}
+					catch (RuntimeException e)
+					{
+						// a failing listener costs this packet, not the rest of the batch
+						e.printStackTrace();
+					}
+				}
+			}
+			catch (ClosedSelectorException e)
+			{
+				// closed while waking up from select
+				break;
+			}
+			catch (IOException e)
+			{
+				if (isListening) e.printStackTrace();
+			}
+			finally
+			{
+				flushBatch();
+			}
+		}
+	}
+
+	/**
+	 * Hand the messages of this wakeup to the batch listeners, and start an
+	 * empty batch even if one of them failed.
+	 */
+	private void flushBatch()
+	{
+		if (batch.isEmpty()) return;
+		try
+		{
+			for (OSCBatchListener listener : batchListeners)
+			{
+				try
+				{
+					listener.acceptBatch(batch);
+				}
+				catch (RuntimeException e)
+				{
+					e.printStackTrace();
+				}
+			}
+		}
+		finally
+		{
+			batch.clear();
+		}
+	}
+}
@@ -1,5 +1,6 @@
 package fuse.osc;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
@@ -14,7 +15,7 @@ public class OSCBundle extends OSCPacket
 	/**
 	 * 2208988800 seconds -- includes 17 leap years
 	 */
-	public static final long SECONDS_FROM_1900_TO_1970 = 2208988800L;
+	public static final long SECONDS_FROM_1900_TO_1970 = OSCTimeTag.SECONDS_FROM_1900_TO_1970;
 
 	/**
 	 * The Java representation of an OSC timestamp with the semantics of
@@ -22,12 +23,16 @@ public class OSCBundle extends OSCPacket
 	 */
 	public static final Date TIMESTAMP_IMMEDIATE = new Date(0);
 	
-	private Date timestamp;
+	private OSCTimeTag timeTag;
 	private List<OSCPacket> packets;
+	// the parts of the byte buffers owned by the bundle itself
+	private OSCTimeTag headerTimeTag;
+	private ByteBuffer header;
+	private ByteBuffer[] sizes;
 	
 	public OSCBundle()
 	{
-		this(TIMESTAMP_IMMEDIATE);
+		this(OSCTimeTag.IMMEDIATE);
 	}
 	
 	public OSCBundle(Date timestamp)
@@ -35,25 +40,36 @@ public class OSCBundle extends OSCPacket
 		this(null, timestamp);
 	}
 	
+	public OSCBundle(OSCTimeTag timeTag)
+	{
+		this(null, timeTag);
+	}
+	
 	public OSCBundle(Collection<OSCPacket> packets)
 	{
-		this(packets, TIMESTAMP_IMMEDIATE);
+		this(packets, OSCTimeTag.IMMEDIATE);
 	}
 	
 	public OSCBundle(Collection<OSCPacket> packets, Date timestamp)
+	{
+		this(packets, OSCTimeTag.fromDate(timestamp));
+	}
+	
+	public OSCBundle(Collection<OSCPacket> packets, OSCTimeTag timeTag)
 	{
 		if (null == packets) this.packets = new LinkedList<OSCPacket>();
 		else this.packets = new ArrayList<OSCPacket>(packets);
-		this.timestamp = timestamp;
+		this.timeTag = (null == timeTag) ? OSCTimeTag.IMMEDIATE : timeTag;
+		for (OSCPacket packet : this.packets) packet.addParent(this);
 	}
 	
 	/**
 	 * Return the time the bundle will execute.
-	 * @return a Date
+	 * @return a Date, truncated to the millisecond
 	 */
 	public Date getTimestamp()
 	{
-		return timestamp;
+		return timeTag.toDate();
 	}
 
 	/**
@@ -62,7 +78,26 @@ public class OSCBundle extends OSCPacket
 	 */
 	public void setTimestamp(Date timestamp)
 	{
-		this.timestamp = timestamp;
+		setTimeTag(OSCTimeTag.fromDate(timestamp));
+	}
+	
+	/**
+	 * Return the time the bundle will execute.
+	 * @return the exact time tag
+	 */
+	public OSCTimeTag getTimeTag()
+	{
+		return timeTag;
+	}
+	
+	/**
+	 * Set the time the bundle will execute.
+	 * @param timeTag the time tag, or null for "immediately"
+	 */
+	public void setTimeTag(OSCTimeTag timeTag)
+	{
+		this.timeTag = (null == timeTag) ? OSCTimeTag.IMMEDIATE : timeTag;
+		contentChanged();
 	}
 	
 	public List<OSCPacket> getPackets()
@@ -70,9 +105,19 @@ public class OSCBundle extends OSCPacket
 		return Collections.unmodifiableList(packets);
 	}
 	
+	/**
+	 * @return the packets themselves, without the read-only view of
+	 *   {@link #getPackets()}, for dispatching
+	 */
+	List<OSCPacket> getPacketList()
+	{
+		return packets;
+	}
+	
 	public void addPacket(OSCPacket packet)
 	{
 		packets.add(packet);
+		packet.addParent(this);
 		contentChanged();
 	}
 
@@ -84,32 +129,70 @@ public class OSCBundle extends OSCPacket
 		byte[] packetBytes;
 		for (OSCPacket pkg : packets) {
 			packetBytes = pkg.getByteArray();
+			// every bundle element is preceded by its size
+			stream.write(packetBytes.length);
 			stream.write(packetBytes);
 		}
 		return stream.toByteArray();
 	}
 	
 	/**
-	 * Convert the time-tag (a Java Date) into the OSC byte stream.
+	 * The buffers are the encoded "#bundle" and time tag, then the size and
+	 * the buffers of each element. When only elements changed, the previous
+	 * array, header and size buffers are reused, so that nothing but the
+	 * changed elements is encoded or allocated again. A size buffer is never
+	 * rewritten: a sender may still be writing it, so an element whose
+	 * length changed gets a new one.
+	 */
+	@Override
+	ByteBuffer[] computeByteBuffers(ByteBuffer[] previous)
+	{
+		if (!timeTag.equals(headerTimeTag))
+		{
+			OSCJavaToByteArrayConverter stream = new OSCJavaToByteArrayConverter();
+			stream.setCharset(getCharset());
+			stream.write("#bundle");
+			computeTimeTagByteArray(stream);
+			header = ByteBuffer.wrap(stream.toByteArray());
+			headerTimeTag = timeTag;
+		}
+		if (sizes == null || sizes.length != packets.size())
+		{
+			sizes = new ByteBuffer[packets.size()];
+		}
+		int count = 1;
+		for (OSCPacket pkg : packets) count += 1 + pkg.getSharedByteBuffers().length;
+		ByteBuffer[] buffers = (previous != null && previous.length == count) ? previous : new ByteBuffer[count];
+		buffers[0] = header;
+		int index = 1;
+		int element = 0;
+		for (OSCPacket pkg : packets)
+		{
+			ByteBuffer[] packetBuffers = pkg.getSharedByteBuffers();
+			int length = 0;
+			for (ByteBuffer buffer : packetBuffers) length += buffer.limit();
+			ByteBuffer size = sizes[element];
+			if (size == null || size.getInt(0) != length)
+			{
+				size = ByteBuffer.allocate(4);
+				size.putInt(0, length);
+				sizes[element] = size;
+			}
+			element++;
+			buffers[index++] = size;
+			System.arraycopy(packetBuffers, 0, buffers, index, packetBuffers.length);
+			index += packetBuffers.length;
+		}
+		return buffers;
+	}
+	
+	/**
+	 * Convert the time-tag into the OSC byte stream.
 	 * Used Internally.
 	 * @param stream where to write the time-tag to
 	 */
 	private void computeTimeTagByteArray(OSCJavaToByteArrayConverter stream)
 	{
-		if ((null == timestamp) || (timestamp == TIMESTAMP_IMMEDIATE)) {
-			stream.write((int) 0);
-			stream.write((int) 1);
-			return;
-		}
-
-		long millisecs = timestamp.getTime();
-		long secsSince1970 = (long) (millisecs / 1000);
-		long secs = secsSince1970 + SECONDS_FROM_1900_TO_1970;
-
-		// this line was cribbed from jakarta commons-net's NTP TimeStamp code
-		long fraction = ((millisecs % 1000) * 0x100000000L) / 1000;
-
-		stream.write((int) secs);
-		stream.write((int) fraction);
+		stream.write(timeTag);
 	}
 }
@@ -0,0 +1,216 @@
+package fuse.osc;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+
+import fuse.osc.utils.OSCByteArrayToJavaConverter;
+import fuse.osc.utils.OSCPacketValidator;
+
+/**
+ * Receives OSC packets like {@link OSCReceiver}, but polls a non-blocking
+ * channel instead of blocking in <code>receive()</code>, so no thread wakeup
+ * stands between a datagram and its listeners. The {@link OSCBackoff}
+ * decides how the thread waits between polls: busy spinning for the lowest
+ * latency at the cost of a whole core, or spinning, then yielding, then
+ * parking. An {@link OSCThreadPinner} can pin the thread to an isolated core.
+ * <p>
+ * See <code>fuse.osc.test.BusyPollBenchmark</code> for the effect on latency.
+ */
+public class OSCBusyPollReceiver extends OSCPort implements Runnable
+{
+	private volatile boolean isListening;
+	// whether the loop runs, guarded by this
+	private boolean isRunning;
+	private DatagramChannel channel;
+	private OSCBackoff backoff;
+	private OSCThreadPinner pinner;
+	private OSCByteArrayToJavaConverter converter;
+	private OSCPacketValidator validator;
+	private volatile OSCTracer tracer;
+	private OSCPacketDispatcher dispatcher;
+
+	/**
+	 * Receive with a backoff that spins for 10000 polls, yields for 100
+	 * more, then parks for 50 us at a time.
+	 */
+	public OSCBusyPollReceiver(int port) throws IOException
+	{
+		this(port, new OSCBackoff(10000, 100, 50000));
+	}
+
+	/**
+	 * @param port the port to listen on
+	 * @param backoff how to wait while no datagram is waiting
+	 */
+	public OSCBusyPollReceiver(int port, OSCBackoff backoff) throws IOException
+	{
+		this.port = port;
+		this.backoff = backoff;
+		channel = DatagramChannel.open();
+		socket = channel.socket();
+		socket.bind(new InetSocketAddress(port));
+		channel.configureBlocking(false);
+		converter = new OSCByteArrayToJavaConverter();
+		validator = new OSCPacketValidator();
+		dispatcher = new OSCPacketDispatcher();
+	}
+
+	/**
+	 * @param pinner pins the receiving thread when it starts, or null
+	 */
+	public void setThreadPinner(OSCThreadPinner pinner)
+	{
+		this.pinner = pinner;
+	}
+
+	public synchronized void startListening()
+	{
+		if (!prepareListening()) return;
+		Thread thread = new Thread(this, "OSCBusyPollReceiver");
+		thread.start();
+	}
+
+	/**
+	 * Wait for the loop of a previous listening to end, so that two threads
+	 * never share the buffer and the converter.
+	 * @return false if already listening
+	 */
+	private boolean prepareListening()
+	{
+		if (isListening) return false;
+		boolean isInterrupted = false;
+		while (isRunning)
+		{
+			try
+			{
+				wait();
+			}
+			catch (InterruptedException e)
+			{
+				isInterrupted = true;
+			}
+		}
+		if (isInterrupted) Thread.currentThread().interrupt();
+		isListening = true;
+		isRunning = true;
+		return true;
+	}
+
+	public void stopListening()
+	{
+		isListening = false;
+	}
+
+	public boolean isListening()
+	{
+		return isListening;
+	}
+
+	public void addListener(OSCListener listener)
+	{
+		dispatcher.addListener(listener);
+	}
+
+	public void removeListener(OSCListener listener)
+	{
+		dispatcher.removeListener(listener);
+	}
+
+	public void addSourceListener(OSCSourceListener listener)
+	{
+		dispatcher.addSourceListener(listener);
+	}
+
+	public void removeSourceListener(OSCSourceListener listener)
+	{
+		dispatcher.removeSourceListener(listener);
+	}
+
+	/**
+	 * @return the validator dropping malformed datagrams before decoding
+	 */
+	public OSCPacketValidator getValidator()
+	{
+		return validator;
+	}
+
+	/**
+	 * @param tracer told about every received, decoded and dispatched packet, or null
+	 */
+	public void setTracer(OSCTracer tracer)
+	{
+		this.tracer = tracer;
+	}
+
+	@Override
+	public void close()
+	{
+		isListening = false;
+		super.close();
+	}
+
+	@Override
+	public void run()
+	{
+		try
+		{
+			listen();
+		}
+		finally
+		{
+			synchronized (this)
+			{
+				isRunning = false;
+				notifyAll();
+			}
+		}
+	}
+
+	private void listen()
+	{
+		OSCThreadPinner pinner = this.pinner;
+		if (pinner != null)
+		{
+			try
+			{
+				pinner.pinCurrentThread();
+			}
+			catch (RuntimeException e)
+			{
+				// receiving unpinned is slower, but better than not receiving
+				e.printStackTrace();
+			}
+		}
+		ByteBuffer buffer = ByteBuffer.allocate(3072);
+		while (isListening)
+		{
+			SocketAddress source;
+			try
+			{
+				buffer.clear();
+				source = channel.receive(buffer);
+			}
+			catch (IOException e)
+			{
+				if (!channel.isOpen()) break;
+				e.printStackTrace();
+				continue;
+			}
+			if (source == null)
+			{
+				backoff.idle();
+				continue;
+			}
+			backoff.reset();
+			int length = buffer.position();
+			OSCTracer tracer = this.tracer;
+			if (tracer != null) tracer.packetReceived(buffer.array(), length, source, System.nanoTime());
+			if (validator.validate(buffer.array(), length) != OSCPacketValidator.VALID) continue;
+			OSCPacket oscPacket = OSCTracing.decode(converter, buffer.array(), length, source, tracer);
+			if (oscPacket != null) OSCTracing.dispatch(dispatcher, oscPacket, source, tracer);
+		}
+	}
+}
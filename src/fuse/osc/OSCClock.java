@@ -0,0 +1,23 @@
+package fuse.osc;
+
+/**
+ * A source of wall clock time, in nanoseconds since 1970-01-01T00:00:00Z.
+ * Used by the clock synchronization so that it can run against a simulated
+ * clock.
+ */
+public interface OSCClock
+{
+	/**
+	 * The local clock, based on {@link System#nanoTime()}.
+	 */
+	public static final OSCClock SYSTEM = new OSCClock()
+	{
+		@Override
+		public long epochNanos()
+		{
+			return OSCTimeTag.now().toEpochNanos();
+		}
+	};
+
+	public long epochNanos();
+}
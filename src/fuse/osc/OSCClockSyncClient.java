@@ -0,0 +1,276 @@
+package fuse.osc;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.Timer;
+import java.util.TimerTask;
+
+/**
+ * Estimates the offset and drift of the local clock against the clock of an
+ * {@link OSCClockSyncServer}, the same way NTP does.
+ * <p>
+ * Each ping carries the local transmit time t0, the server answers with its
+ * receive time t1 and transmit time t2, and the pong is received at t3. A
+ * sample then has an offset of ((t1 - t0) + (t2 - t3)) / 2 and a round trip
+ * delay of (t3 - t0) - (t2 - t1). Of the last few samples only the one with
+ * the lowest delay is trusted, as it is the least disturbed by queuing.
+ * Trusted samples feed a least squares line, giving the offset at any local
+ * time together with the drift rate.
+ * <p>
+ * Register the client on the {@link OSCReceiver} the server answers to, and
+ * call {@link #ping()} or {@link #start(long)}.
+ */
+public class OSCClockSyncClient implements OSCListener
+{
+	public static final String PING_ADDRESS = "/fuse/clock/ping";
+	public static final String PONG_ADDRESS = "/fuse/clock/pong";
+
+	private static final int FILTER_SIZE = 8;
+	private static final int MODEL_SIZE = 32;
+
+	private OSCSender sender;
+	private OSCClock clock;
+	private Timer timer;
+	private int nextId;
+
+	// recent raw samples, of which the lowest delay one is trusted
+	private long[] sampleTimes;
+	private long[] sampleOffsets;
+	private long[] sampleDelays;
+	private int sampleCount;
+	private int lastTrustedSample;
+
+	// trusted samples used by the offset model
+	private long[] modelTimes;
+	private long[] modelOffsets;
+	private int modelCount;
+
+	// offset(t) = baseOffset + drift * (t - baseTime)
+	private boolean isSynchronized;
+	private long baseTime;
+	private double baseOffset;
+	private double drift;
+	private long roundTrip;
+
+	public OSCClockSyncClient(OSCSender sender)
+	{
+		this(sender, OSCClock.SYSTEM);
+	}
+
+	/**
+	 * @param sender sends the pings to the server's receiver
+	 * @param clock the local clock
+	 */
+	public OSCClockSyncClient(OSCSender sender, OSCClock clock)
+	{
+		this.sender = sender;
+		this.clock = clock;
+		sampleTimes = new long[FILTER_SIZE];
+		sampleOffsets = new long[FILTER_SIZE];
+		sampleDelays = new long[FILTER_SIZE];
+		modelTimes = new long[MODEL_SIZE];
+		modelOffsets = new long[MODEL_SIZE];
+		lastTrustedSample = -1;
+	}
+
+	/**
+	 * Ping the server periodically, from a timer thread.
+	 * @param periodMillis time between two pings
+	 */
+	public synchronized void start(long periodMillis)
+	{
+		stop();
+		timer = new Timer("OSCClockSyncClient", true);
+		timer.schedule(new TimerTask()
+		{
+			@Override
+			public void run()
+			{
+				try
+				{
+					ping();
+				}
+				catch (IOException e)
+				{
+					e.printStackTrace();
+				}
+			}
+		}, 0, periodMillis);
+	}
+
+	public synchronized void stop()
+	{
+		if (timer == null) return;
+		timer.cancel();
+		timer = null;
+	}
+
+	/**
+	 * Send one ping to the server.
+	 */
+	public void ping() throws IOException
+	{
+		int id;
+		synchronized (this)
+		{
+			id = nextId++;
+		}
+		sender.send(new OSCMessage(PING_ADDRESS, new Object[] { id, BigInteger.valueOf(clock.epochNanos()) }));
+	}
+
+	@Override
+	public void acceptMessage(OSCMessage message)
+	{
+		if (!PONG_ADDRESS.equals(message.address())) return;
+		long t3 = clock.epochNanos();
+		Object[] arguments = message.arguments();
+		// a malformed pong, or one answering no ping of ours, is ignored
+		if (arguments.length < 4 || !(arguments[0] instanceof Integer)) return;
+		for (int i = 1; i < 4; i++)
+		{
+			if (!(arguments[i] instanceof BigInteger)) return;
+		}
+		if (!isSent((Integer) arguments[0])) return;
+
+		long t0 = ((BigInteger) arguments[1]).longValue();
+		long t1 = ((BigInteger) arguments[2]).longValue();
+		long t2 = ((BigInteger) arguments[3]).longValue();
+		long offset = ((t1 - t0) + (t2 - t3)) / 2;
+		long delay = (t3 - t0) - (t2 - t1);
+		if (delay < 0) return;
+		addSample((t0 + t3) / 2, offset, delay);
+	}
+
+	private synchronized boolean isSent(int id)
+	{
+		return id >= 0 && id < nextId;
+	}
+
+	private synchronized void addSample(long localTime, long offset, long delay)
+	{
+		sampleTimes[sampleCount % FILTER_SIZE] = localTime;
+		sampleOffsets[sampleCount % FILTER_SIZE] = offset;
+		sampleDelays[sampleCount % FILTER_SIZE] = delay;
+		sampleCount++;
+
+		// pick the lowest delay sample of the window, feed it to the model once
+		int best = sampleCount - 1;
+		for (int i = Math.max(0, sampleCount - FILTER_SIZE); i < sampleCount; i++)
+		{
+			if (sampleDelays[i % FILTER_SIZE] < sampleDelays[best % FILTER_SIZE]) best = i;
+		}
+		if (best <= lastTrustedSample) return;
+		lastTrustedSample = best;
+		roundTrip = sampleDelays[best % FILTER_SIZE];
+
+		modelTimes[modelCount % MODEL_SIZE] = sampleTimes[best % FILTER_SIZE];
+		modelOffsets[modelCount % MODEL_SIZE] = sampleOffsets[best % FILTER_SIZE];
+		modelCount++;
+		updateModel();
+	}
+
+	/**
+	 * Fit offset = baseOffset + drift * (t - baseTime) through the trusted samples.
+	 */
+	private void updateModel()
+	{
+		int count = Math.min(modelCount, MODEL_SIZE);
+		long referenceTime = modelTimes[(modelCount - 1) % MODEL_SIZE];
+		long referenceOffset = modelOffsets[(modelCount - 1) % MODEL_SIZE];
+
+		// work relative to the latest sample to keep the doubles precise
+		double meanTime = 0, meanOffset = 0;
+		for (int i = 0; i < count; i++)
+		{
+			meanTime += modelTimes[i] - referenceTime;
+			meanOffset += modelOffsets[i] - referenceOffset;
+		}
+		meanTime /= count;
+		meanOffset /= count;
+
+		double covariance = 0, variance = 0;
+		for (int i = 0; i < count; i++)
+		{
+			double t = (modelTimes[i] - referenceTime) - meanTime;
+			covariance += t * ((modelOffsets[i] - referenceOffset) - meanOffset);
+			variance += t * t;
+		}
+		drift = (count > 2 && variance > 0) ? covariance / variance : 0;
+		baseTime = referenceTime + (long) meanTime;
+		baseOffset = referenceOffset + meanOffset;
+		isSynchronized = true;
+	}
+
+	/**
+	 * @return true once at least one ping has been answered
+	 */
+	public synchronized boolean isSynchronized()
+	{
+		return isSynchronized;
+	}
+
+	/**
+	 * @param localEpochNanos a local time
+	 * @return how far the server clock is ahead of the local clock at that time
+	 */
+	public synchronized long getOffsetNanos(long localEpochNanos)
+	{
+		return (long) (baseOffset + drift * (localEpochNanos - baseTime));
+	}
+
+	/**
+	 * @return how far the server clock is ahead of the local clock now
+	 */
+	public long getOffsetNanos()
+	{
+		return getOffsetNanos(clock.epochNanos());
+	}
+
+	/**
+	 * @return the estimated drift of the server clock against the local
+	 *   clock, in parts per million
+	 */
+	public synchronized double getDriftPpm()
+	{
+		return drift * 1e6;
+	}
+
+	/**
+	 * @return the round trip delay of the trusted sample, in nanoseconds
+	 */
+	public synchronized long getRoundTripNanos()
+	{
+		return roundTrip;
+	}
+
+	/**
+	 * @return the current cluster time
+	 */
+	public OSCTimeTag now()
+	{
+		return toClusterTime(OSCTimeTag.fromEpochNanos(clock.epochNanos()));
+	}
+
+	/**
+	 * Convert a local time tag, e.g. one read from the local clock, into
+	 * cluster time before putting it in a bundle.
+	 */
+	public OSCTimeTag toClusterTime(OSCTimeTag localTime)
+	{
+		if (localTime.isImmediate()) return localTime;
+		long local = localTime.toEpochNanos();
+		return OSCTimeTag.fromEpochNanos(local + getOffsetNanos(local));
+	}
+
+	/**
+	 * Convert a time tag in cluster time, e.g. one of a received bundle,
+	 * into local time.
+	 */
+	public OSCTimeTag toLocalTime(OSCTimeTag clusterTime)
+	{
+		if (clusterTime.isImmediate()) return clusterTime;
+		long cluster = clusterTime.toEpochNanos();
+		// the offset changes slowly, one refinement step is enough
+		return OSCTimeTag.fromEpochNanos(cluster - getOffsetNanos(cluster - getOffsetNanos(cluster)));
+	}
+}
@@ -0,0 +1,49 @@
+package fuse.osc;
+
+import java.io.IOException;
+import java.math.BigInteger;
+
+/**
+ * The reference side of the clock synchronization: answers the pings of an
+ * {@link OSCClockSyncClient} with its own receive and transmit times.
+ * The clock of the server is the cluster time.
+ * <p>
+ * Register it on the {@link OSCReceiver} the client pings, giving it an
+ * {@link OSCSender} back to the client's receiver.
+ */
+public class OSCClockSyncServer implements OSCListener
+{
+	private OSCSender replySender;
+	private OSCClock clock;
+
+	public OSCClockSyncServer(OSCSender replySender)
+	{
+		this(replySender, OSCClock.SYSTEM);
+	}
+
+	public OSCClockSyncServer(OSCSender replySender, OSCClock clock)
+	{
+		this.replySender = replySender;
+		this.clock = clock;
+	}
+
+	@Override
+	public void acceptMessage(OSCMessage message)
+	{
+		if (!OSCClockSyncClient.PING_ADDRESS.equals(message.address())) return;
+		long receiveTime = clock.epochNanos();
+		Object[] arguments = message.arguments();
+		if (arguments.length < 2) return;
+
+		try
+		{
+			replySender.send(new OSCMessage(OSCClockSyncClient.PONG_ADDRESS, new Object[] {
+				arguments[0], arguments[1], BigInteger.valueOf(receiveTime), BigInteger.valueOf(clock.epochNanos())
+			}));
+		}
+		catch (IOException e)
+		{
+			e.printStackTrace();
+		}
+	}
+}
@@ -0,0 +1,173 @@
+package fuse.osc;
+
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A listener that keeps only the latest pending message per key
+ * ("latest value wins"). Messages are keyed by address, or by address plus
+ * a selection of their arguments, and are handed on only when a consumer
+ * drains the listener at its own pace.
+ * <p>
+ * Register it on an {@link OSCReceiver} (or {@link OSCPacketDispatcher})
+ * in place of a slow listener, then call {@link #drain(OSCListener)} or
+ * {@link #poll()} from the consumer's thread. A message that is replaced
+ * before it is drained is dropped, so the consumer never spends time on
+ * stale values and its backlog is bounded by the number of distinct keys.
+ */
+public class OSCCoalescingListener implements OSCListener
+{
+	private int[] keyArguments;
+	private ConcurrentHashMap<Object, OSCMessage> pending;
+	private Queue<Object> order;
+	private AtomicLong coalescedCount;
+
+	/**
+	 * Creates a listener that coalesces messages by address only.
+	 */
+	public OSCCoalescingListener()
+	{
+		this(null);
+	}
+
+	/**
+	 * Creates a listener that coalesces messages by address plus the
+	 * arguments at the given indexes, e.g. <code>{ 0 }</code> to keep one
+	 * pending message per channel number sent as first argument.
+	 * @param keyArguments indexes of the arguments that are part of the key
+	 */
+	public OSCCoalescingListener(int[] keyArguments)
+	{
+		if (keyArguments != null && keyArguments.length == 0) keyArguments = null;
+		this.keyArguments = keyArguments;
+		pending = new ConcurrentHashMap<Object, OSCMessage>();
+		order = new ConcurrentLinkedQueue<Object>();
+		coalescedCount = new AtomicLong();
+	}
+
+	@Override
+	public void acceptMessage(OSCMessage message)
+	{
+		Object key = keyOf(message);
+		// only the first pending message of a key enters the queue,
+		// later ones just replace it in place
+		if (pending.put(key, message) == null) order.add(key);
+		else coalescedCount.incrementAndGet();
+	}
+
+	/**
+	 * Removes and returns the oldest pending key's latest message.
+	 * @return the message, or null if nothing is pending
+	 */
+	public OSCMessage poll()
+	{
+		Object key;
+		while ((key = order.poll()) != null)
+		{
+			OSCMessage message = pending.remove(key);
+			if (message != null) return message;
+		}
+		return null;
+	}
+
+	/**
+	 * Hands every pending message to the given listener, in the order
+	 * their keys first became pending.
+	 * @param listener the consumer
+	 * @return the number of messages delivered
+	 */
+	public int drain(OSCListener listener)
+	{
+		return drain(listener, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Hands at most <code>maxMessages</code> pending messages to the given listener.
+	 * @param listener the consumer
+	 * @param maxMessages upper bound of messages delivered by this call
+	 * @return the number of messages delivered
+	 */
+	public int drain(OSCListener listener, int maxMessages)
+	{
+		int count = 0;
+		OSCMessage message;
+		while (count < maxMessages && (message = poll()) != null)
+		{
+			listener.acceptMessage(message);
+			count++;
+		}
+		return count;
+	}
+
+	/**
+	 * @return the number of keys with a pending message
+	 */
+	public int pendingCount()
+	{
+		return pending.size();
+	}
+
+	/**
+	 * @return how many messages were replaced by a newer one before being drained
+	 */
+	public long coalescedCount()
+	{
+		return coalescedCount.get();
+	}
+
+	/**
+	 * Drops every pending message.
+	 */
+	public void clear()
+	{
+		order.clear();
+		pending.clear();
+	}
+
+	private Object keyOf(OSCMessage message)
+	{
+		if (keyArguments == null) return message.address();
+
+		Object[] arguments = message.arguments();
+		Object[] key = new Object[keyArguments.length + 1];
+		key[0] = message.address();
+		for (int i = 0; i < keyArguments.length; i++)
+		{
+			int index = keyArguments[i];
+			if (index < arguments.length) key[i + 1] = arguments[index];
+		}
+		return new Key(key);
+	}
+
+	/**
+	 * Composite key made of the address and the selected arguments.
+	 */
+	private static class Key
+	{
+		private final Object[] parts;
+		private final int hash;
+
+		Key(Object[] parts)
+		{
+			this.parts = parts;
+			this.hash = Arrays.deepHashCode(parts);
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object other)
+		{
+			if (this == other) return true;
+			if (!(other instanceof Key)) return false;
+			return Arrays.deepEquals(parts, ((Key) other).parts);
+		}
+	}
+}
@@ -0,0 +1,161 @@
+package fuse.osc;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The receiving side of the compact encoding of an {@link OSCCompactSender}:
+ * accepts its offers and turns its compact packets back into plain OSC
+ * messages, so that listeners can not tell the difference. Set it on an
+ * {@link OSCReceiver} to opt in; a decoder serves a single receiver.
+ * <p>
+ * A delta frame is only decoded if the previous frame of its id was, so
+ * after a lost packet the messages of that id are dropped until the next
+ * key frame.
+ * <p>
+ * The decoder keeps the last message of at most {@link #setMaxEntries(int)}
+ * ids, across senders, forgetting the least recently used ones, so that
+ * made up sender ids can not grow it without bounds.
+ */
+public class OSCCompactDecoder
+{
+	private static final byte[] OFFER_START = new OSCMessage(OSCCompactSender.OFFER_ADDRESS, new Object[] { 0 }).getByteArray();
+
+	public static final int DEFAULT_MAX_ENTRIES = 1024;
+
+	private Map<Long, Entry> entries;
+	private int maxEntries;
+	private byte[] bytes;
+	private long droppedCount;
+
+	/**
+	 * The last message decoded for an id of a sender.
+	 */
+	private static class Entry
+	{
+		byte[] message;
+		int dataStart;
+		int frame;
+	}
+
+	public OSCCompactDecoder()
+	{
+		maxEntries = DEFAULT_MAX_ENTRIES;
+		entries = new LinkedHashMap<Long, Entry>(16, 0.75f, true)
+		{
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Long, OSCCompactDecoder.Entry> eldest)
+			{
+				return size() > maxEntries;
+			}
+		};
+	}
+
+	/**
+	 * @param maxEntries how many ids the last message is kept for
+	 */
+	public void setMaxEntries(int maxEntries)
+	{
+		if (maxEntries <= 0) throw new IllegalArgumentException("The decoder needs room for at least one entry, not " + maxEntries);
+		this.maxEntries = maxEntries;
+	}
+
+	/**
+	 * @return how many compact packets could not be decoded, mostly delta
+	 *   frames whose previous frame was lost
+	 */
+	public long getDroppedCount()
+	{
+		return droppedCount;
+	}
+
+	/**
+	 * @return the acceptance to send back if the packet is an offer of the
+	 *   compact encoding, or null
+	 */
+	public byte[] acceptance(byte[] bytes, int length)
+	{
+		if (length != OFFER_START.length) return null;
+		// everything but the sender id
+		for (int i = 0; i < length - 4; i++)
+		{
+			if (bytes[i] != OFFER_START[i]) return null;
+		}
+		return new OSCMessage(OSCCompactSender.ACCEPT_ADDRESS, new Object[] { readInt(bytes, length - 4) }).getByteArray();
+	}
+
+	public boolean isCompact(byte[] bytes, int length)
+	{
+		return length >= OSCCompactSender.HEADER_LENGTH && bytes[0] == OSCCompactSender.MAGIC;
+	}
+
+	/**
+	 * Decode a compact packet into the plain message it stands for, which
+	 * {@link #getBytes()} then holds.
+	 * @return the length of the message, or -1 if it can not be decoded
+	 */
+	public int expand(byte[] bytes, int length)
+	{
+		int id = ((bytes[2] & 0xFF) << 8) | (bytes[3] & 0xFF);
+		long key = ((long) readInt(bytes, 4) << 16) | id;
+		int frame = readInt(bytes, 8);
+		Entry entry = entries.get(key);
+		int header = OSCCompactSender.HEADER_LENGTH;
+
+		if (bytes[1] == OSCCompactSender.KEY_FRAME)
+		{
+			if (entry == null)
+			{
+				entry = new Entry();
+				entries.put(key, entry);
+			}
+			entry.message = new byte[length - header];
+			System.arraycopy(bytes, header, entry.message, 0, entry.message.length);
+			entry.dataStart = OSCCompactSender.dataStart(entry.message);
+			entry.frame = frame;
+			this.bytes = entry.message;
+			return entry.message.length;
+		}
+
+		if (bytes[1] != OSCCompactSender.DELTA_FRAME || entry == null || entry.frame != frame - 1)
+		{
+			droppedCount++;
+			return -1;
+		}
+		byte[] message = entry.message;
+		int words = (message.length - entry.dataStart) / 4;
+		int bitmapLength = ((words + 7) / 8 + 3) & ~3;
+		int changed = 0;
+		for (int i = 0; i < bitmapLength && header + i < length; i++) changed += Integer.bitCount(bytes[header + i] & 0xFF);
+		if (length != header + bitmapLength + changed * 4)
+		{
+			droppedCount++;
+			return -1;
+		}
+		int position = header + bitmapLength;
+		for (int word = 0; word < words; word++)
+		{
+			if ((bytes[header + (word >> 3)] & (0x80 >>> (word & 7))) == 0) continue;
+			System.arraycopy(bytes, position, message, entry.dataStart + word * 4, 4);
+			position += 4;
+		}
+		entry.frame = frame;
+		this.bytes = message;
+		return message.length;
+	}
+
+	/**
+	 * @return the message decoded by the last successful {@link #expand(byte[], int)},
+	 *   valid until the next one
+	 */
+	public byte[] getBytes()
+	{
+		return bytes;
+	}
+
+	private static int readInt(byte[] bytes, int position)
+	{
+		return ((bytes[position] & 0xFF) << 24) | ((bytes[position + 1] & 0xFF) << 16)
+				| ((bytes[position + 2] & 0xFF) << 8) | (bytes[position + 3] & 0xFF);
+	}
+}
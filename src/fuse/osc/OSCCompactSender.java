@@ -0,0 +1,318 @@
+package fuse.osc;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.PortUnreachableException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.security.SecureRandom;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import fuse.osc.utils.OSCByteArrayToJavaConverter;
+
+/**
+ * Sends OSC packets to one receiver like {@link OSCSender}, switching to a
+ * compact encoding of messages once the receiver agreed to it, which an
+ * {@link OSCReceiver} does when it has an {@link OSCCompactDecoder}.
+ * <p>
+ * Every second the sender offers the compact encoding with a
+ * <code>/fuse/compact/offer</code> message, and uses it for three seconds
+ * after each acceptance, which the receiver sends back from the port
+ * packets are sent to. A receiver that stops accepting gets plain OSC
+ * packets back within three seconds. After three offers in a row are left
+ * unanswered, the sender settles on plain OSC and stops offering, so a plain
+ * OSC peer sees no more than three offers, until {@link #renegotiate()}.
+ * <p>
+ * In the compact encoding, the address and type tags of a message are
+ * replaced by a small id, and its arguments are sent as the difference with
+ * the previous message of the same id: a bitmap of the 4 byte words that
+ * changed, followed by those words. A key frame, holding the whole message,
+ * is sent for the first message of an id, every {@link #setKeyFrameInterval(int)}
+ * messages, and whenever it is not larger than the difference, so that a lost
+ * packet only holds up the messages of its id until the next key frame.
+ * Bundles are always sent plain.
+ */
+public class OSCCompactSender extends OSCPort
+{
+	static final String OFFER_ADDRESS = "/fuse/compact/offer";
+	static final String ACCEPT_ADDRESS = "/fuse/compact/accept";
+
+	/**
+	 * First byte of a compact packet, which is neither the '/' of a message
+	 * nor the '#' of a bundle.
+	 */
+	static final byte MAGIC = (byte) 0xC5;
+	static final byte KEY_FRAME = 1;
+	static final byte DELTA_FRAME = 2;
+	/**
+	 * Magic, kind, id, sender id and frame number.
+	 */
+	static final int HEADER_LENGTH = 12;
+	static final int MAX_IDS = 65536;
+
+	private static final long OFFER_INTERVAL_NANOS = 1000000000L;
+	private static final long ACCEPTANCE_NANOS = 3000000000L;
+	private static final int MAX_UNANSWERED_OFFERS = 3;
+
+	private DatagramChannel channel;
+	private int senderId;
+	private int keyFrameInterval;
+	private Map<String, Entry> entries;
+	private byte[] scratch;
+	private long lastOfferNanos;
+	private boolean isOffering;
+	private AtomicInteger unansweredOffers;
+	private volatile long lastAcceptNanos;
+	private volatile boolean isAccepted;
+	private volatile OSCTracer tracer;
+
+	/**
+	 * What was last sent for an address and its type tags.
+	 */
+	private static class Entry
+	{
+		int id;
+		int frame;
+		int framesSinceKey;
+		byte[] data;
+		int dataLength;
+	}
+
+	public OSCCompactSender(InetAddress ip, int port) throws IOException
+	{
+		this.port = port;
+		channel = DatagramChannel.open();
+		// connected, so that only the receiver's acceptances come in
+		channel.connect(new InetSocketAddress(ip, port));
+		socket = channel.socket();
+		senderId = new SecureRandom().nextInt();
+		keyFrameInterval = 30;
+		entries = new HashMap<String, Entry>();
+		scratch = new byte[3072];
+		lastOfferNanos = System.nanoTime() - OFFER_INTERVAL_NANOS;
+		isOffering = true;
+		unansweredOffers = new AtomicInteger();
+
+		Thread acceptanceReader = new Thread(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				readAcceptances();
+			}
+		}, "OSCCompactSender");
+		acceptanceReader.setDaemon(true);
+		acceptanceReader.start();
+	}
+
+	/**
+	 * @param keyFrameInterval send the whole message at least every so many
+	 *   messages of the same address
+	 */
+	public synchronized void setKeyFrameInterval(int keyFrameInterval)
+	{
+		if (keyFrameInterval <= 0) throw new IllegalArgumentException("Key frame interval must be positive, is " + keyFrameInterval);
+		this.keyFrameInterval = keyFrameInterval;
+	}
+
+	/**
+	 * @param tracer told about every sent datagram, compact or not, or null
+	 */
+	public void setTracer(OSCTracer tracer)
+	{
+		this.tracer = tracer;
+	}
+
+	/**
+	 * Offer the compact encoding again, after the sender settled on plain
+	 * OSC, for instance once the receiver got an {@link OSCCompactDecoder}.
+	 */
+	public synchronized void renegotiate()
+	{
+		isOffering = true;
+		unansweredOffers.set(0);
+		lastOfferNanos = System.nanoTime() - OFFER_INTERVAL_NANOS;
+	}
+
+	/**
+	 * @return whether messages are currently sent in the compact encoding
+	 */
+	public boolean isCompact()
+	{
+		return isAccepted && System.nanoTime() - lastAcceptNanos < ACCEPTANCE_NANOS;
+	}
+
+	public synchronized void send(OSCPacket oscPacket) throws IOException
+	{
+		long now = System.nanoTime();
+		if (isOffering && now - lastOfferNanos >= OFFER_INTERVAL_NANOS)
+		{
+			lastOfferNanos = now;
+			if (unansweredOffers.getAndIncrement() < MAX_UNANSWERED_OFFERS)
+			{
+				byte[] offer = new OSCMessage(OFFER_ADDRESS, new Object[] { senderId }).getByteArray();
+				write(offer, 0, offer.length);
+			}
+			// the receiver is a plain OSC peer, or stopped accepting
+			else isOffering = false;
+		}
+		byte[] bytes = oscPacket.getByteArray();
+		if (!(oscPacket instanceof OSCMessage) || !isCompact())
+		{
+			write(bytes, 0, bytes.length);
+			return;
+		}
+		int dataStart = dataStart(bytes);
+		String key = new String(bytes, 0, dataStart, "ISO-8859-1");
+		Entry entry = entries.get(key);
+		if (entry == null)
+		{
+			if (entries.size() >= MAX_IDS)
+			{
+				write(bytes, 0, bytes.length);
+				return;
+			}
+			entry = new Entry();
+			entry.id = entries.size();
+			entries.put(key, entry);
+		}
+		int dataLength = bytes.length - dataStart;
+		boolean isKeyFrameDue = entry.data == null || entry.dataLength != dataLength || entry.framesSinceKey + 1 >= keyFrameInterval;
+		entry.frame++;
+		int length = isKeyFrameDue ? -1 : writeDelta(entry, bytes, dataStart, dataLength);
+		if (length < 0 || length >= HEADER_LENGTH + bytes.length)
+		{
+			// a key frame: the header and the whole message
+			ensureScratch(HEADER_LENGTH + bytes.length);
+			writeHeader(KEY_FRAME, entry);
+			System.arraycopy(bytes, 0, scratch, HEADER_LENGTH, bytes.length);
+			length = HEADER_LENGTH + bytes.length;
+			entry.framesSinceKey = 0;
+		}
+		else entry.framesSinceKey++;
+		if (entry.data == null || entry.data.length < dataLength) entry.data = new byte[dataLength];
+		System.arraycopy(bytes, dataStart, entry.data, 0, dataLength);
+		entry.dataLength = dataLength;
+		write(scratch, 0, length);
+	}
+
+	/**
+	 * Write a delta frame for the current frame of an entry into the scratch bytes.
+	 * @return its length
+	 */
+	private int writeDelta(Entry entry, byte[] bytes, int dataStart, int dataLength)
+	{
+		int words = dataLength / 4;
+		int bitmapLength = ((words + 7) / 8 + 3) & ~3;
+		ensureScratch(HEADER_LENGTH + bitmapLength + dataLength);
+		writeHeader(DELTA_FRAME, entry);
+		for (int i = 0; i < bitmapLength; i++) scratch[HEADER_LENGTH + i] = 0;
+		int position = HEADER_LENGTH + bitmapLength;
+		byte[] previous = entry.data;
+		for (int word = 0; word < words; word++)
+		{
+			int offset = word * 4;
+			int at = dataStart + offset;
+			if (bytes[at] == previous[offset] && bytes[at + 1] == previous[offset + 1]
+					&& bytes[at + 2] == previous[offset + 2] && bytes[at + 3] == previous[offset + 3]) continue;
+			scratch[HEADER_LENGTH + (word >> 3)] |= (byte) (0x80 >>> (word & 7));
+			System.arraycopy(bytes, at, scratch, position, 4);
+			position += 4;
+		}
+		return position;
+	}
+
+	private void writeHeader(byte kind, Entry entry)
+	{
+		scratch[0] = MAGIC;
+		scratch[1] = kind;
+		scratch[2] = (byte) (entry.id >>> 8);
+		scratch[3] = (byte) entry.id;
+		writeInt(scratch, 4, senderId);
+		writeInt(scratch, 8, entry.frame);
+	}
+
+	private void ensureScratch(int size)
+	{
+		if (scratch.length < size) scratch = new byte[Math.max(size, scratch.length * 2)];
+	}
+
+	private void write(byte[] bytes, int offset, int length) throws IOException
+	{
+		OSCTracer tracer = this.tracer;
+		if (tracer != null) tracer.packetSent(bytes, offset, length, socket.getRemoteSocketAddress(), System.nanoTime());
+		try
+		{
+			channel.write(ByteBuffer.wrap(bytes, offset, length));
+		}
+		catch (PortUnreachableException e)
+		{
+			// nobody listens yet: the datagram is lost, as with an unconnected socket
+		}
+	}
+
+	private void readAcceptances()
+	{
+		OSCByteArrayToJavaConverter converter = new OSCByteArrayToJavaConverter();
+		ByteBuffer buffer = ByteBuffer.allocate(256);
+		while (channel.isOpen())
+		{
+			try
+			{
+				buffer.clear();
+				channel.receive(buffer);
+				if (buffer.position() == 0 || buffer.get(0) != '/') continue;
+				OSCPacket packet = converter.convert(buffer.array(), buffer.position());
+				if (!(packet instanceof OSCMessage)) continue;
+				OSCMessage message = (OSCMessage) packet;
+				Object[] arguments = message.arguments();
+				if (ACCEPT_ADDRESS.equals(message.address()) && arguments.length > 0 && Integer.valueOf(senderId).equals(arguments[0]))
+				{
+					lastAcceptNanos = System.nanoTime();
+					isAccepted = true;
+					unansweredOffers.set(0);
+				}
+			}
+			catch (PortUnreachableException e)
+			{
+				// the receiver is not there yet
+			}
+			catch (IOException e)
+			{
+				if (channel.isOpen()) e.printStackTrace();
+			}
+			catch (RuntimeException e)
+			{
+				// not an acceptance
+			}
+		}
+	}
+
+	/**
+	 * @return the index of the first argument byte of an encoded message
+	 */
+	static int dataStart(byte[] bytes)
+	{
+		int position = skipString(bytes, 0);
+		if (position >= bytes.length || bytes[position] != ',') return position;
+		return skipString(bytes, position);
+	}
+
+	private static int skipString(byte[] bytes, int position)
+	{
+		int end = position;
+		while (end < bytes.length && bytes[end] != 0) end++;
+		return Math.min(bytes.length, (end / 4 + 1) * 4);
+	}
+
+	private static void writeInt(byte[] bytes, int offset, int value)
+	{
+		bytes[offset] = (byte) (value >>> 24);
+		bytes[offset + 1] = (byte) (value >>> 16);
+		bytes[offset + 2] = (byte) (value >>> 8);
+		bytes[offset + 3] = (byte) value;
+	}
+}
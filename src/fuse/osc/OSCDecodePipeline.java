@@ -0,0 +1,268 @@
+package fuse.osc;
+
+import java.net.SocketAddress;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import fuse.osc.utils.OSCByteArrayToJavaConverter;
+
+/**
+ * Decodes received datagrams on a pool of worker threads, then restores
+ * their arrival order per source before they reach the
+ * {@link OSCPacketDispatcher}.
+ * <p>
+ * The receiving thread only copies each datagram into a pooled buffer and
+ * tags it with the next sequence number of its source. Workers decode in
+ * parallel; a decoded packet is held back until all earlier packets of the
+ * same source were dispatched, so the messages of one sender keep their
+ * order while those of different senders are dispatched concurrently.
+ * Listeners must therefore be thread-safe.
+ * <p>
+ * At most {@link #DEFAULT_QUEUE_CAPACITY} datagrams, or the capacity given
+ * to the constructor, wait for a worker; a datagram arriving when the queue
+ * is full is dropped, like one the socket buffer has no room for, and
+ * counted by {@link #getDroppedCount()}. It never gets a sequence number,
+ * so it does not hold back the packets after it. The state of a source not
+ * heard from for {@link #setIdleMillis(long)} is forgotten once all its
+ * packets were dispatched.
+ */
+public class OSCDecodePipeline
+{
+	/**
+	 * Stands for a packet that could not be decoded, so that it does not
+	 * hold back the ones after it.
+	 */
+	private static final Object UNDECODABLE = new Object();
+
+	public static final int DEFAULT_QUEUE_CAPACITY = 1024;
+
+	private OSCPacketDispatcher dispatcher;
+	private ThreadPoolExecutor executor;
+	private ThreadLocal<OSCByteArrayToJavaConverter> converters;
+	private Queue<byte[]> bufferPool;
+	private Map<SocketAddress, Source> sources;
+	private volatile OSCTracer tracer;
+	private volatile long idleNanos;
+	private AtomicLong droppedCount;
+
+	/**
+	 * Per source sequencing state.
+	 */
+	private static class Source
+	{
+		final SocketAddress address;
+		// written by the receiving thread only
+		long nextSequence;
+		long lastNanos;
+		// guarded by the Source itself
+		long nextToDispatch;
+		Map<Long, Object> decoded = new HashMap<Long, Object>();
+		// whether a worker is dispatching the packets of this source
+		boolean isDispatching;
+
+		Source(SocketAddress address)
+		{
+			this.address = address;
+		}
+	}
+
+	/**
+	 * @param dispatcher where decoded packets go, in order per source
+	 * @param threads number of decoding threads
+	 */
+	public OSCDecodePipeline(OSCPacketDispatcher dispatcher, int threads)
+	{
+		this(dispatcher, threads, DEFAULT_QUEUE_CAPACITY);
+	}
+
+	/**
+	 * @param dispatcher where decoded packets go, in order per source
+	 * @param threads number of decoding threads
+	 * @param queueCapacity number of datagrams waiting for a decoding
+	 *   thread above which datagrams are dropped
+	 */
+	public OSCDecodePipeline(OSCPacketDispatcher dispatcher, int threads, int queueCapacity)
+	{
+		this.dispatcher = dispatcher;
+		executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(queueCapacity), new ThreadFactory()
+		{
+			@Override
+			public Thread newThread(Runnable runnable)
+			{
+				Thread thread = new Thread(runnable, "OSCDecodePipeline");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		converters = new ThreadLocal<OSCByteArrayToJavaConverter>()
+		{
+			@Override
+			protected OSCByteArrayToJavaConverter initialValue()
+			{
+				return new OSCByteArrayToJavaConverter();
+			}
+		};
+		bufferPool = new ConcurrentLinkedQueue<byte[]>();
+		sources = new ConcurrentHashMap<SocketAddress, Source>();
+		idleNanos = 10000000000L;
+		droppedCount = new AtomicLong();
+	}
+
+	/**
+	 * @param idleMillis how long the state of a silent source is kept
+	 */
+	public void setIdleMillis(long idleMillis)
+	{
+		idleNanos = idleMillis * 1000000L;
+	}
+
+	/**
+	 * @return number of datagrams dropped because the queue was full
+	 */
+	public long getDroppedCount()
+	{
+		return droppedCount.get();
+	}
+
+	/**
+	 * @return number of sources whose state is kept
+	 */
+	public int getSourceCount()
+	{
+		return sources.size();
+	}
+
+	/**
+	 * @param tracer told about every decoded and dispatched packet, on the
+	 *   decoding threads, or null
+	 */
+	public void setTracer(OSCTracer tracer)
+	{
+		this.tracer = tracer;
+	}
+
+	/**
+	 * Queue a datagram for decoding. Must be called from a single thread,
+	 * in arrival order. The bytes are copied, so the caller may reuse them.
+	 * @param bytes buffer holding the datagram
+	 * @param length length of the datagram
+	 * @param sourceAddress address of the sender
+	 */
+	public void submit(byte[] bytes, final int length, SocketAddress sourceAddress)
+	{
+		long now = System.nanoTime();
+		Source source = sources.get(sourceAddress);
+		if (source == null)
+		{
+			forgetIdleSources(now);
+			source = new Source(sourceAddress);
+			sources.put(sourceAddress, source);
+		}
+		source.lastNanos = now;
+		final Source packetSource = source;
+		final long sequence = source.nextSequence++;
+
+		byte[] pooled = bufferPool.poll();
+		if (pooled == null || pooled.length < length) pooled = new byte[Math.max(length, 3072)];
+		System.arraycopy(bytes, 0, pooled, 0, length);
+		final byte[] buffer = pooled;
+
+		try
+		{
+			executor.execute(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					OSCPacket decoded = OSCTracing.decode(converters.get(), buffer, length, packetSource.address, tracer);
+					Object packet = (decoded == null) ? UNDECODABLE : decoded;
+					bufferPool.offer(buffer);
+					dispatchInOrder(packetSource, sequence, packet);
+				}
+			});
+		}
+		catch (RejectedExecutionException e)
+		{
+			// no worker knows the sequence number yet, so it is handed out again
+			source.nextSequence = sequence;
+			bufferPool.offer(buffer);
+			droppedCount.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Forget the sources not heard from for a while, unless some of their
+	 * packets are still being decoded or held back. Only done for new
+	 * sources, by the receiving thread, which alone hands out sequence
+	 * numbers.
+	 */
+	private void forgetIdleSources(long now)
+	{
+		for (Iterator<Source> i = sources.values().iterator(); i.hasNext();)
+		{
+			Source source = i.next();
+			if (now - source.lastNanos <= idleNanos) continue;
+			synchronized (source)
+			{
+				if (source.nextToDispatch == source.nextSequence && !source.isDispatching) i.remove();
+			}
+		}
+	}
+
+	/**
+	 * Hand a decoded packet over for dispatching. The first worker to find
+	 * the next packet of a source ready dispatches it and every following
+	 * one that is ready, outside the lock, so that a slow listener holds
+	 * back only that worker; the others leave their packets to it.
+	 */
+	private void dispatchInOrder(Source source, long sequence, Object packet)
+	{
+		synchronized (source)
+		{
+			source.decoded.put(sequence, packet);
+			if (source.isDispatching) return;
+			source.isDispatching = true;
+		}
+		while (true)
+		{
+			synchronized (source)
+			{
+				packet = source.decoded.remove(source.nextToDispatch);
+				if (packet == null)
+				{
+					source.isDispatching = false;
+					return;
+				}
+				source.nextToDispatch++;
+			}
+			if (packet == UNDECODABLE) continue;
+			try
+			{
+				OSCTracing.dispatch(dispatcher, (OSCPacket) packet, source.address, tracer);
+			}
+			catch (RuntimeException e)
+			{
+				// a failing listener must not stop the dispatching of this source
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Stop the decoding threads once the queued datagrams are dispatched.
+	 */
+	public void shutdown()
+	{
+		executor.shutdown();
+	}
+}
@@ -0,0 +1,182 @@
+package fuse.osc;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Passes the first copy of every packet sent by an {@link OSCRedundantSender}
+ * and drops the other copies. Set it on the {@link OSCReceiver}s of every
+ * path; it may be shared by receivers on different threads, since it never
+ * locks. Untagged packets pass as they are.
+ * <p>
+ * Each sender has a sliding window of recent sequence numbers: a slot per
+ * number modulo the window size holds the highest number seen there, and is
+ * raised with a compare and set, so exactly one copy wins it. A copy older
+ * than the window is dropped too, having long been overtaken.
+ * <p>
+ * A sender gets a new id every time it is created, so the windows of senders
+ * not heard from for {@link #setIdleMillis(long)} are forgotten, and at most
+ * {@link #setMaxSenders(int)} windows are kept, the least recently used
+ * being forgotten first.
+ */
+public class OSCDeduplicator
+{
+	/**
+	 * Returned by {@link #filter(byte[], int)} for a copy to drop.
+	 */
+	public static final int DUPLICATE = -1;
+
+	private int windowSize;
+	private volatile int maxSenders;
+	private volatile long idleNanos;
+	private ConcurrentHashMap<Integer, Window> windows;
+	private AtomicLong duplicateCount;
+
+	/**
+	 * The recent sequence numbers of a sender.
+	 */
+	private static class Window
+	{
+		final AtomicLongArray sequences;
+		volatile long lastNanos;
+
+		Window(int size)
+		{
+			sequences = new AtomicLongArray(size);
+			for (int i = 0; i < size; i++) sequences.set(i, -1);
+		}
+	}
+
+	public OSCDeduplicator()
+	{
+		this(4096);
+	}
+
+	/**
+	 * @param windowSize how many recent sequence numbers of each sender are remembered
+	 */
+	public OSCDeduplicator(int windowSize)
+	{
+		this.windowSize = windowSize;
+		maxSenders = 64;
+		idleNanos = 10000000000L;
+		windows = new ConcurrentHashMap<Integer, Window>();
+		duplicateCount = new AtomicLong();
+	}
+
+	/**
+	 * @param maxSenders how many senders a window is kept for at most
+	 */
+	public void setMaxSenders(int maxSenders)
+	{
+		if (maxSenders <= 0) throw new IllegalArgumentException("At least one sender must be kept, not " + maxSenders);
+		this.maxSenders = maxSenders;
+	}
+
+	/**
+	 * @param idleMillis how long the window of a silent sender is kept
+	 */
+	public void setIdleMillis(long idleMillis)
+	{
+		idleNanos = idleMillis * 1000000L;
+	}
+
+	/**
+	 * @return how many copies were dropped
+	 */
+	public long getDuplicateCount()
+	{
+		return duplicateCount.get();
+	}
+
+	/**
+	 * @return how many senders a window is currently kept for
+	 */
+	public int getSenderCount()
+	{
+		return windows.size();
+	}
+
+	/**
+	 * @param bytes buffer holding a validated packet, starting at index 0
+	 * @param length length of the packet
+	 * @return {@link #DUPLICATE}, or the offset of the packet without its
+	 *   tag: 0 if it was not tagged
+	 */
+	public int filter(byte[] bytes, int length)
+	{
+		if (!isTagged(bytes, length)) return 0;
+		int senderId = readInt(bytes, OSCRedundantSender.SENDER_ID_OFFSET);
+		long sequence = ((long) readInt(bytes, OSCRedundantSender.SEQUENCE_OFFSET) << 32)
+				| (readInt(bytes, OSCRedundantSender.SEQUENCE_OFFSET + 4) & 0xFFFFFFFFL);
+
+		long now = System.nanoTime();
+		Window window = windows.get(senderId);
+		if (window == null) window = addWindow(senderId, now);
+		window.lastNanos = now;
+		AtomicLongArray sequences = window.sequences;
+		int slot = (int) (sequence % windowSize);
+		while (true)
+		{
+			long seen = sequences.get(slot);
+			if (seen >= sequence)
+			{
+				duplicateCount.incrementAndGet();
+				return DUPLICATE;
+			}
+			if (sequences.compareAndSet(slot, seen, sequence)) return OSCRedundantSender.TAG_LENGTH;
+		}
+	}
+
+	/**
+	 * Make a window for a new sender, first forgetting the idle ones, and
+	 * the least recently used one if there are still too many. Only done
+	 * once per sender, so the lock is never taken for the packets of
+	 * known senders.
+	 */
+	private synchronized Window addWindow(int senderId, long now)
+	{
+		Window existing = windows.get(senderId);
+		if (existing != null) return existing;
+		Integer oldestId = null;
+		long oldestNanos = 0;
+		for (Iterator<Map.Entry<Integer, Window>> i = windows.entrySet().iterator(); i.hasNext();)
+		{
+			Map.Entry<Integer, Window> entry = i.next();
+			long lastNanos = entry.getValue().lastNanos;
+			if (now - lastNanos > idleNanos) i.remove();
+			else if (oldestId == null || lastNanos - oldestNanos < 0)
+			{
+				oldestId = entry.getKey();
+				oldestNanos = lastNanos;
+			}
+		}
+		if (windows.size() >= maxSenders && oldestId != null) windows.remove(oldestId);
+		Window window = new Window(windowSize);
+		window.lastNanos = now;
+		windows.put(senderId, window);
+		return window;
+	}
+
+	private static boolean isTagged(byte[] bytes, int length)
+	{
+		if (length <= OSCRedundantSender.TAG_LENGTH) return false;
+		byte[] header = OSCRedundantSender.TAG_HEADER;
+		// skip the time tag, which is not checked
+		for (int i = 0; i < header.length; i++)
+		{
+			if (i >= 8 && i < 16) continue;
+			if (bytes[i] != header[i]) return false;
+		}
+		return readInt(bytes, OSCRedundantSender.LENGTH_OFFSET) == length - OSCRedundantSender.TAG_LENGTH;
+	}
+
+	private static int readInt(byte[] bytes, int position)
+	{
+		return ((bytes[position] & 0xFF) << 24) | ((bytes[position + 1] & 0xFF) << 16)
+				| ((bytes[position + 2] & 0xFF) << 8) | (bytes[position + 3] & 0xFF);
+	}
+}
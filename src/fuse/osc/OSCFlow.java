@@ -0,0 +1,40 @@
+package fuse.osc;
+
+/**
+ * The Reactive Streams interfaces, with the same methods and rules as
+ * <code>java.util.concurrent.Flow</code>, which is not available on every
+ * platform this library runs on. Adapting them to <code>Flow</code> or to
+ * <code>org.reactivestreams</code> takes one delegating method per call.
+ */
+public final class OSCFlow
+{
+	private OSCFlow()
+	{
+	}
+
+	public static interface Publisher<T>
+	{
+		public void subscribe(Subscriber<? super T> subscriber);
+	}
+
+	public static interface Subscriber<T>
+	{
+		public void onSubscribe(Subscription subscription);
+
+		public void onNext(T item);
+
+		public void onError(Throwable throwable);
+
+		public void onComplete();
+	}
+
+	public static interface Subscription
+	{
+		/**
+		 * @param n how many more items the subscriber is ready for
+		 */
+		public void request(long n);
+
+		public void cancel();
+	}
+}
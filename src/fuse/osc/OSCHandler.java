@@ -0,0 +1,32 @@
+package fuse.osc;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a method to be called for the messages whose address matches an OSC
+ * address pattern, once its object is bound with {@link OSCHandlerBinder}.
+ * <p>
+ * The parameters of the method receive the message arguments in order and
+ * may be <code>int</code>, <code>long</code>, <code>float</code>,
+ * <code>double</code>, <code>boolean</code>, <code>String</code>, their
+ * wrappers, or <code>int[]</code>, <code>float[]</code> and
+ * <code>double[]</code> for array arguments. An {@link OSCMessage} parameter, allowed first only, receives the
+ * message itself. For example:
+ * <pre>
+ * &#64;OSCHandler("/mixer/*&#47;gain")
+ * public void gain(OSCMessage message, int channel, float value)
+ * </pre>
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface OSCHandler
+{
+	/**
+	 * @return the OSC address pattern, with <code>*</code>, <code>?</code>,
+	 *   <code>[...]</code> and <code>{...}</code> wildcards
+	 */
+	String value();
+}
@@ -0,0 +1,265 @@
+package fuse.osc;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import fuse.osc.utils.OSCPatternMatcher;
+
+/**
+ * Calls the {@link OSCHandler} methods of bound objects for the messages
+ * matching their address patterns. Register it as a listener of an
+ * {@link OSCReceiver} or {@link OSCPacketDispatcher}.
+ * <p>
+ * Everything is resolved once: methods and parameter conversions at binding
+ * time, and the handlers matching an address the first time that address is
+ * seen. Dispatching a message then takes one map lookup per message and one
+ * call per handler, without pattern matching or method lookups. Each handler
+ * reuses one array of call arguments per dispatching thread, so a call
+ * allocates nothing but the widened numbers, if any.
+ * <p>
+ * Binding and unbinding replace the bindings and the cache of resolved
+ * addresses at once, so a dispatch racing with them never stores the
+ * handlers of the old bindings in the new cache. The cache holds at most
+ * {@link #MAX_CACHED_ADDRESSES} addresses; others are resolved every time.
+ */
+public class OSCHandlerBinder implements OSCListener
+{
+	private static final Binding[] NO_BINDINGS = new Binding[0];
+
+	private static final int MESSAGE = 0;
+	private static final int INT = 1;
+	private static final int LONG = 2;
+	private static final int FLOAT = 3;
+	private static final int DOUBLE = 4;
+	private static final int BOOLEAN = 5;
+	private static final int STRING = 6;
+	private static final int INT_ARRAY = 7;
+	private static final int FLOAT_ARRAY = 8;
+	private static final int DOUBLE_ARRAY = 9;
+
+	public static final int MAX_CACHED_ADDRESSES = 1024;
+
+	private volatile Bindings bindings;
+
+	/**
+	 * The bound handlers, and the handlers matching each address seen.
+	 * Replaced as a whole when handlers are bound or unbound.
+	 */
+	private static class Bindings
+	{
+		final Binding[] all;
+		final ConcurrentHashMap<String, Binding[]> byAddress;
+
+		Bindings(Binding[] all)
+		{
+			this.all = all;
+			byAddress = new ConcurrentHashMap<String, Binding[]>();
+		}
+	}
+
+	/**
+	 * A handler method bound to its object.
+	 */
+	private static class Binding
+	{
+		Object target;
+		Method method;
+		String pattern;
+		int[] parameters;
+		int argumentCount;
+		// the arguments of the call, reused by every call on a thread
+		final ThreadLocal<Object[]> values = new ThreadLocal<Object[]>()
+		{
+			@Override
+			protected Object[] initialValue()
+			{
+				return new Object[parameters.length];
+			}
+		};
+
+		boolean accepts(Object[] arguments)
+		{
+			if (arguments.length < argumentCount) return false;
+			int argument = 0;
+			for (int parameter : parameters)
+			{
+				if (parameter == MESSAGE) continue;
+				if (!accepts(parameter, arguments[argument++])) return false;
+			}
+			return true;
+		}
+
+		static boolean accepts(int parameter, Object argument)
+		{
+			switch (parameter)
+			{
+				case INT : return argument instanceof Integer;
+				case LONG : return argument instanceof Integer || argument instanceof Long || argument instanceof BigInteger;
+				case FLOAT : return argument instanceof Float || argument instanceof Integer;
+				case DOUBLE : return argument instanceof Double || argument instanceof Float || argument instanceof Integer;
+				case BOOLEAN : return argument instanceof Boolean;
+				case INT_ARRAY : return argument instanceof int[] || isEmptyArray(argument);
+				case FLOAT_ARRAY : return argument instanceof float[] || isEmptyArray(argument);
+				case DOUBLE_ARRAY : return argument instanceof double[] || isEmptyArray(argument);
+				default : return argument == null || argument instanceof String;
+			}
+		}
+
+		/**
+		 * The type tags of an empty array do not tell its element type, so it
+		 * decodes as an empty Object[], which fits any array parameter.
+		 */
+		static boolean isEmptyArray(Object argument)
+		{
+			return argument instanceof Object[] && ((Object[]) argument).length == 0;
+		}
+
+		/**
+		 * Widen a numeric argument to the type of its parameter. Arguments
+		 * of the right type, the usual case, are passed as they are.
+		 */
+		static Object convert(int parameter, Object argument)
+		{
+			switch (parameter)
+			{
+				case LONG : return (argument instanceof Long) ? argument : Long.valueOf(((Number) argument).longValue());
+				case FLOAT : return (argument instanceof Float) ? argument : Float.valueOf(((Number) argument).floatValue());
+				case DOUBLE : return (argument instanceof Double) ? argument : Double.valueOf(((Number) argument).doubleValue());
+				case INT_ARRAY : return (argument instanceof int[]) ? argument : new int[0];
+				case FLOAT_ARRAY : return (argument instanceof float[]) ? argument : new float[0];
+				case DOUBLE_ARRAY : return (argument instanceof double[]) ? argument : new double[0];
+				default : return argument;
+			}
+		}
+
+		void invoke(OSCMessage message)
+		{
+			Object[] arguments = message.arguments();
+			Object[] values = this.values.get();
+			int argument = 0;
+			for (int i = 0; i < parameters.length; i++)
+			{
+				if (parameters[i] == MESSAGE) values[i] = message;
+				else values[i] = convert(parameters[i], arguments[argument++]);
+			}
+			try
+			{
+				method.invoke(target, values);
+			}
+			catch (IllegalAccessException e)
+			{
+				throw new IllegalStateException(e);
+			}
+			catch (InvocationTargetException e)
+			{
+				Throwable cause = e.getCause();
+				if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+				if (cause instanceof Error) throw (Error) cause;
+				throw new IllegalStateException(cause);
+			}
+			finally
+			{
+				// the call has taken its arguments: do not keep them alive
+				Arrays.fill(values, null);
+			}
+		}
+	}
+
+	public OSCHandlerBinder()
+	{
+		bindings = new Bindings(NO_BINDINGS);
+	}
+
+	/**
+	 * Bind every {@link OSCHandler} method of an object, public or not,
+	 * including those inherited.
+	 * @throws IllegalArgumentException if a handler has an unsupported parameter
+	 */
+	public synchronized void bind(Object target)
+	{
+		List<Binding> newBindings = new ArrayList<Binding>(Arrays.asList(bindings.all));
+		for (Class<?> c = target.getClass(); c != null && c != Object.class; c = c.getSuperclass())
+		{
+			for (Method method : c.getDeclaredMethods())
+			{
+				OSCHandler handler = method.getAnnotation(OSCHandler.class);
+				if (handler != null) newBindings.add(createBinding(target, method, handler.value()));
+			}
+		}
+		bindings = new Bindings(newBindings.toArray(new Binding[newBindings.size()]));
+	}
+
+	/**
+	 * Remove every handler of an object.
+	 */
+	public synchronized void unbind(Object target)
+	{
+		List<Binding> remaining = new ArrayList<Binding>();
+		for (Binding binding : bindings.all)
+		{
+			if (binding.target != target) remaining.add(binding);
+		}
+		bindings = new Bindings(remaining.toArray(new Binding[remaining.size()]));
+	}
+
+	@Override
+	public void acceptMessage(OSCMessage message)
+	{
+		Bindings bindings = this.bindings;
+		Binding[] matching = bindings.byAddress.get(message.address());
+		if (matching == null) matching = resolve(bindings, message.address());
+		Object[] arguments = message.arguments();
+		for (Binding binding : matching)
+		{
+			if (binding.accepts(arguments)) binding.invoke(message);
+		}
+	}
+
+	private static Binding[] resolve(Bindings bindings, String address)
+	{
+		List<Binding> matching = new ArrayList<Binding>();
+		for (Binding binding : bindings.all)
+		{
+			if (OSCPatternMatcher.matches(binding.pattern, address)) matching.add(binding);
+		}
+		Binding[] resolved = matching.isEmpty() ? NO_BINDINGS : matching.toArray(new Binding[matching.size()]);
+		// addresses made up by a sender must not grow the cache without bounds
+		if (bindings.byAddress.size() < MAX_CACHED_ADDRESSES) bindings.byAddress.put(address, resolved);
+		return resolved;
+	}
+
+	private static Binding createBinding(Object target, Method method, String pattern)
+	{
+		Class<?>[] types = method.getParameterTypes();
+		Binding binding = new Binding();
+		binding.target = target;
+		binding.method = method;
+		binding.pattern = pattern;
+		binding.parameters = new int[types.length];
+		for (int i = 0; i < types.length; i++)
+		{
+			Class<?> type = types[i];
+			int parameter;
+			if (type == OSCMessage.class && i == 0) parameter = MESSAGE;
+			else if (type == int.class || type == Integer.class) parameter = INT;
+			else if (type == long.class || type == Long.class) parameter = LONG;
+			else if (type == float.class || type == Float.class) parameter = FLOAT;
+			else if (type == double.class || type == Double.class) parameter = DOUBLE;
+			else if (type == boolean.class || type == Boolean.class) parameter = BOOLEAN;
+			else if (type == String.class) parameter = STRING;
+			else if (type == int[].class) parameter = INT_ARRAY;
+			else if (type == float[].class) parameter = FLOAT_ARRAY;
+			else if (type == double[].class) parameter = DOUBLE_ARRAY;
+			else throw new IllegalArgumentException("Unsupported parameter type " + type.getName() + " in " + method);
+			binding.parameters[i] = parameter;
+			if (parameter != MESSAGE) binding.argumentCount++;
+		}
+		method.setAccessible(true);
+		return binding;
+	}
+}
@@ -0,0 +1,75 @@
+package fuse.osc;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Pins the current thread to a list of cores with <code>taskset</code>,
+ * finding the Linux id of the thread in <code>/proc/thread-self/stat</code>,
+ * so no native code is needed. Pair it with cores left out of the general
+ * scheduling by the <code>isolcpus</code> kernel parameter.
+ */
+public class OSCLinuxThreadPinner implements OSCThreadPinner
+{
+	private String cpuList;
+
+	/**
+	 * @param cpuList the cores, in the <code>taskset</code> list format, e.g. "3" or "2,3"
+	 */
+	public OSCLinuxThreadPinner(String cpuList)
+	{
+		this.cpuList = cpuList;
+	}
+
+	/**
+	 * @throws IllegalStateException if the thread could not be pinned
+	 */
+	@Override
+	public void pinCurrentThread()
+	{
+		try
+		{
+			String threadId = readThreadId();
+			Process process = new ProcessBuilder("taskset", "-p", "-c", cpuList, threadId).redirectErrorStream(true).start();
+			InputStream output = process.getInputStream();
+			StringBuilder message = new StringBuilder();
+			int c;
+			while ((c = output.read()) >= 0) message.append((char) c);
+			if (process.waitFor() != 0) throw new IllegalStateException("taskset failed: " + message.toString().trim());
+		}
+		catch (IOException e)
+		{
+			throw new IllegalStateException("Could not pin the thread to cores " + cpuList, e);
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while pinning the thread", e);
+		}
+	}
+
+	/**
+	 * Read the Linux id of the current thread, the first field of
+	 * <code>/proc/thread-self/stat</code>. Resolving the
+	 * <code>/proc/thread-self</code> link as a canonical path instead would
+	 * go through the canonical path cache of the JDK, which returns the id
+	 * of the first thread that resolved it to every other thread.
+	 */
+	private static String readThreadId() throws IOException
+	{
+		InputStream stat = new FileInputStream("/proc/thread-self/stat");
+		try
+		{
+			StringBuilder threadId = new StringBuilder();
+			int c;
+			while ((c = stat.read()) >= '0' && c <= '9') threadId.append((char) c);
+			if (threadId.length() == 0) throw new IOException("Unexpected content in /proc/thread-self/stat");
+			return threadId.toString();
+		}
+		finally
+		{
+			stat.close();
+		}
+	}
+}
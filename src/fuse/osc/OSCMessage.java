@@ -30,6 +30,30 @@ public class OSCMessage extends OSCPacket
 		return arguments;
 	}
 	
+	/**
+	 * Replace the arguments. The encoding of this message and of the
+	 * bundles holding it is computed again when next needed.
+	 * @param arguments the new arguments
+	 */
+	public void setArguments(Object[] arguments)
+	{
+		if (arguments == null) arguments = new Object[0];
+		this.arguments = arguments;
+		contentChanged();
+	}
+	
+	/**
+	 * Replace one argument.
+	 * @param index index of the argument
+	 * @param argument the new value
+	 * @see #setArguments(Object[])
+	 */
+	public void setArgument(int index, Object argument)
+	{
+		arguments[index] = argument;
+		contentChanged();
+	}
+	
 	@Override
 	protected byte[] computeByteArray(OSCJavaToByteArrayConverter stream)
 	{
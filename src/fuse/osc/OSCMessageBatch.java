@@ -0,0 +1,73 @@
+package fuse.osc;
+
+import java.net.SocketAddress;
+
+/**
+ * The messages received in one wakeup of an {@link OSCBatchReceiver}, in
+ * arrival order, bundles flattened. The same batch object is reused for
+ * every wakeup, so it is only valid during
+ * {@link OSCBatchListener#acceptBatch(OSCMessageBatch)}.
+ */
+public class OSCMessageBatch
+{
+	private OSCMessage[] messages;
+	private SocketAddress[] sources;
+	private int size;
+
+	public OSCMessageBatch()
+	{
+		messages = new OSCMessage[64];
+		sources = new SocketAddress[64];
+	}
+
+	public int size()
+	{
+		return size;
+	}
+
+	public boolean isEmpty()
+	{
+		return size == 0;
+	}
+
+	public OSCMessage get(int index)
+	{
+		if (index >= size) throw new IndexOutOfBoundsException("Index " + index + ", size " + size);
+		return messages[index];
+	}
+
+	/**
+	 * @return the address the message at the given index came from
+	 */
+	public SocketAddress getSource(int index)
+	{
+		if (index >= size) throw new IndexOutOfBoundsException("Index " + index + ", size " + size);
+		return sources[index];
+	}
+
+	void add(OSCMessage message, SocketAddress source)
+	{
+		if (size == messages.length)
+		{
+			OSCMessage[] newMessages = new OSCMessage[size * 2];
+			SocketAddress[] newSources = new SocketAddress[size * 2];
+			System.arraycopy(messages, 0, newMessages, 0, size);
+			System.arraycopy(sources, 0, newSources, 0, size);
+			messages = newMessages;
+			sources = newSources;
+		}
+		messages[size] = message;
+		sources[size] = source;
+		size++;
+	}
+
+	void clear()
+	{
+		for (int i = 0; i < size; i++)
+		{
+			messages[i] = null;
+			sources[i] = null;
+		}
+		size = 0;
+	}
+}
@@ -0,0 +1,261 @@
+package fuse.osc;
+
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import fuse.osc.utils.OSCPatternMatcher;
+
+/**
+ * Publishes the messages it gets as a listener of an {@link OSCReceiver} or
+ * {@link OSCPacketDispatcher} to {@link OSCFlow.Subscriber}s, which pull
+ * them at their own rate.
+ * <p>
+ * Each subscriber gets its own buffer, optionally only for the addresses
+ * matching a pattern, and chooses what happens when it is full: drop the
+ * oldest or the newest message, fail the subscription, or block the
+ * receiving thread until there is room. Messages are delivered on the
+ * thread that makes them deliverable, that is the receiving thread or the
+ * one calling {@link OSCFlow.Subscription#request(long)}, never on two
+ * threads at once for the same subscriber.
+ */
+public class OSCMessagePublisher implements OSCListener, OSCFlow.Publisher<OSCMessage>
+{
+	public static final int DROP_OLDEST = 0;
+	public static final int DROP_NEWEST = 1;
+	public static final int ERROR = 2;
+	public static final int BLOCK = 3;
+
+	private List<MessageSubscription> subscriptions;
+	private volatile boolean isClosed;
+
+	public OSCMessagePublisher()
+	{
+		subscriptions = new CopyOnWriteArrayList<MessageSubscription>();
+	}
+
+	/**
+	 * Subscribe to every message, with a buffer of 256 messages dropping
+	 * the oldest when full.
+	 */
+	@Override
+	public void subscribe(OSCFlow.Subscriber<? super OSCMessage> subscriber)
+	{
+		subscribe(subscriber, null, 256, DROP_OLDEST);
+	}
+
+	/**
+	 * @param subscriber who gets the messages
+	 * @param pattern OSC address pattern of the messages to get, or null for all
+	 * @param bufferSize how many messages are kept while the subscriber has no demand
+	 * @param overflowStrategy {@link #DROP_OLDEST}, {@link #DROP_NEWEST}, {@link #ERROR} or {@link #BLOCK}
+	 */
+	public void subscribe(OSCFlow.Subscriber<? super OSCMessage> subscriber, String pattern, int bufferSize, int overflowStrategy)
+	{
+		if (bufferSize <= 0) throw new IllegalArgumentException("Buffer size must be positive, is " + bufferSize);
+		if (overflowStrategy < DROP_OLDEST || overflowStrategy > BLOCK) throw new IllegalArgumentException("Unknown overflow strategy " + overflowStrategy);
+		MessageSubscription subscription = new MessageSubscription(subscriber, pattern, bufferSize, overflowStrategy);
+		subscriber.onSubscribe(subscription);
+		if (isClosed)
+		{
+			subscription.complete();
+			return;
+		}
+		subscriptions.add(subscription);
+	}
+
+	/**
+	 * @return how many subscribers are subscribed
+	 */
+	public int getSubscriberCount()
+	{
+		return subscriptions.size();
+	}
+
+	@Override
+	public void acceptMessage(OSCMessage message)
+	{
+		for (MessageSubscription subscription : subscriptions)
+		{
+			if (subscription.pattern == null || OSCPatternMatcher.matches(subscription.pattern, message.address())) subscription.offer(message);
+		}
+	}
+
+	/**
+	 * Complete every subscription once its buffered messages are delivered.
+	 */
+	public void close()
+	{
+		isClosed = true;
+		for (MessageSubscription subscription : subscriptions) subscription.complete();
+		subscriptions.clear();
+	}
+
+	private class MessageSubscription implements OSCFlow.Subscription
+	{
+		final OSCFlow.Subscriber<? super OSCMessage> subscriber;
+		final String pattern;
+		final int bufferSize;
+		final int overflowStrategy;
+		// guarded by itself
+		final ArrayDeque<OSCMessage> buffer;
+		final AtomicLong requested = new AtomicLong();
+		// counts the threads wanting to drain, only the first one does
+		final AtomicInteger drainers = new AtomicInteger();
+		volatile boolean isCancelled;
+		volatile boolean isCompleted;
+		volatile Throwable error;
+		boolean isTerminated;
+
+		MessageSubscription(OSCFlow.Subscriber<? super OSCMessage> subscriber, String pattern, int bufferSize, int overflowStrategy)
+		{
+			this.subscriber = subscriber;
+			this.pattern = pattern;
+			this.bufferSize = bufferSize;
+			this.overflowStrategy = overflowStrategy;
+			buffer = new ArrayDeque<OSCMessage>(Math.min(bufferSize, 1024));
+		}
+
+		void offer(OSCMessage message)
+		{
+			synchronized (buffer)
+			{
+				if (isCancelled || isCompleted) return;
+				if (buffer.size() >= bufferSize)
+				{
+					switch (overflowStrategy)
+					{
+						case DROP_OLDEST :
+							buffer.poll();
+							break;
+						case DROP_NEWEST :
+							return;
+						case ERROR :
+							fail(new IllegalStateException("Subscriber buffer of " + bufferSize + " messages overflowed"));
+							return;
+						default :
+							while (buffer.size() >= bufferSize && !isCancelled && !isCompleted)
+							{
+								try
+								{
+									buffer.wait();
+								}
+								catch (InterruptedException e)
+								{
+									Thread.currentThread().interrupt();
+									return;
+								}
+							}
+							if (isCancelled || isCompleted) return;
+					}
+				}
+				buffer.add(message);
+			}
+			drain();
+		}
+
+		@Override
+		public void request(long n)
+		{
+			if (n <= 0)
+			{
+				fail(new IllegalArgumentException("Requested " + n + " items, must be positive"));
+				return;
+			}
+			while (true)
+			{
+				long current = requested.get();
+				long next = current + n;
+				// saturate at "unbounded"
+				if (next < 0) next = Long.MAX_VALUE;
+				if (requested.compareAndSet(current, next)) break;
+			}
+			drain();
+		}
+
+		@Override
+		public void cancel()
+		{
+			isCancelled = true;
+			subscriptions.remove(this);
+			synchronized (buffer)
+			{
+				buffer.clear();
+				buffer.notifyAll();
+			}
+		}
+
+		void complete()
+		{
+			synchronized (buffer)
+			{
+				isCompleted = true;
+				buffer.notifyAll();
+			}
+			drain();
+		}
+
+		void fail(Throwable throwable)
+		{
+			error = throwable;
+			subscriptions.remove(this);
+			synchronized (buffer)
+			{
+				isCompleted = true;
+				buffer.clear();
+				buffer.notifyAll();
+			}
+			drain();
+		}
+
+		/**
+		 * Deliver as many buffered messages as there is demand for, then the
+		 * completion signal if due. Whoever comes first drains for everyone.
+		 */
+		void drain()
+		{
+			if (drainers.getAndIncrement() != 0) return;
+			int missed = 1;
+			while (true)
+			{
+				while (!isCancelled && !isTerminated)
+				{
+					OSCMessage message = null;
+					boolean isEmpty;
+					synchronized (buffer)
+					{
+						if (requested.get() > 0) message = buffer.poll();
+						isEmpty = buffer.isEmpty();
+						if (message != null) buffer.notifyAll();
+					}
+					if (message != null)
+					{
+						if (requested.get() != Long.MAX_VALUE) requested.decrementAndGet();
+						try
+						{
+							subscriber.onNext(message);
+						}
+						catch (RuntimeException e)
+						{
+							// a subscriber must not throw, so it can not be relied on anymore
+							e.printStackTrace();
+							cancel();
+						}
+						continue;
+					}
+					if (isCompleted && (isEmpty || error != null))
+					{
+						isTerminated = true;
+						if (error != null) subscriber.onError(error);
+						else subscriber.onComplete();
+					}
+					break;
+				}
+				missed = drainers.addAndGet(-missed);
+				if (missed == 0) break;
+			}
+		}
+	}
+}
@@ -0,0 +1,336 @@
+package fuse.osc;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadFactory;
+
+import fuse.osc.utils.OSCByteArrayToJavaConverter;
+import fuse.osc.utils.OSCPacketValidator;
+
+/**
+ * Receives OSC packets on any number of ports with a single thread, instead
+ * of one {@link OSCReceiver} thread per port. Each port has its own
+ * listeners. Ports can be opened and closed while listening.
+ * <p>
+ * The receiving thread comes from a <code>ThreadFactory</code> or an
+ * <code>Executor</code> when one is given, so it can as well be a virtual
+ * thread. It blocks in a selector, which {@link #stopListening()} and
+ * {@link #close()} wake up at once. Once closed, it can not listen again.
+ */
+public class OSCMultiPortReceiver implements Runnable
+{
+	/**
+	 * Most datagrams read from one port before the others get their turn.
+	 */
+	private static final int BATCH_LIMIT = 64;
+
+	private volatile boolean isListening;
+	// whether a receiving loop runs, and whether closed, guarded by this
+	private boolean isRunning;
+	private boolean isClosed;
+	private Selector selector;
+	private Map<Integer, Port> ports;
+	private Queue<Port> pendingPorts;
+	private OSCByteArrayToJavaConverter converter;
+	private OSCPacketValidator validator;
+	private volatile OSCTracer tracer;
+
+	/**
+	 * A port and its listeners.
+	 */
+	private static class Port
+	{
+		final DatagramChannel channel;
+		final OSCPacketDispatcher dispatcher;
+
+		Port(DatagramChannel channel)
+		{
+			this.channel = channel;
+			dispatcher = new OSCPacketDispatcher();
+		}
+	}
+
+	public OSCMultiPortReceiver() throws IOException
+	{
+		selector = Selector.open();
+		ports = new ConcurrentHashMap<Integer, Port>();
+		pendingPorts = new ConcurrentLinkedQueue<Port>();
+		converter = new OSCByteArrayToJavaConverter();
+		validator = new OSCPacketValidator();
+	}
+
+	/**
+	 * Bind a port. Its datagrams are received from then on, and dispatched
+	 * to the listeners added for it.
+	 * @throws IllegalArgumentException if the port is already open here
+	 * @throws IllegalStateException if the receiver is closed
+	 */
+	public void openPort(int port) throws IOException
+	{
+		if (!selector.isOpen()) throw new IllegalStateException("The receiver is closed");
+		if (ports.containsKey(port)) throw new IllegalArgumentException("Port " + port + " is already open");
+		DatagramChannel channel = DatagramChannel.open();
+		try
+		{
+			channel.socket().bind(new InetSocketAddress(port));
+			channel.configureBlocking(false);
+		}
+		catch (IOException e)
+		{
+			channel.close();
+			throw e;
+		}
+		Port newPort = new Port(channel);
+		ports.put(port, newPort);
+		// only the receiving thread registers channels, so it never blocks another thread
+		pendingPorts.add(newPort);
+		selector.wakeup();
+	}
+
+	/**
+	 * Release a port; its listeners are forgotten.
+	 */
+	public void closePort(int port)
+	{
+		Port removed = ports.remove(port);
+		if (removed == null) return;
+		try
+		{
+			removed.channel.close();
+		}
+		catch (IOException e)
+		{
+			e.printStackTrace();
+		}
+		selector.wakeup();
+	}
+
+	public void addListener(int port, OSCListener listener)
+	{
+		getPort(port).dispatcher.addListener(listener);
+	}
+
+	public void removeListener(int port, OSCListener listener)
+	{
+		getPort(port).dispatcher.removeListener(listener);
+	}
+
+	public void addSourceListener(int port, OSCSourceListener listener)
+	{
+		getPort(port).dispatcher.addSourceListener(listener);
+	}
+
+	public void removeSourceListener(int port, OSCSourceListener listener)
+	{
+		getPort(port).dispatcher.removeSourceListener(listener);
+	}
+
+	/**
+	 * @return the validator dropping malformed datagrams on every port
+	 */
+	public OSCPacketValidator getValidator()
+	{
+		return validator;
+	}
+
+	/**
+	 * @param tracer told about every packet received, decoded and dispatched on any port, or null
+	 */
+	public void setTracer(OSCTracer tracer)
+	{
+		this.tracer = tracer;
+	}
+
+	public synchronized void startListening()
+	{
+		if (!prepareListening()) return;
+		Thread thread = new Thread(this, "OSCMultiPortReceiver");
+		thread.start();
+	}
+
+	/**
+	 * @param threadFactory creates the receiving thread
+	 */
+	public synchronized void startListening(ThreadFactory threadFactory)
+	{
+		if (!prepareListening()) return;
+		threadFactory.newThread(this).start();
+	}
+
+	/**
+	 * @param executor runs the receiving loop, which takes the thread until listening stops
+	 */
+	public synchronized void startListeningOn(Executor executor)
+	{
+		if (!prepareListening()) return;
+		executor.execute(this);
+	}
+
+	/**
+	 * Wait for the loop of a previous listening to end, so that two threads
+	 * never share the selector, the buffer and the converter.
+	 * @return false if already listening
+	 * @throws IllegalStateException if the receiver is closed
+	 */
+	private boolean prepareListening()
+	{
+		if (isClosed) throw new IllegalStateException("The receiver is closed");
+		if (isListening) return false;
+		boolean isInterrupted = false;
+		while (isRunning)
+		{
+			try
+			{
+				wait();
+			}
+			catch (InterruptedException e)
+			{
+				isInterrupted = true;
+			}
+		}
+		if (isInterrupted) Thread.currentThread().interrupt();
+		isListening = true;
+		isRunning = true;
+		return true;
+	}
+
+	public void stopListening()
+	{
+		isListening = false;
+		selector.wakeup();
+	}
+
+	public boolean isListening()
+	{
+		return isListening;
+	}
+
+	/**
+	 * Stop listening and release every port.
+	 */
+	public void close()
+	{
+		synchronized (this)
+		{
+			isClosed = true;
+		}
+		stopListening();
+		for (Integer port : ports.keySet()) closePort(port);
+		try
+		{
+			selector.close();
+		}
+		catch (IOException e)
+		{
+			e.printStackTrace();
+		}
+	}
+
+	@Override
+	public void run()
+	{
+		try
+		{
+			listen();
+		}
+		finally
+		{
+			synchronized (this)
+			{
+				isRunning = false;
+				notifyAll();
+			}
+		}
+	}
+
+	private void listen()
+	{
+		ByteBuffer buffer = ByteBuffer.allocate(3072);
+		while (isListening)
+		{
+			try
+			{
+				registerPendingPorts();
+				selector.select();
+				if (!isListening) break;
+				for (Iterator<SelectionKey> i = selector.selectedKeys().iterator(); i.hasNext();)
+				{
+					SelectionKey key = i.next();
+					i.remove();
+					if (key.isValid()) receive((Port) key.attachment(), buffer);
+				}
+			}
+			catch (ClosedSelectorException e)
+			{
+				// closed while registering ports or reading the selected keys
+				break;
+			}
+			catch (IOException e)
+			{
+				if (!selector.isOpen()) break;
+				e.printStackTrace();
+			}
+		}
+	}
+
+	private void registerPendingPorts()
+	{
+		Port port;
+		while ((port = pendingPorts.poll()) != null)
+		{
+			try
+			{
+				port.channel.register(selector, SelectionKey.OP_READ, port);
+			}
+			catch (ClosedChannelException e)
+			{
+				// the port was closed before it could be registered
+			}
+		}
+	}
+
+	private void receive(Port port, ByteBuffer buffer)
+	{
+		for (int i = 0; i < BATCH_LIMIT; i++)
+		{
+			SocketAddress source;
+			try
+			{
+				buffer.clear();
+				source = port.channel.receive(buffer);
+			}
+			catch (IOException e)
+			{
+				// the port was closed meanwhile
+				return;
+			}
+			if (source == null) return;
+			int length = buffer.position();
+			OSCTracer tracer = this.tracer;
+			if (tracer != null) tracer.packetReceived(buffer.array(), length, source, System.nanoTime());
+			if (validator.validate(buffer.array(), length) != OSCPacketValidator.VALID) continue;
+			OSCPacket oscPacket = OSCTracing.decode(converter, buffer.array(), length, source, tracer);
+			if (oscPacket != null) OSCTracing.dispatch(port.dispatcher, oscPacket, source, tracer);
+		}
+	}
+
+	private Port getPort(int port)
+	{
+		Port found = ports.get(port);
+		if (found == null) throw new IllegalArgumentException("Port " + port + " is not open");
+		return found;
+	}
+}
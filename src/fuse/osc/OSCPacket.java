@@ -1,6 +1,11 @@
 package fuse.osc;
 
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
 
 import fuse.osc.utils.OSCJavaToByteArrayConverter;
 
@@ -8,6 +13,10 @@ public abstract class OSCPacket
 {
 	private Charset charset;
 	private byte[] byteArray;
+	private ByteBuffer[] byteBuffers;
+	private boolean isByteBuffersStale;
+	// the bundles holding this packet, whose encoding depends on it
+	private List<WeakReference<OSCBundle>> parents;
 	
 	public OSCPacket()
 	{
@@ -30,6 +39,38 @@ public abstract class OSCPacket
 		return byteArray;
 	}
 	
+	/**
+	 * Return the encoding of this packet as a sequence of buffers, for a
+	 * gathering write. Unlike {@link #getByteArray()}, the encoding of a
+	 * bundle is not copied into one array: its buffers are those of its
+	 * elements, interleaved with their sizes, so changing one element only
+	 * encodes that element again. The buffers are duplicates of the ones
+	 * kept by the packet, so that threads sending the same packet at once
+	 * do not share positions and limits.
+	 * @return the buffers, whose limits add up to the length of the packet
+	 */
+	synchronized ByteBuffer[] getByteBuffers()
+	{
+		ByteBuffer[] shared = getSharedByteBuffers();
+		ByteBuffer[] buffers = new ByteBuffer[shared.length];
+		for (int i = 0; i < shared.length; i++) buffers[i] = shared[i].duplicate();
+		return buffers;
+	}
+	
+	/**
+	 * Return the buffers kept by this packet, which are replaced, never
+	 * rewritten, when it changes. Their positions must not be moved.
+	 */
+	synchronized ByteBuffer[] getSharedByteBuffers()
+	{
+		if (byteBuffers == null || isByteBuffersStale)
+		{
+			byteBuffers = computeByteBuffers(byteBuffers);
+			isByteBuffersStale = false;
+		}
+		return byteBuffers;
+	}
+	
 	/**
 	 * Generate a representation of this packet conforming to the
 	 * the OSC byte stream specification. Used Internally.
@@ -50,8 +91,42 @@ public abstract class OSCPacket
 	 */
 	protected abstract byte[] computeByteArray(OSCJavaToByteArrayConverter stream);
 	
+	/**
+	 * Produces the buffers returned by {@link #getSharedByteBuffers()}.
+	 * By default the byte array representation wrapped in a single buffer.
+	 * @param previous the buffers computed before the content changed, or null
+	 */
+	ByteBuffer[] computeByteBuffers(ByteBuffer[] previous)
+	{
+		return new ByteBuffer[] { ByteBuffer.wrap(getByteArray()) };
+	}
+	
+	/**
+	 * Forget the encoding of this packet, and that of the bundles holding it.
+	 */
 	protected void contentChanged()
 	{
 		byteArray = null;
+		isByteBuffersStale = true;
+		if (parents == null) return;
+		for (WeakReference<OSCBundle> reference : parents)
+		{
+			OSCBundle parent = reference.get();
+			if (parent != null) parent.contentChanged();
+		}
+	}
+	
+	/**
+	 * Called when this packet is added to a bundle.
+	 */
+	void addParent(OSCBundle parent)
+	{
+		if (parents == null) parents = new ArrayList<WeakReference<OSCBundle>>(1);
+		// forget the bundles that are gone, so that a packet sent in a new bundle every time does not leak
+		for (Iterator<WeakReference<OSCBundle>> i = parents.iterator(); i.hasNext();)
+		{
+			if (i.next().get() == null) i.remove();
+		}
+		parents.add(new WeakReference<OSCBundle>(parent));
 	}
 }
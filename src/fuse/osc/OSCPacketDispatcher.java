@@ -1,48 +1,85 @@
 package fuse.osc;
 
+import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
-import java.util.concurrent.CopyOnWriteArrayList;
 
 public class OSCPacketDispatcher
 {
-	private List<OSCListener> listeners;
+	// replaced, never changed, so that dispatching iterates without allocating
+	private volatile OSCListener[] listeners;
+	private volatile OSCSourceListener[] sourceListeners;
 	
 	public OSCPacketDispatcher()
 	{
-		listeners = new CopyOnWriteArrayList<OSCListener>();
+		listeners = new OSCListener[0];
+		sourceListeners = new OSCSourceListener[0];
 	}
 	
-	public void addListener(OSCListener listener)
+	public synchronized void addListener(OSCListener listener)
 	{
-		listeners.add(listener);
+		OSCListener[] added = Arrays.copyOf(listeners, listeners.length + 1);
+		added[listeners.length] = listener;
+		listeners = added;
 	}
 	
-	public void removeListener(OSCListener listener)
+	public synchronized void removeListener(OSCListener listener)
 	{
-		listeners.remove(listener);
+		List<OSCListener> remaining = new ArrayList<OSCListener>(Arrays.asList(listeners));
+		if (remaining.remove(listener)) listeners = remaining.toArray(new OSCListener[remaining.size()]);
+	}
+	
+	public synchronized void addSourceListener(OSCSourceListener listener)
+	{
+		OSCSourceListener[] added = Arrays.copyOf(sourceListeners, sourceListeners.length + 1);
+		added[sourceListeners.length] = listener;
+		sourceListeners = added;
+	}
+	
+	public synchronized void removeSourceListener(OSCSourceListener listener)
+	{
+		List<OSCSourceListener> remaining = new ArrayList<OSCSourceListener>(Arrays.asList(sourceListeners));
+		if (remaining.remove(listener)) sourceListeners = remaining.toArray(new OSCSourceListener[remaining.size()]);
 	}
 	
 	public void dispatchPacket(OSCPacket packet)
 	{
-		dispatchPacket(packet, null);
+		dispatchPacket(packet, OSCTimeTag.IMMEDIATE, null);
 	}
 	
 	public void dispatchPacket(OSCPacket packet, Date timestamp)
 	{
-		if (packet instanceof OSCBundle) dispatchBundle((OSCBundle) packet);
-		else dispatchMessage((OSCMessage) packet, timestamp);
+		dispatchPacket(packet, OSCTimeTag.fromDate(timestamp), null);
+	}
+	
+	/**
+	 * Not an overload of {@link #dispatchPacket(OSCPacket, Date)}, which
+	 * would make calls passing null ambiguous.
+	 * @param packet the received packet
+	 * @param source address of the sender, handed to source listeners
+	 */
+	void dispatchPacketFrom(OSCPacket packet, SocketAddress source)
+	{
+		dispatchPacket(packet, OSCTimeTag.IMMEDIATE, source);
+	}
+	
+	private void dispatchPacket(OSCPacket packet, OSCTimeTag timeTag, SocketAddress source)
+	{
+		if (packet instanceof OSCBundle) dispatchBundle((OSCBundle) packet, source);
+		else dispatchMessage((OSCMessage) packet, timeTag, source);
 	}
 	
-	private void dispatchBundle(OSCBundle bundle)
+	private void dispatchBundle(OSCBundle bundle, SocketAddress source)
 	{
-		Date timestamp = bundle.getTimestamp();
-		List<OSCPacket> packets = bundle.getPackets();
-		for (OSCPacket packet : packets) dispatchPacket(packet, timestamp);
+		OSCTimeTag timeTag = bundle.getTimeTag();
+		for (OSCPacket packet : bundle.getPacketList()) dispatchPacket(packet, timeTag, source);
 	}
 	
-	private void dispatchMessage(OSCMessage message, Date time)
+	private void dispatchMessage(OSCMessage message, OSCTimeTag timeTag, SocketAddress source)
 	{
 		for (OSCListener listener : listeners) listener.acceptMessage(message);
+		for (OSCSourceListener listener : sourceListeners) listener.acceptMessage(message, source);
 	}
 }
@@ -0,0 +1,190 @@
+package fuse.osc;
+
+import java.io.PrintStream;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the last packets received and sent, with their times, in a ring
+ * allocated once, so that it can stay on in production and be dumped after
+ * something went wrong: on demand, or by itself when a packet can not be
+ * decoded.
+ * <p>
+ * Recording a packet costs a copy of its first bytes and two clock reads.
+ * Threads record concurrently without locking; a packet recorded while the
+ * ring is dumped may show up garbled.
+ */
+public class OSCPacketTrace implements OSCTracer
+{
+	private static final byte RECEIVED = 'R';
+	private static final byte SENT = 'S';
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	private int capacity;
+	private byte[][] slots;
+	private int[] lengths;
+	private long[] millis;
+	private long[] nanos;
+	private byte[] directions;
+	private SocketAddress[] addresses;
+	private AtomicLong count;
+	private volatile PrintStream errorStream;
+
+	/**
+	 * Keep the last 1024 packets, up to 512 bytes of each.
+	 */
+	public OSCPacketTrace()
+	{
+		this(1024, 512);
+	}
+
+	/**
+	 * @param capacity how many packets to keep
+	 * @param maxBytes how many bytes of each packet to keep
+	 */
+	public OSCPacketTrace(int capacity, int maxBytes)
+	{
+		this.capacity = capacity;
+		slots = new byte[capacity][maxBytes];
+		lengths = new int[capacity];
+		millis = new long[capacity];
+		nanos = new long[capacity];
+		directions = new byte[capacity];
+		addresses = new SocketAddress[capacity];
+		count = new AtomicLong();
+		errorStream = System.err;
+	}
+
+	/**
+	 * @param errorStream where to dump the trace when a packet can not be
+	 *   decoded, or null not to
+	 */
+	public void setErrorStream(PrintStream errorStream)
+	{
+		this.errorStream = errorStream;
+	}
+
+	/**
+	 * @return how many packets were recorded since the trace was created
+	 */
+	public long getCount()
+	{
+		return count.get();
+	}
+
+	@Override
+	public void packetReceived(byte[] bytes, int length, SocketAddress source, long nanoTime)
+	{
+		record(RECEIVED, bytes, 0, length, source, nanoTime);
+	}
+
+	@Override
+	public void packetSent(byte[] bytes, int offset, int length, SocketAddress destination, long nanoTime)
+	{
+		record(SENT, bytes, offset, length, destination, nanoTime);
+	}
+
+	@Override
+	public void packetSent(ByteBuffer[] buffers, int length, SocketAddress destination, long nanoTime)
+	{
+		int slot = nextSlot();
+		byte[] target = slots[slot];
+		int copied = 0;
+		for (int i = 0; i < buffers.length && copied < target.length; i++)
+		{
+			ByteBuffer buffer = buffers[i];
+			int position = buffer.position();
+			int count = Math.min(buffer.remaining(), target.length - copied);
+			buffer.get(target, copied, count);
+			buffer.position(position);
+			copied += count;
+		}
+		stamp(slot, SENT, length, destination, nanoTime);
+	}
+
+	@Override
+	public void packetDecoded(OSCPacket packet, long startNanos, long endNanos)
+	{
+	}
+
+	@Override
+	public void packetDispatched(OSCPacket packet, long startNanos, long endNanos)
+	{
+	}
+
+	@Override
+	public void decodeFailed(byte[] bytes, int length, SocketAddress source, RuntimeException error)
+	{
+		PrintStream out = errorStream;
+		if (out == null) return;
+		synchronized (out)
+		{
+			out.println("Could not decode a packet from " + source + ": " + error);
+			dump(out);
+		}
+	}
+
+	private void record(byte direction, byte[] bytes, int offset, int length, SocketAddress address, long nanoTime)
+	{
+		int slot = nextSlot();
+		byte[] target = slots[slot];
+		System.arraycopy(bytes, offset, target, 0, Math.min(length, target.length));
+		stamp(slot, direction, length, address, nanoTime);
+	}
+
+	private int nextSlot()
+	{
+		return (int) (count.getAndIncrement() % capacity);
+	}
+
+	private void stamp(int slot, byte direction, int length, SocketAddress address, long nanoTime)
+	{
+		lengths[slot] = length;
+		millis[slot] = System.currentTimeMillis();
+		nanos[slot] = nanoTime;
+		directions[slot] = direction;
+		addresses[slot] = address;
+	}
+
+	/**
+	 * Print the recorded packets, oldest first: wall clock time, microseconds
+	 * since the previous packet, R for received or S for sent, address, length,
+	 * then the bytes in hexadecimal and as text.
+	 */
+	public void dump(PrintStream out)
+	{
+		long end = count.get();
+		long start = Math.max(0, end - capacity);
+		SimpleDateFormat format = new SimpleDateFormat("HH:mm:ss.SSS");
+		long previousNanos = 0;
+		StringBuilder line = new StringBuilder();
+		for (long i = start; i < end; i++)
+		{
+			int slot = (int) (i % capacity);
+			int length = lengths[slot];
+			line.setLength(0);
+			line.append(format.format(new Date(millis[slot])));
+			line.append(" +").append(i == start ? 0 : (nanos[slot] - previousNanos) / 1000).append(" us ");
+			line.append((char) directions[slot]).append(' ').append(addresses[slot]);
+			line.append(' ').append(length).append(" bytes ");
+			int shown = Math.min(length, slots[slot].length);
+			for (int j = 0; j < shown; j++)
+			{
+				int b = slots[slot][j] & 0xFF;
+				line.append(HEX[b >> 4]).append(HEX[b & 0xF]);
+			}
+			if (shown < length) line.append("...");
+			line.append("  ");
+			for (int j = 0; j < shown; j++)
+			{
+				byte b = slots[slot][j];
+				line.append((b >= 32 && b < 127) ? (char) b : '.');
+			}
+			out.println(line);
+			previousNanos = nanos[slot];
+		}
+	}
+}
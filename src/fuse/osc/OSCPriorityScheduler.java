@@ -0,0 +1,195 @@
+package fuse.osc;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Dispatches messages from several {@link OSCTrafficClass}es on its own
+ * threads, so that a burst of bulk data never holds back more important
+ * messages. Register it as a listener of an {@link OSCReceiver}; it queues
+ * every message in the class with the longest matching address prefix,
+ * or in its default class, and returns at once.
+ * <p>
+ * With strict scheduling a free thread always takes the oldest message of
+ * the highest priority class it may work on. With weighted scheduling the
+ * classes share the threads in proportion to their weights, using smooth
+ * weighted round robin. Either way, a high priority message only waits for
+ * the messages of its own class and for a thread to become free. Keeping
+ * the worker budget of bulk classes below the thread count leaves a thread
+ * free for the others at all times, which bounds that wait by the time
+ * needed to dispatch one message.
+ */
+public class OSCPriorityScheduler implements OSCListener
+{
+	public static final int STRICT = 0;
+	public static final int WEIGHTED = 1;
+
+	private int scheduling;
+	private OSCTrafficClass defaultClass;
+	private volatile OSCTrafficClass[] classes;
+	private List<OSCListener> listeners;
+	private Thread[] workers;
+	private volatile boolean isRunning;
+
+	/**
+	 * @param threads number of dispatching threads
+	 * @param scheduling {@link #STRICT} or {@link #WEIGHTED}
+	 */
+	public OSCPriorityScheduler(int threads, int scheduling)
+	{
+		if (scheduling != STRICT && scheduling != WEIGHTED) throw new IllegalArgumentException("Unknown scheduling " + scheduling);
+		this.scheduling = scheduling;
+		defaultClass = new OSCTrafficClass("default", 0);
+		classes = new OSCTrafficClass[] { defaultClass };
+		listeners = new CopyOnWriteArrayList<OSCListener>();
+		workers = new Thread[threads];
+		isRunning = true;
+		for (int i = 0; i < threads; i++)
+		{
+			workers[i] = new Thread(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					work();
+				}
+			}, "OSCPriorityScheduler");
+			workers[i].setDaemon(true);
+			workers[i].start();
+		}
+	}
+
+	/**
+	 * @return the class of the messages matching no other class
+	 */
+	public OSCTrafficClass getDefaultClass()
+	{
+		return defaultClass;
+	}
+
+	public synchronized void addClass(OSCTrafficClass trafficClass)
+	{
+		List<OSCTrafficClass> newClasses = new ArrayList<OSCTrafficClass>();
+		for (OSCTrafficClass c : classes) newClasses.add(c);
+		// keep the classes sorted by decreasing priority
+		int i = 0;
+		while (i < newClasses.size() && newClasses.get(i).getPriority() >= trafficClass.getPriority()) i++;
+		newClasses.add(i, trafficClass);
+		classes = newClasses.toArray(new OSCTrafficClass[newClasses.size()]);
+	}
+
+	public void addListener(OSCListener listener)
+	{
+		listeners.add(listener);
+	}
+
+	public void removeListener(OSCListener listener)
+	{
+		listeners.remove(listener);
+	}
+
+	@Override
+	public void acceptMessage(OSCMessage message)
+	{
+		OSCTrafficClass[] classes = this.classes;
+		OSCTrafficClass selected = defaultClass;
+		int longest = -1;
+		String address = message.address();
+		for (OSCTrafficClass c : classes)
+		{
+			int length = c.match(address);
+			if (length > longest)
+			{
+				selected = c;
+				longest = length;
+			}
+		}
+		synchronized (this)
+		{
+			if (!isRunning) return;
+			if (selected.enqueue(message)) notify();
+		}
+	}
+
+	/**
+	 * Stop the threads; the messages still queued are dropped.
+	 */
+	public synchronized void shutdown()
+	{
+		isRunning = false;
+		notifyAll();
+	}
+
+	private void work()
+	{
+		OSCTrafficClass trafficClass = null;
+		while (true)
+		{
+			OSCMessage message;
+			synchronized (this)
+			{
+				if (trafficClass != null)
+				{
+					trafficClass.activeWorkers--;
+					trafficClass.dispatched();
+					// the class may have become eligible again for a waiting thread
+					if (trafficClass.isEligible()) notify();
+				}
+				while (isRunning && (trafficClass = next()) == null)
+				{
+					try
+					{
+						wait();
+					}
+					catch (InterruptedException e)
+					{
+						return;
+					}
+				}
+				if (!isRunning) return;
+				message = trafficClass.queue.poll();
+				trafficClass.activeWorkers++;
+			}
+			for (OSCListener listener : listeners)
+			{
+				try
+				{
+					listener.acceptMessage(message);
+				}
+				catch (RuntimeException e)
+				{
+					e.printStackTrace();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Pick the class to dispatch from next. Called with the lock held.
+	 * @return the class, or null if none has a message it may dispatch
+	 */
+	private OSCTrafficClass next()
+	{
+		OSCTrafficClass[] classes = this.classes;
+		if (scheduling == STRICT)
+		{
+			for (OSCTrafficClass c : classes)
+			{
+				if (c.isEligible()) return c;
+			}
+			return null;
+		}
+		OSCTrafficClass selected = null;
+		int totalWeight = 0;
+		for (OSCTrafficClass c : classes)
+		{
+			if (!c.isEligible()) continue;
+			c.currentWeight += c.getWeight();
+			totalWeight += c.getWeight();
+			if (selected == null || c.currentWeight > selected.currentWeight) selected = c;
+		}
+		if (selected != null) selected.currentWeight -= totalWeight;
+		return selected;
+	}
+}
@@ -0,0 +1,20 @@
+package fuse.osc;
+
+import java.net.SocketAddress;
+
+/**
+ * A listener that sees the raw bytes of every received packet before it is
+ * decoded, e.g. to decode known messages with generated code, and may
+ * consume it so that it is not decoded and dispatched the generic way.
+ */
+public interface OSCRawListener
+{
+	/**
+	 * @param bytes buffer holding the packet, only valid during the call
+	 * @param offset start of the packet
+	 * @param length length of the packet
+	 * @param source address of the sender, or null if unknown
+	 * @return true if the packet was consumed
+	 */
+	public boolean acceptPacket(byte[] bytes, int offset, int length, SocketAddress source);
+}
@@ -3,14 +3,29 @@ package fuse.osc;
 import java.io.IOException;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
 import java.net.SocketException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadFactory;
 
 import fuse.osc.utils.OSCByteArrayToJavaConverter;
+import fuse.osc.utils.OSCPacketValidator;
 
 public class OSCReceiver extends OSCPort implements Runnable {
-	private boolean isListening;
+	private volatile boolean isListening;
+	// whether a receiving loop runs, guarded by this
+	private boolean isRunning;
 	private OSCByteArrayToJavaConverter converter;
+	private OSCPacketValidator validator;
 	private OSCPacketDispatcher dispatcher;
+	private volatile OSCDecodePipeline decodePipeline;
+	private OSCSourceTable sources;
+	private OSCRawListener rawListener;
+	private volatile OSCTracer tracer;
+	private volatile OSCDeduplicator deduplicator;
+	private volatile OSCCompactDecoder compactDecoder;
 
 	public OSCReceiver(int port) throws SocketException {
 	  this(port, false);
@@ -21,17 +36,107 @@ public class OSCReceiver extends OSCPort implements Runnable {
 		socket = new DatagramSocket(port);
 		if (reuseAddress) socket.setReuseAddress(true);
 		converter = new OSCByteArrayToJavaConverter();
+		validator = new OSCPacketValidator();
 		dispatcher = new OSCPacketDispatcher();
+		sources = new OSCSourceTable();
 	}
 
-	public void startListening() {
-		isListening = true;
+	public synchronized void startListening() {
+		if (!prepareListening()) return;
 		Thread thread = new Thread(this);
 		thread.start();
 	}
 
+	/**
+	 * Listen on a thread of the given factory, a virtual thread factory
+	 * included, instead of a new platform thread.
+	 * @param threadFactory creates the receiving thread
+	 */
+	public synchronized void startListening(ThreadFactory threadFactory) {
+		if (!prepareListening()) return;
+		threadFactory.newThread(this).start();
+	}
+
+	/**
+	 * Listen on a thread of the given executor. The receiving loop takes
+	 * the thread until listening stops.
+	 * @param executor runs the receiving loop
+	 */
+	public synchronized void startListeningOn(Executor executor) {
+		if (!prepareListening()) return;
+		executor.execute(this);
+	}
+
+	/**
+	 * Wait for the loop of a previous listening to end, so that two threads
+	 * never share the receive buffer and the converter.
+	 * @return false if already listening
+	 */
+	private boolean prepareListening() {
+		if (isListening) return false;
+		boolean isInterrupted = false;
+		while (isRunning) {
+			try {
+				wait(100);
+			} catch (InterruptedException e) {
+				isInterrupted = true;
+			}
+			// in case the wake up datagram was lost
+			if (isRunning) sendWakeUp();
+		}
+		if (isInterrupted) Thread.currentThread().interrupt();
+		isListening = true;
+		isRunning = true;
+		return true;
+	}
+
+	/**
+	 * Stop listening at once, rather than after the next datagram:
+	 * the receiving thread is woken up by an empty datagram sent to itself,
+	 * which it drops.
+	 */
 	public void stopListening() {
+		if (!isListening) return;
+		isListening = false;
+		sendWakeUp();
+	}
+
+	private void sendWakeUp() {
+		try {
+			socket.send(new DatagramPacket(new byte[0], 0, getWakeUpAddress(), socket.getLocalPort()));
+		} catch (IOException e) {
+			// the socket is closed, which wakes the thread up anyway
+		}
+	}
+
+	/**
+	 * @return the address of the socket, or the loopback address if it is bound to all of them
+	 */
+	private InetAddress getWakeUpAddress() throws IOException {
+		InetAddress address = socket.getLocalAddress();
+		return address.isAnyLocalAddress() ? InetAddress.getByName("127.0.0.1") : address;
+	}
+
+	private boolean isWakeUp(SocketAddress source, int length) {
+		if (length != 0 || !(source instanceof InetSocketAddress)) return false;
+		InetSocketAddress address = (InetSocketAddress) source;
+		if (address.getPort() != socket.getLocalPort()) return false;
+		try {
+			return address.getAddress().equals(getWakeUpAddress());
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Stop listening and release the port.
+	 */
+	@Override
+	public void close() {
 		isListening = false;
+		super.close();
+		OSCDecodePipeline decodePipeline = this.decodePipeline;
+		if (decodePipeline != null) decodePipeline.shutdown();
 	}
 
 	public boolean isListening() {
@@ -46,17 +151,156 @@ public class OSCReceiver extends OSCPort implements Runnable {
 		dispatcher.removeListener(listener);
 	}
 
+	public void addSourceListener(OSCSourceListener listener) {
+		dispatcher.addSourceListener(listener);
+	}
+
+	public void removeSourceListener(OSCSourceListener listener) {
+		dispatcher.removeSourceListener(listener);
+	}
+
+	/**
+	 * @param listener sees every valid packet before it is decoded and may
+	 *   consume it, or null
+	 */
+	public void setRawListener(OSCRawListener listener) {
+		rawListener = listener;
+	}
+
+	/**
+	 * Statistics and rate limits of the senders, applied before decoding.
+	 * @return the table of senders seen by this receiver
+	 */
+	public OSCSourceTable getSources() {
+		return sources;
+	}
+
+	/**
+	 * Malformed datagrams are dropped before decoding; the validator
+	 * counts them by reason.
+	 * @return the validator checking received datagrams
+	 */
+	public OSCPacketValidator getValidator() {
+		return validator;
+	}
+
+	/**
+	 * Decode received datagrams on several threads instead of the receiving
+	 * one. Messages of one sender are still dispatched in arrival order,
+	 * but listeners may be called concurrently for different senders.
+	 * Datagrams are dropped while {@link OSCDecodePipeline#DEFAULT_QUEUE_CAPACITY}
+	 * of them wait for a decoding thread.
+	 * Must be set before listening starts.
+	 * @param threads number of decoding threads, or 0 to decode on the
+	 *   receiving thread
+	 */
+	public void setDecodingThreads(int threads) {
+		if (decodePipeline != null) decodePipeline.shutdown();
+		decodePipeline = (threads > 0) ? new OSCDecodePipeline(dispatcher, threads) : null;
+		if (decodePipeline != null) decodePipeline.setTracer(tracer);
+	}
+
+	/**
+	 * @param deduplicator drops the redundant copies of the packets of an
+	 *   {@link OSCRedundantSender}, and strips their tags, or null
+	 */
+	public void setDeduplicator(OSCDeduplicator deduplicator) {
+		this.deduplicator = deduplicator;
+	}
+
+	/**
+	 * @param compactDecoder accepts the compact encoding offered by
+	 *   {@link OSCCompactSender}s and decodes it, or null to refuse it
+	 */
+	public void setCompactDecoder(OSCCompactDecoder compactDecoder) {
+		this.compactDecoder = compactDecoder;
+	}
+
+	/**
+	 * @param tracer told about every received, decoded and dispatched
+	 *   packet, or null
+	 */
+	public void setTracer(OSCTracer tracer) {
+		this.tracer = tracer;
+		OSCDecodePipeline decodePipeline = this.decodePipeline;
+		if (decodePipeline != null) decodePipeline.setTracer(tracer);
+	}
+
+	/**
+	 * @param validator the validator checking received datagrams,
+	 *   or null to trust the input
+	 */
+	public void setValidator(OSCPacketValidator validator) {
+		this.validator = validator;
+	}
+
 	@Override
 	public void run()
+	{
+		try {
+			listen();
+		} finally {
+			synchronized (this) {
+				isRunning = false;
+				notifyAll();
+			}
+		}
+	}
+
+	private void listen()
 	{
 		byte[] buffer = new byte[3072];
 		DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
 		while (isListening) {
 			try {
 				socket.receive(packet);
-				OSCPacket oscPacket = converter.convert(buffer, packet.getLength());
-				dispatcher.dispatchPacket(oscPacket);
+				if (!isListening) break;
+				SocketAddress source = packet.getSocketAddress();
+				int length = packet.getLength();
+				if (isWakeUp(source, length)) continue;
+				OSCTracer tracer = this.tracer;
+				if (tracer != null) tracer.packetReceived(buffer, length, source, System.nanoTime());
+				if (!sources.admit(source, length)) continue;
+				byte[] bytes = buffer;
+				OSCCompactDecoder compactDecoder = this.compactDecoder;
+				if (compactDecoder != null) {
+					if (compactDecoder.isCompact(buffer, length)) {
+						length = compactDecoder.expand(buffer, length);
+						if (length < 0) continue;
+						bytes = compactDecoder.getBytes();
+					} else {
+						byte[] acceptance = compactDecoder.acceptance(buffer, length);
+						if (acceptance != null) {
+							socket.send(new DatagramPacket(acceptance, acceptance.length, source));
+							continue;
+						}
+					}
+				}
+				OSCPacketValidator validator = this.validator;
+				if (validator != null) {
+					if (validator.validate(bytes, length) != OSCPacketValidator.VALID) continue;
+				}
+				// without a validator, at least do not decode what is left in the buffer
+				else if (length == 0) continue;
+				OSCDeduplicator deduplicator = this.deduplicator;
+				if (deduplicator != null) {
+					int offset = deduplicator.filter(bytes, length);
+					if (offset == OSCDeduplicator.DUPLICATE) continue;
+					if (offset > 0) {
+						length -= offset;
+						System.arraycopy(bytes, offset, bytes, 0, length);
+					}
+				}
+				OSCRawListener rawListener = this.rawListener;
+				if (rawListener != null && rawListener.acceptPacket(bytes, 0, length, source)) continue;
+				if (decodePipeline != null) {
+					decodePipeline.submit(bytes, length, source);
+					continue;
+				}
+				OSCPacket oscPacket = OSCTracing.decode(converter, bytes, length, source, tracer);
+				if (oscPacket != null) OSCTracing.dispatch(dispatcher, oscPacket, source, tracer);
 			} catch (IOException e) {
+				if (socket.isClosed()) break;
 				e.printStackTrace();
 			}
 		}
@@ -0,0 +1,155 @@
+package fuse.osc;
+
+import java.io.IOException;
+import java.security.SecureRandom;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sends every packet over several paths at once, for instance to the
+ * addresses of a receiver on two networks, so that losing a copy on one
+ * path does not lose the packet. Later copies may go out a little after
+ * the first one, so that a short burst of loss does not take all of them.
+ * <p>
+ * Every copy is tagged with the id of this sender and a sequence number,
+ * which an {@link OSCDeduplicator} on the receiving side uses to pass the
+ * first copy to come in and drop the others. The tag wraps the packet in a
+ * bundle, led by a <code>/fuse/seq</code> message, that plain OSC receivers
+ * can decode too.
+ */
+public class OSCRedundantSender
+{
+	static final byte[] TAG_HEADER = {
+		'#', 'b', 'u', 'n', 'd', 'l', 'e', 0, 0, 0, 0, 0, 0, 0, 0, 1, 0, 0, 0, 28,
+		'/', 'f', 'u', 's', 'e', '/', 's', 'e', 'q', 0, 0, 0, ',', 'i', 'h', 0
+	};
+	static final int SENDER_ID_OFFSET = 36;
+	static final int SEQUENCE_OFFSET = 40;
+	static final int LENGTH_OFFSET = 48;
+	static final int TAG_LENGTH = 52;
+
+	private OSCSender[] paths;
+	private int senderId;
+	private AtomicLong sequence;
+	private volatile long offsetNanos;
+	private volatile ScheduledExecutorService delayedSender;
+
+	/**
+	 * @param paths the senders of the copies, in the order they are sent
+	 */
+	public OSCRedundantSender(OSCSender... paths)
+	{
+		if (paths.length == 0) throw new IllegalArgumentException("At least one path is needed");
+		this.paths = paths.clone();
+		senderId = new SecureRandom().nextInt();
+		sequence = new AtomicLong();
+	}
+
+	/**
+	 * @param offsetNanos delay between the copies sent over consecutive
+	 *   paths, or 0 to send them all at once
+	 */
+	public synchronized void setOffsetNanos(long offsetNanos)
+	{
+		// the executor first, so that a sender seeing the offset sees it too
+		if (offsetNanos > 0 && delayedSender == null)
+		{
+			ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory()
+			{
+				@Override
+				public Thread newThread(Runnable runnable)
+				{
+					Thread thread = new Thread(runnable, "OSCRedundantSender");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			// copies still waiting when closing would go to closed senders
+			executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+			delayedSender = executor;
+		}
+		this.offsetNanos = offsetNanos;
+	}
+
+	/**
+	 * @param tracer told about every copy sent, over any path, or null
+	 */
+	public void setTracer(OSCTracer tracer)
+	{
+		for (OSCSender path : paths) path.setTracer(tracer);
+	}
+
+	public void send(OSCPacket oscPacket) throws IOException
+	{
+		byte[] byteArray = oscPacket.getByteArray();
+		send(byteArray, 0, byteArray.length);
+	}
+
+	/**
+	 * Send already encoded OSC bytes over every path.
+	 * @throws IOException if sending the first copy failed; failures of
+	 *   later copies are only printed, since they are redundant
+	 */
+	public void send(byte[] bytes, int offset, int length) throws IOException
+	{
+		final byte[] tagged = new byte[TAG_LENGTH + length];
+		System.arraycopy(TAG_HEADER, 0, tagged, 0, TAG_HEADER.length);
+		writeInt(tagged, SENDER_ID_OFFSET, senderId);
+		long number = sequence.getAndIncrement();
+		writeInt(tagged, SEQUENCE_OFFSET, (int) (number >>> 32));
+		writeInt(tagged, SEQUENCE_OFFSET + 4, (int) number);
+		writeInt(tagged, LENGTH_OFFSET, length);
+		System.arraycopy(bytes, offset, tagged, TAG_LENGTH, length);
+
+		paths[0].send(tagged, 0, tagged.length);
+		long offsetNanos = this.offsetNanos;
+		ScheduledExecutorService delayedSender = this.delayedSender;
+		for (int i = 1; i < paths.length; i++)
+		{
+			final OSCSender path = paths[i];
+			if (offsetNanos == 0 || delayedSender == null)
+			{
+				sendQuietly(path, tagged);
+				continue;
+			}
+			delayedSender.schedule(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					sendQuietly(path, tagged);
+				}
+			}, offsetNanos * i, TimeUnit.NANOSECONDS);
+		}
+	}
+
+	public void close()
+	{
+		ScheduledExecutorService delayedSender = this.delayedSender;
+		if (delayedSender != null) delayedSender.shutdownNow();
+		for (OSCSender path : paths) path.close();
+	}
+
+	private static void sendQuietly(OSCSender path, byte[] tagged)
+	{
+		try
+		{
+			path.send(tagged, 0, tagged.length);
+		}
+		catch (IOException e)
+		{
+			e.printStackTrace();
+		}
+	}
+
+	private static void writeInt(byte[] bytes, int offset, int value)
+	{
+		bytes[offset] = (byte) (value >>> 24);
+		bytes[offset + 1] = (byte) (value >>> 16);
+		bytes[offset + 2] = (byte) (value >>> 8);
+		bytes[offset + 3] = (byte) value;
+	}
+}
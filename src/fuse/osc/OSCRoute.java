@@ -0,0 +1,103 @@
+package fuse.osc;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A rule of an {@link OSCRouter}: an address pattern, an optional address
+ * rewrite and the destinations matching packets are forwarded to.
+ * <p>
+ * A pattern ending with <code>*</code> matches every address starting with
+ * the part before the star, any other pattern matches its address exactly.
+ * When a rewrite is given, the matched part of the address is replaced by it,
+ * so <code>new OSCRoute("/mixer/*", "/desk/")</code> turns
+ * <code>/mixer/1/gain</code> into <code>/desk/1/gain</code>.
+ */
+public class OSCRoute
+{
+	private static final Charset ASCII = Charset.forName("US-ASCII");
+
+	private byte[] pattern;
+	private boolean isPrefix;
+	private byte[] rewrite;
+	private List<OSCSender> destinations;
+
+	public OSCRoute(String pattern)
+	{
+		this(pattern, null);
+	}
+
+	public OSCRoute(String pattern, String rewrite)
+	{
+		isPrefix = pattern.endsWith("*");
+		if (isPrefix) pattern = pattern.substring(0, pattern.length() - 1);
+		this.pattern = pattern.getBytes(ASCII);
+		this.rewrite = (rewrite == null) ? null : rewrite.getBytes(ASCII);
+		destinations = new ArrayList<OSCSender>();
+	}
+
+	public OSCRoute addDestination(OSCSender destination)
+	{
+		destinations.add(destination);
+		return this;
+	}
+
+	public List<OSCSender> getDestinations()
+	{
+		return Collections.unmodifiableList(destinations);
+	}
+
+	/**
+	 * @return true if matching packets get their address rewritten
+	 */
+	public boolean rewrites()
+	{
+		return rewrite != null;
+	}
+
+	/**
+	 * Match the address stored in a byte buffer against this route,
+	 * without decoding it.
+	 * @param bytes buffer holding the address
+	 * @param offset start of the address
+	 * @param length length of the address, not counting the terminating null
+	 * @return true if the address matches
+	 */
+	public boolean matches(byte[] bytes, int offset, int length)
+	{
+		if (isPrefix ? length < pattern.length : length != pattern.length) return false;
+		for (int i = 0; i < pattern.length; i++)
+		{
+			if (bytes[offset + i] != pattern[i]) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Length of the address once rewritten by this route.
+	 * @param length length of the matched address
+	 */
+	int rewrittenLength(int length)
+	{
+		return rewrite.length + (length - pattern.length);
+	}
+
+	/**
+	 * Write the rewritten address into a buffer. The target may be the very
+	 * buffer the address is read from, provided the address does not move
+	 * and does not grow.
+	 * @param source buffer holding the matched address
+	 * @param sourceOffset start of the matched address
+	 * @param length length of the matched address
+	 * @param target buffer to write to
+	 * @param targetOffset where the rewritten address starts
+	 */
+	void rewrite(byte[] source, int sourceOffset, int length, byte[] target, int targetOffset)
+	{
+		int tail = length - pattern.length;
+		System.arraycopy(source, sourceOffset + pattern.length, target, targetOffset + rewrite.length, tail);
+		System.arraycopy(rewrite, 0, target, targetOffset, rewrite.length);
+	}
+}
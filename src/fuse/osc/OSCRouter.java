@@ -0,0 +1,270 @@
+package fuse.osc;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.SocketException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Forwards OSC packets received on a port to other ports without decoding them.
+ * <p>
+ * Only the address bytes of each datagram are read and matched against the
+ * routes, in the order they were added; the first matching route wins and
+ * packets matching no route are dropped. The original bytes are forwarded
+ * untouched, or with the address rewritten in place when the rewritten
+ * address fits the original padding.
+ * <p>
+ * A bundle is forwarded whole when all of its elements go the same way.
+ * Otherwise it is split, and each element is forwarded wrapped in a bundle
+ * carrying the original time tag.
+ * <p>
+ * The routing methods reuse an internal scratch buffer and are not meant to
+ * be called from several threads at once.
+ */
+public class OSCRouter extends OSCPort implements Runnable
+{
+	private static final byte[] BUNDLE_START = { '#', 'b', 'u', 'n', 'd', 'l', 'e', 0 };
+	private static final int BUNDLE_HEADER_LENGTH = 16;
+
+	private boolean isRouting;
+	private List<OSCRoute> routes;
+	private byte[] scratch;
+
+	public OSCRouter(int port) throws SocketException
+	{
+		this(port, false);
+	}
+
+	public OSCRouter(int port, boolean reuseAddress) throws SocketException
+	{
+		this.port = port;
+		socket = new DatagramSocket(port);
+		if (reuseAddress) socket.setReuseAddress(true);
+		routes = new CopyOnWriteArrayList<OSCRoute>();
+		scratch = new byte[3072];
+	}
+
+	public void addRoute(OSCRoute route)
+	{
+		routes.add(route);
+	}
+
+	public void removeRoute(OSCRoute route)
+	{
+		routes.remove(route);
+	}
+
+	public void startRouting()
+	{
+		isRouting = true;
+		Thread thread = new Thread(this);
+		thread.start();
+	}
+
+	public void stopRouting()
+	{
+		isRouting = false;
+	}
+
+	public boolean isRouting()
+	{
+		return isRouting;
+	}
+
+	@Override
+	public void run()
+	{
+		byte[] buffer = new byte[3072];
+		DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+		while (isRouting)
+		{
+			try
+			{
+				socket.receive(packet);
+				route(buffer, 0, packet.getLength());
+			}
+			catch (IOException e)
+			{
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Route one encoded packet. The buffer may be modified when an address
+	 * is rewritten in place.
+	 * @param bytes buffer holding the packet
+	 * @param offset start of the packet
+	 * @param length length of the packet
+	 * @return false if the packet is malformed
+	 */
+	public boolean route(byte[] bytes, int offset, int length) throws IOException
+	{
+		if (isBundle(bytes, offset, length)) return routeBundle(bytes, offset, length);
+		return routeMessage(bytes, offset, length, null, 0);
+	}
+
+	private boolean routeBundle(byte[] bytes, int offset, int length) throws IOException
+	{
+		if (length < BUNDLE_HEADER_LENGTH) return false;
+		int end = offset + length;
+
+		// first pass: find out whether the bundle may go out whole
+		OSCRoute common = null;
+		boolean split = false;
+		int position = offset + BUNDLE_HEADER_LENGTH;
+		while (position < end)
+		{
+			int elementLength = readElementLength(bytes, position, end);
+			if (elementLength < 0) return false;
+			position += 4;
+			OSCRoute route = null;
+			if (!isBundle(bytes, position, elementLength))
+			{
+				int addressLength = addressLength(bytes, position, elementLength);
+				if (addressLength < 0) return false;
+				route = match(bytes, position, addressLength);
+			}
+			if (route == null || route.rewrites() || (common != null && common != route)) split = true;
+			common = route;
+			position += elementLength;
+		}
+
+		if (!split)
+		{
+			if (common != null) sendAll(common.getDestinations(), bytes, offset, length);
+			return true;
+		}
+
+		// second pass: forward every element on its own
+		position = offset + BUNDLE_HEADER_LENGTH;
+		while (position < end)
+		{
+			int elementLength = readElementLength(bytes, position, end);
+			position += 4;
+			if (isBundle(bytes, position, elementLength)) routeBundle(bytes, position, elementLength);
+			else routeMessage(bytes, position, elementLength, bytes, offset + 8);
+			position += elementLength;
+		}
+		return true;
+	}
+
+	/**
+	 * Forward a message, optionally wrapped in a bundle with the given time tag.
+	 * @param timeTag buffer holding the time tag, or null to send a bare message
+	 * @param timeTagOffset start of the time tag
+	 */
+	private boolean routeMessage(byte[] bytes, int offset, int length, byte[] timeTag, int timeTagOffset) throws IOException
+	{
+		int addressLength = addressLength(bytes, offset, length);
+		if (addressLength < 0) return false;
+		OSCRoute route = match(bytes, offset, addressLength);
+		if (route == null) return true;
+
+		if (!route.rewrites() && timeTag == null)
+		{
+			sendAll(route.getDestinations(), bytes, offset, length);
+			return true;
+		}
+
+		int paddedLength = padded(addressLength);
+		int newAddressLength = route.rewrites() ? route.rewrittenLength(addressLength) : addressLength;
+		int newPaddedLength = padded(newAddressLength);
+
+		if (timeTag == null && newPaddedLength == paddedLength)
+		{
+			// the rewritten address fits: patch the buffer in place
+			route.rewrite(bytes, offset, addressLength, bytes, offset);
+			for (int i = newAddressLength; i < paddedLength; i++) bytes[offset + i] = 0;
+			sendAll(route.getDestinations(), bytes, offset, length);
+			return true;
+		}
+
+		int messageLength = newPaddedLength + (length - paddedLength);
+		int headerLength = (timeTag == null) ? 0 : BUNDLE_HEADER_LENGTH + 4;
+		int total = headerLength + messageLength;
+		if (scratch.length < total) scratch = new byte[total];
+
+		if (timeTag != null)
+		{
+			System.arraycopy(BUNDLE_START, 0, scratch, 0, BUNDLE_START.length);
+			System.arraycopy(timeTag, timeTagOffset, scratch, 8, 8);
+			writeInt(scratch, BUNDLE_HEADER_LENGTH, messageLength);
+		}
+		if (route.rewrites()) route.rewrite(bytes, offset, addressLength, scratch, headerLength);
+		else System.arraycopy(bytes, offset, scratch, headerLength, addressLength);
+		for (int i = newAddressLength; i < newPaddedLength; i++) scratch[headerLength + i] = 0;
+		System.arraycopy(bytes, offset + paddedLength, scratch, headerLength + newPaddedLength, length - paddedLength);
+
+		sendAll(route.getDestinations(), scratch, 0, total);
+		return true;
+	}
+
+	private OSCRoute match(byte[] bytes, int offset, int addressLength)
+	{
+		for (OSCRoute route : routes)
+		{
+			if (route.matches(bytes, offset, addressLength)) return route;
+		}
+		return null;
+	}
+
+	private void sendAll(List<OSCSender> destinations, byte[] bytes, int offset, int length) throws IOException
+	{
+		for (OSCSender destination : destinations) destination.send(bytes, offset, length);
+	}
+
+	private static boolean isBundle(byte[] bytes, int offset, int length)
+	{
+		if (length < BUNDLE_START.length) return false;
+		for (int i = 0; i < BUNDLE_START.length; i++)
+		{
+			if (bytes[offset + i] != BUNDLE_START[i]) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Get the length of the address at the start of a message.
+	 * @return the length without the terminating null, or -1 if there is none
+	 */
+	private static int addressLength(byte[] bytes, int offset, int length)
+	{
+		for (int i = 0; i < length; i++)
+		{
+			if (bytes[offset + i] == 0) return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * Read the size of the bundle element starting at the given position.
+	 * @return the size, or -1 if it is invalid
+	 */
+	private static int readElementLength(byte[] bytes, int position, int end)
+	{
+		if (position + 4 > end) return -1;
+		int length = ((bytes[position] & 0xFF) << 24) | ((bytes[position + 1] & 0xFF) << 16)
+				| ((bytes[position + 2] & 0xFF) << 8) | (bytes[position + 3] & 0xFF);
+		if (length <= 0 || (length % 4) != 0 || position + 4 + length > end) return -1;
+		return length;
+	}
+
+	private static void writeInt(byte[] bytes, int position, int value)
+	{
+		bytes[position] = (byte) (value >>> 24);
+		bytes[position + 1] = (byte) (value >>> 16);
+		bytes[position + 2] = (byte) (value >>> 8);
+		bytes[position + 3] = (byte) value;
+	}
+
+	/**
+	 * Size of a null terminated string padded to a 4 byte boundry.
+	 */
+	private static int padded(int stringLength)
+	{
+		return (stringLength / 4 + 1) * 4;
+	}
+}
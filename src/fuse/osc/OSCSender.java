@@ -2,25 +2,105 @@ package fuse.osc;
 
 import java.io.IOException;
 import java.net.DatagramPacket;
-import java.net.DatagramSocket;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.PortUnreachableException;
 import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
 
 public class OSCSender extends OSCPort
 {
+	/**
+	 * Most buffers a gathering write takes at once (IOV_MAX on Linux);
+	 * a datagram made of more is sent as one array instead.
+	 */
+	private static final int MAX_GATHERED_BUFFERS = 1024;
+
 	private InetAddress ip;
+	private InetSocketAddress address;
+	private DatagramChannel channel;
+	private volatile OSCTracer tracer;
 	
 	public OSCSender(InetAddress ip, int port) throws SocketException
 	{
 		this.ip = ip;
 		this.port = port;
-		socket = new DatagramSocket();
+		try
+		{
+			// connected, so that packets can be sent with gathering writes
+			channel = DatagramChannel.open();
+			// as the unconnected socket did, allow sending to broadcast addresses
+			channel.socket().setBroadcast(true);
+			address = new InetSocketAddress(ip, port);
+			channel.connect(address);
+		}
+		catch (IOException e)
+		{
+			SocketException socketException = new SocketException(e.getMessage());
+			socketException.initCause(e);
+			throw socketException;
+		}
+		socket = channel.socket();
+	}
+	
+	/**
+	 * @param tracer told about every sent packet, or null
+	 */
+	public void setTracer(OSCTracer tracer)
+	{
+		this.tracer = tracer;
 	}
 	
+	/**
+	 * Send a packet. A bundle goes out in a single gathering write of the
+	 * encodings of its elements, without copying them into one array.
+	 */
 	public void send(OSCPacket oscPacket) throws IOException
 	{
-		byte[] byteArray = oscPacket.getByteArray();
-		DatagramPacket packet = new DatagramPacket(byteArray, byteArray.length, ip, port);
-		socket.send(packet);
+		ByteBuffer[] buffers = oscPacket.getByteBuffers();
+		if (buffers.length > MAX_GATHERED_BUFFERS)
+		{
+			byte[] byteArray = oscPacket.getByteArray();
+			send(byteArray, 0, byteArray.length);
+			return;
+		}
+		OSCTracer tracer = this.tracer;
+		if (tracer != null)
+		{
+			int length = 0;
+			for (ByteBuffer buffer : buffers) length += buffer.remaining();
+			tracer.packetSent(buffers, length, address, System.nanoTime());
+		}
+		try
+		{
+			channel.write(buffers);
+		}
+		catch (PortUnreachableException e)
+		{
+			// nobody listens yet: the datagram is lost, as with an unconnected socket
+		}
+	}
+	
+	/**
+	 * Send already encoded OSC bytes as they are, without going through
+	 * an {@link OSCPacket}.
+	 * @param bytes buffer holding the encoded packet
+	 * @param offset start of the packet in the buffer
+	 * @param length length of the packet in bytes
+	 */
+	public void send(byte[] bytes, int offset, int length) throws IOException
+	{
+		OSCTracer tracer = this.tracer;
+		if (tracer != null) tracer.packetSent(bytes, offset, length, address, System.nanoTime());
+		DatagramPacket packet = new DatagramPacket(bytes, offset, length, ip, port);
+		try
+		{
+			socket.send(packet);
+		}
+		catch (PortUnreachableException e)
+		{
+			// nobody listens yet: the datagram is lost, as with an unconnected socket
+		}
 	}
 }
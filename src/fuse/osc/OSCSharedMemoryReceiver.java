@@ -0,0 +1,130 @@
+package fuse.osc;
+
+import java.io.File;
+import java.io.IOException;
+
+import fuse.osc.utils.OSCByteArrayToJavaConverter;
+import fuse.osc.utils.OSCPacketValidator;
+
+/**
+ * Receives OSC packets from an {@link OSCSharedMemorySender} on the same host
+ * through a memory mapped ring buffer file, and dispatches them to its
+ * listeners like an {@link OSCReceiver} does.
+ * <p>
+ * The receiving thread polls the ring; the {@link OSCBackoff} decides
+ * whether it busy spins for the lowest latency or parks to spare the CPU.
+ * Only one receiver may read a ring.
+ */
+public class OSCSharedMemoryReceiver implements Runnable
+{
+	private volatile boolean isListening;
+	private OSCSharedMemoryRing ring;
+	private OSCBackoff backoff;
+	private OSCByteArrayToJavaConverter converter;
+	private OSCPacketValidator validator;
+	private volatile OSCTracer tracer;
+	private OSCPacketDispatcher dispatcher;
+
+	public OSCSharedMemoryReceiver(File file) throws IOException
+	{
+		this(file, OSCSharedMemorySender.DEFAULT_CAPACITY, OSCBackoff.busySpin());
+	}
+
+	/**
+	 * @param file the ring buffer file, created if it does not exist
+	 * @param capacity size of the ring in bytes, must match the sender's
+	 * @param backoff how to wait while the ring is empty
+	 */
+	public OSCSharedMemoryReceiver(File file, int capacity, OSCBackoff backoff) throws IOException
+	{
+		ring = new OSCSharedMemoryRing(file, capacity, false);
+		this.backoff = backoff;
+		converter = new OSCByteArrayToJavaConverter();
+		validator = new OSCPacketValidator();
+		dispatcher = new OSCPacketDispatcher();
+	}
+
+	public void startListening()
+	{
+		isListening = true;
+		Thread thread = new Thread(this);
+		thread.start();
+	}
+
+	public void stopListening()
+	{
+		isListening = false;
+	}
+
+	public boolean isListening()
+	{
+		return isListening;
+	}
+
+	public void addListener(OSCListener listener)
+	{
+		dispatcher.addListener(listener);
+	}
+
+	public void removeListener(OSCListener listener)
+	{
+		dispatcher.removeListener(listener);
+	}
+
+	/**
+	 * The sender may be another process, so its packets are validated like
+	 * datagrams are.
+	 * @return the validator dropping malformed packets before decoding
+	 */
+	public OSCPacketValidator getValidator()
+	{
+		return validator;
+	}
+
+	/**
+	 * @param tracer told about every received, decoded and dispatched packet, with no source address, or null
+	 */
+	public void setTracer(OSCTracer tracer)
+	{
+		this.tracer = tracer;
+	}
+
+	public void close() throws IOException
+	{
+		stopListening();
+		ring.close();
+	}
+
+	@Override
+	public void run()
+	{
+		byte[] buffer = new byte[3072];
+		while (isListening)
+		{
+			int length;
+			try
+			{
+				length = ring.nextLength();
+				if (length < 0)
+				{
+					backoff.idle();
+					continue;
+				}
+				backoff.reset();
+				if (buffer.length < length) buffer = new byte[Math.max(length, buffer.length * 2)];
+				length = ring.poll(buffer);
+			}
+			catch (IllegalStateException e)
+			{
+				// the ring skipped the corrupt records, the next ones are fine
+				e.printStackTrace();
+				continue;
+			}
+			OSCTracer tracer = this.tracer;
+			if (tracer != null) tracer.packetReceived(buffer, length, null, System.nanoTime());
+			if (validator.validate(buffer, length) != OSCPacketValidator.VALID) continue;
+			OSCPacket oscPacket = OSCTracing.decode(converter, buffer, length, null, tracer);
+			if (oscPacket != null) OSCTracing.dispatch(dispatcher, oscPacket, null, tracer);
+		}
+	}
+}
@@ -0,0 +1,252 @@
+package fuse.osc;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.nio.Buffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A single producer, single consumer ring buffer of encoded OSC packets in a
+ * memory mapped file, shared by an {@link OSCSharedMemorySender} and an
+ * {@link OSCSharedMemoryReceiver} running in different processes.
+ * <p>
+ * The file starts with a header holding the write position and the read
+ * position on separate cache lines, followed by the records. A record is the
+ * packet length followed by the packet; a length of -1 marks the unused end
+ * of the ring before it wraps around. The producer publishes records by
+ * storing the write position after their bytes, the consumer frees them by
+ * storing the read position, so neither side ever takes a lock.
+ * <p>
+ * The positions are published with ordered stores and read with volatile
+ * loads of <code>sun.misc.Unsafe</code> at the address of the mapping, which
+ * are fenced at the hardware level, so that they order the record bytes
+ * between processes too. The magic number, claimed with a compare and swap,
+ * makes the header safe to initialize when both sides open the file at once.
+ * <p>
+ * The other process may be faulty, so the consumer checks every record
+ * length and write position it reads. On a bad one it skips everything
+ * published so far and throws {@link IllegalStateException}; the ring is
+ * usable again for the records that follow.
+ */
+class OSCSharedMemoryRing
+{
+	private static final int MAGIC = 0x4F534352;
+	// the magic number while the side that claimed the header writes it
+	private static final int INITIALIZING = 0x4F534349;
+	private static final int CAPACITY_OFFSET = 4;
+	private static final int WRITE_POSITION_OFFSET = 64;
+	private static final int READ_POSITION_OFFSET = 128;
+	private static final int DATA_OFFSET = 192;
+	private static final int PADDING = -1;
+	private static final long INITIALIZATION_TIMEOUT_NANOS = 5000000000L;
+
+	private static final sun.misc.Unsafe UNSAFE;
+	private static final long ADDRESS_OFFSET;
+
+	static
+	{
+		try
+		{
+			Field field = sun.misc.Unsafe.class.getDeclaredField("theUnsafe");
+			field.setAccessible(true);
+			UNSAFE = (sun.misc.Unsafe) field.get(null);
+			ADDRESS_OFFSET = UNSAFE.objectFieldOffset(Buffer.class.getDeclaredField("address"));
+		}
+		catch (Exception e)
+		{
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	private RandomAccessFile file;
+	private FileChannel channel;
+	private MappedByteBuffer buffer;
+	// address of the mapping, for the fenced accesses to the header
+	private long address;
+	private int capacity;
+	private long position;
+
+	/**
+	 * Map the ring, creating the file if needed.
+	 * @param path the file shared by both processes
+	 * @param capacity size of the record area in bytes
+	 * @param isProducer whether this side writes the ring
+	 */
+	OSCSharedMemoryRing(File path, int capacity, boolean isProducer) throws IOException
+	{
+		this.capacity = (capacity + 3) & ~3;
+		file = new RandomAccessFile(path, "rw");
+		channel = file.getChannel();
+		buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, DATA_OFFSET + this.capacity);
+		address = UNSAFE.getLong(buffer, ADDRESS_OFFSET);
+
+		if (UNSAFE.compareAndSwapInt(null, address, 0, INITIALIZING))
+		{
+			buffer.putInt(CAPACITY_OFFSET, this.capacity);
+			UNSAFE.putOrderedInt(null, address, MAGIC);
+		}
+		int magic = awaitInitialization();
+		if (magic != MAGIC || buffer.getInt(CAPACITY_OFFSET) != this.capacity)
+		{
+			close();
+			throw new IOException(path + " is not an OSC ring of " + this.capacity + " bytes");
+		}
+
+		if (isProducer)
+		{
+			position = loadAcquire(WRITE_POSITION_OFFSET);
+		}
+		else
+		{
+			// skip whatever a previous consumer left behind
+			position = loadAcquire(WRITE_POSITION_OFFSET);
+			storeRelease(READ_POSITION_OFFSET, position);
+		}
+	}
+
+	/**
+	 * Wait for the other side to finish writing the header, if it claimed it.
+	 * @return the magic number
+	 */
+	private int awaitInitialization() throws IOException
+	{
+		long start = System.nanoTime();
+		int magic;
+		while ((magic = UNSAFE.getIntVolatile(null, address)) == INITIALIZING)
+		{
+			if (System.nanoTime() - start > INITIALIZATION_TIMEOUT_NANOS)
+			{
+				close();
+				throw new IOException("The header of the ring was never initialized");
+			}
+			Thread.yield();
+		}
+		return magic;
+	}
+
+	int capacity()
+	{
+		return capacity;
+	}
+
+	/**
+	 * Append a packet to the ring, if there is room for it.
+	 * @return false if the ring is full
+	 */
+	boolean offer(byte[] bytes, int offset, int length)
+	{
+		int recordLength = 4 + ((length + 3) & ~3);
+		if (recordLength > capacity / 2) throw new IllegalArgumentException("Packet of " + length + " bytes does not fit the ring");
+
+		long read = loadAcquire(READ_POSITION_OFFSET);
+		int index = (int) (position % capacity);
+		int tail = capacity - index;
+		int needed = (tail < recordLength) ? tail + recordLength : recordLength;
+		if (position + needed - read > capacity) return false;
+
+		if (tail < recordLength)
+		{
+			buffer.putInt(DATA_OFFSET + index, PADDING);
+			position += tail;
+			index = 0;
+		}
+		buffer.position(DATA_OFFSET + index + 4);
+		buffer.put(bytes, offset, length);
+		buffer.putInt(DATA_OFFSET + index, length);
+		position += recordLength;
+
+		storeRelease(WRITE_POSITION_OFFSET, position);
+		return true;
+	}
+
+	/**
+	 * @return the length of the next packet in the ring, or -1 if it is empty
+	 * @throws IllegalStateException if the ring is corrupt
+	 */
+	int nextLength()
+	{
+		long write = loadAcquire(WRITE_POSITION_OFFSET);
+		if (write < position || write - position > capacity) throw corrupt(write, "write position " + write + ", read position " + position);
+		while (position < write)
+		{
+			int index = (int) (position % capacity);
+			int length = buffer.getInt(DATA_OFFSET + index);
+			if (length != PADDING)
+			{
+				checkLength(length, index, write);
+				return length;
+			}
+			position += capacity - index;
+		}
+		return -1;
+	}
+
+	/**
+	 * Copy the next packet out of the ring and free its room.
+	 * Must follow a successful {@link #nextLength()}.
+	 * @param target buffer large enough for the packet
+	 * @return the length of the packet
+	 */
+	int poll(byte[] target)
+	{
+		int index = (int) (position % capacity);
+		int length = buffer.getInt(DATA_OFFSET + index);
+		// read again, the other process may have changed it meanwhile
+		checkLength(length, index, loadAcquire(WRITE_POSITION_OFFSET));
+		if (target.length < length) throw corrupt(loadAcquire(WRITE_POSITION_OFFSET), "record length " + length + " changed while reading");
+		buffer.position(DATA_OFFSET + index + 4);
+		buffer.get(target, 0, length);
+		position += 4 + ((length + 3) & ~3);
+
+		storeRelease(READ_POSITION_OFFSET, position);
+		return length;
+	}
+
+	/**
+	 * Check a record length read at an index against what
+	 * {@link #offer(byte[], int, int)} can write there.
+	 */
+	private void checkLength(int length, int index, long write)
+	{
+		if (length < 0 || length > capacity / 2 - 4 || index + 4 + length > capacity)
+		{
+			throw corrupt(write, "record length " + length + " at offset " + index);
+		}
+	}
+
+	/**
+	 * Skip every record published so far, so that the ring can be used again.
+	 * @return the error to throw
+	 */
+	private IllegalStateException corrupt(long write, String reason)
+	{
+		position = write;
+		storeRelease(READ_POSITION_OFFSET, position);
+		return new IllegalStateException("Corrupt OSC ring: " + reason + "; resuming at write position " + write);
+	}
+
+	void close() throws IOException
+	{
+		channel.close();
+		file.close();
+	}
+
+	/**
+	 * Read a position of the header, ordered before the accesses that follow.
+	 */
+	private long loadAcquire(int offset)
+	{
+		return UNSAFE.getLongVolatile(null, address + offset);
+	}
+
+	/**
+	 * Write a position of the header, ordered after the accesses that precede.
+	 */
+	private void storeRelease(int offset, long value)
+	{
+		UNSAFE.putOrderedLong(null, address + offset, value);
+	}
+}
@@ -0,0 +1,66 @@
+package fuse.osc;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Sends OSC packets to an {@link OSCSharedMemoryReceiver} on the same host
+ * through a memory mapped ring buffer file, bypassing the network stack.
+ * Packets use the usual OSC encoding. Only one sender may write a ring.
+ */
+public class OSCSharedMemorySender
+{
+	public static final int DEFAULT_CAPACITY = 1 << 20;
+
+	private OSCSharedMemoryRing ring;
+	private OSCBackoff backoff;
+
+	public OSCSharedMemorySender(File file) throws IOException
+	{
+		this(file, DEFAULT_CAPACITY, OSCBackoff.busySpin());
+	}
+
+	/**
+	 * @param file the ring buffer file, created if it does not exist
+	 * @param capacity size of the ring in bytes, must match the receiver's
+	 * @param backoff how to wait while the ring is full
+	 */
+	public OSCSharedMemorySender(File file, int capacity, OSCBackoff backoff) throws IOException
+	{
+		ring = new OSCSharedMemoryRing(file, capacity, true);
+		this.backoff = backoff;
+	}
+
+	/**
+	 * Send a packet, waiting for room if the receiver lags behind.
+	 */
+	public void send(OSCPacket oscPacket)
+	{
+		byte[] byteArray = oscPacket.getByteArray();
+		send(byteArray, 0, byteArray.length);
+	}
+
+	/**
+	 * Send already encoded OSC bytes, waiting for room if the receiver lags behind.
+	 */
+	public synchronized void send(byte[] bytes, int offset, int length)
+	{
+		backoff.reset();
+		while (!ring.offer(bytes, offset, length)) backoff.idle();
+	}
+
+	/**
+	 * Send a packet unless the ring is full.
+	 * @return false if the packet was not sent
+	 */
+	public synchronized boolean offer(OSCPacket oscPacket)
+	{
+		byte[] byteArray = oscPacket.getByteArray();
+		return ring.offer(byteArray, 0, byteArray.length);
+	}
+
+	public void close() throws IOException
+	{
+		ring.close();
+	}
+}
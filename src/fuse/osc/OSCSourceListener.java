@@ -0,0 +1,15 @@
+package fuse.osc;
+
+import java.net.SocketAddress;
+
+/**
+ * A listener that is also told which address each message came from.
+ */
+public interface OSCSourceListener
+{
+	/**
+	 * @param message the received message
+	 * @param source address of the sender, or null if unknown
+	 */
+	public void acceptMessage(OSCMessage message, SocketAddress source);
+}
@@ -0,0 +1,180 @@
+package fuse.osc;
+
+import java.net.SocketAddress;
+
+/**
+ * Traffic statistics and rate limit of one sender, kept by an
+ * {@link OSCSourceTable}. Counters are updated by the receiving thread
+ * and may be read from any thread.
+ */
+public class OSCSourceStats
+{
+	private static final long RATE_WINDOW_NANOS = 1000000000L;
+
+	private final SocketAddress address;
+	private volatile long packetCount;
+	private volatile long byteCount;
+	private volatile long droppedCount;
+	private volatile long lastSeenMillis;
+	private volatile long lastSeenNanos;
+	// set for a limit of its own, which forgetting the source would lose
+	volatile boolean hasOwnLimit;
+
+	// current rate window, and the rates over the last complete one
+	private double packetRate;
+	private double byteRate;
+	private long windowStart;
+	private long windowPackets;
+	private long windowBytes;
+
+	// token buckets, a rate of 0 means unlimited
+	private double packetsPerSecond;
+	private double packetBurst;
+	private double packetTokens;
+	private double bytesPerSecond;
+	private double byteBurst;
+	private double byteTokens;
+	private long lastRefill;
+
+	OSCSourceStats(SocketAddress address, long nanoTime)
+	{
+		this.address = address;
+		windowStart = nanoTime;
+		lastRefill = nanoTime;
+		lastSeenNanos = nanoTime;
+	}
+
+	public SocketAddress getAddress()
+	{
+		return address;
+	}
+
+	/**
+	 * @return packets received, dropped ones included
+	 */
+	public long getPacketCount()
+	{
+		return packetCount;
+	}
+
+	/**
+	 * @return bytes received, dropped ones included
+	 */
+	public long getByteCount()
+	{
+		return byteCount;
+	}
+
+	/**
+	 * @return packets dropped by the rate limit
+	 */
+	public long getDroppedCount()
+	{
+		return droppedCount;
+	}
+
+	/**
+	 * @return when the last packet arrived, in milliseconds since 1970
+	 */
+	public long getLastSeenMillis()
+	{
+		return lastSeenMillis;
+	}
+
+	/**
+	 * @return packets per second over the last complete second, falling
+	 *   to 0 once the source stops sending
+	 */
+	public synchronized double getPacketRate()
+	{
+		completeWindow(System.nanoTime());
+		return packetRate;
+	}
+
+	/**
+	 * @return bytes per second over the last complete second, falling
+	 *   to 0 once the source stops sending
+	 */
+	public synchronized double getByteRate()
+	{
+		completeWindow(System.nanoTime());
+		return byteRate;
+	}
+
+	/**
+	 * @return when the last packet arrived, in {@link System#nanoTime()} time
+	 */
+	long getLastSeenNanos()
+	{
+		return lastSeenNanos;
+	}
+
+	/**
+	 * Limit the traffic accepted from this source.
+	 * @param packetsPerSecond sustained packet rate, 0 for no limit
+	 * @param packetBurst packets that may arrive at once
+	 * @param bytesPerSecond sustained byte rate, 0 for no limit
+	 * @param byteBurst bytes that may arrive at once
+	 */
+	synchronized void setLimit(double packetsPerSecond, double packetBurst, double bytesPerSecond, double byteBurst)
+	{
+		this.packetsPerSecond = packetsPerSecond;
+		this.packetBurst = packetBurst;
+		this.packetTokens = packetBurst;
+		this.bytesPerSecond = bytesPerSecond;
+		this.byteBurst = byteBurst;
+		this.byteTokens = byteBurst;
+	}
+
+	/**
+	 * Account for a received packet and decide whether it is let through.
+	 */
+	synchronized boolean admit(int length, long nanoTime)
+	{
+		packetCount++;
+		byteCount += length;
+		lastSeenMillis = System.currentTimeMillis();
+		lastSeenNanos = nanoTime;
+
+		windowPackets++;
+		windowBytes += length;
+		completeWindow(nanoTime);
+
+		if (packetsPerSecond <= 0 && bytesPerSecond <= 0) return true;
+		double seconds = (nanoTime - lastRefill) / 1e9;
+		lastRefill = nanoTime;
+		packetTokens = Math.min(packetBurst, packetTokens + seconds * packetsPerSecond);
+		byteTokens = Math.min(byteBurst, byteTokens + seconds * bytesPerSecond);
+		if ((packetsPerSecond > 0 && packetTokens < 1) || (bytesPerSecond > 0 && byteTokens < length))
+		{
+			droppedCount++;
+			return false;
+		}
+		packetTokens--;
+		byteTokens -= length;
+		return true;
+	}
+
+	/**
+	 * Start a new rate window if the current one is a second old. Also
+	 * called when reading the rates, so that they fall for a silent source:
+	 * first to its average over the stretched window, then to 0.
+	 */
+	private void completeWindow(long nanoTime)
+	{
+		long elapsed = nanoTime - windowStart;
+		if (elapsed < RATE_WINDOW_NANOS) return;
+		packetRate = windowPackets * 1e9 / elapsed;
+		byteRate = windowBytes * 1e9 / elapsed;
+		windowStart = nanoTime;
+		windowPackets = 0;
+		windowBytes = 0;
+	}
+
+	@Override
+	public String toString()
+	{
+		return address + ": " + packetCount + " packets, " + byteCount + " bytes, " + droppedCount
+				+ " dropped, " + Math.round(getPacketRate()) + " packets/s, " + Math.round(getByteRate()) + " bytes/s";
+	}
+}
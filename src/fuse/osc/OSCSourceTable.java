@@ -0,0 +1,155 @@
+package fuse.osc;
+
+import java.net.SocketAddress;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps the {@link OSCSourceStats} of every sender seen by a receiver and
+ * sheds the traffic of senders exceeding their rate limit, before their
+ * packets are decoded.
+ * <p>
+ * Limits are token buckets: a source may send a burst of packets (or bytes)
+ * at once, then at most the sustained rate.
+ * <p>
+ * Sources not heard from for {@link #setIdleMillis(long)} are forgotten,
+ * and at most {@link #setMaxSources(int)} are kept, the least recently seen
+ * being forgotten first, so that made up source addresses can not grow the
+ * table without bounds. Sources given a limit of their own with
+ * {@link #setLimit(SocketAddress, double, double, double, double)} are
+ * never forgotten.
+ */
+public class OSCSourceTable
+{
+	private static final long SWEEP_INTERVAL_NANOS = 1000000000L;
+
+	private ConcurrentHashMap<SocketAddress, OSCSourceStats> sources;
+	private volatile int maxSources;
+	private volatile long idleNanos;
+	// guarded by this
+	private long lastSweepNanos;
+	private double packetsPerSecond;
+	private double packetBurst;
+	private double bytesPerSecond;
+	private double byteBurst;
+
+	public OSCSourceTable()
+	{
+		sources = new ConcurrentHashMap<SocketAddress, OSCSourceStats>();
+		maxSources = 4096;
+		idleNanos = 60000000000L;
+		lastSweepNanos = System.nanoTime();
+	}
+
+	/**
+	 * @param maxSources number of sources above which the least recently
+	 *   seen one is forgotten
+	 */
+	public void setMaxSources(int maxSources)
+	{
+		if (maxSources <= 0) throw new IllegalArgumentException("Max sources must be positive, is " + maxSources);
+		this.maxSources = maxSources;
+	}
+
+	/**
+	 * @param idleMillis how long the statistics of a silent source are kept
+	 */
+	public void setIdleMillis(long idleMillis)
+	{
+		idleNanos = idleMillis * 1000000L;
+	}
+
+	/**
+	 * Set the limit of sources not seen yet.
+	 * @param packetsPerSecond sustained packet rate, 0 for no limit
+	 * @param packetBurst packets that may arrive at once
+	 * @param bytesPerSecond sustained byte rate, 0 for no limit
+	 * @param byteBurst bytes that may arrive at once
+	 */
+	public synchronized void setDefaultLimit(double packetsPerSecond, double packetBurst, double bytesPerSecond, double byteBurst)
+	{
+		this.packetsPerSecond = packetsPerSecond;
+		this.packetBurst = packetBurst;
+		this.bytesPerSecond = bytesPerSecond;
+		this.byteBurst = byteBurst;
+	}
+
+	/**
+	 * Set the limit of one source.
+	 * @see #setDefaultLimit(double, double, double, double)
+	 */
+	public void setLimit(SocketAddress address, double packetsPerSecond, double packetBurst, double bytesPerSecond, double byteBurst)
+	{
+		OSCSourceStats stats = getOrCreate(address, System.nanoTime());
+		stats.setLimit(packetsPerSecond, packetBurst, bytesPerSecond, byteBurst);
+		stats.hasOwnLimit = true;
+	}
+
+	/**
+	 * @return the statistics of a source, or null if it was never seen
+	 */
+	public OSCSourceStats get(SocketAddress address)
+	{
+		return sources.get(address);
+	}
+
+	public Collection<OSCSourceStats> getAll()
+	{
+		return Collections.unmodifiableCollection(sources.values());
+	}
+
+	/**
+	 * Account for a packet received from a source.
+	 * @return false if the packet exceeds the source's limit and should be dropped
+	 */
+	public boolean admit(SocketAddress address, int length)
+	{
+		long now = System.nanoTime();
+		return getOrCreate(address, now).admit(length, now);
+	}
+
+	private OSCSourceStats getOrCreate(SocketAddress address, long nanoTime)
+	{
+		OSCSourceStats stats = sources.get(address);
+		if (stats != null) return stats;
+		stats = new OSCSourceStats(address, nanoTime);
+		synchronized (this)
+		{
+			stats.setLimit(packetsPerSecond, packetBurst, bytesPerSecond, byteBurst);
+			forgetSources(nanoTime);
+		}
+		OSCSourceStats existing = sources.putIfAbsent(address, stats);
+		return (existing != null) ? existing : stats;
+	}
+
+	/**
+	 * Make room for a new source: forget the idle ones, at most once a
+	 * second, and the least recently seen one if the table is still full.
+	 * Only done for new sources, so known ones are admitted without locking.
+	 */
+	private void forgetSources(long nanoTime)
+	{
+		boolean isFull = sources.size() >= maxSources;
+		if (!isFull && nanoTime - lastSweepNanos < SWEEP_INTERVAL_NANOS) return;
+		lastSweepNanos = nanoTime;
+		SocketAddress oldest = null;
+		long oldestNanos = 0;
+		for (Iterator<Map.Entry<SocketAddress, OSCSourceStats>> i = sources.entrySet().iterator(); i.hasNext();)
+		{
+			Map.Entry<SocketAddress, OSCSourceStats> entry = i.next();
+			OSCSourceStats stats = entry.getValue();
+			if (stats.hasOwnLimit) continue;
+			long lastSeenNanos = stats.getLastSeenNanos();
+			if (nanoTime - lastSeenNanos > idleNanos) i.remove();
+			else if (oldest == null || lastSeenNanos - oldestNanos < 0)
+			{
+				oldest = entry.getKey();
+				oldestNanos = lastSeenNanos;
+			}
+		}
+		if (oldest != null && sources.size() >= maxSources) sources.remove(oldest);
+	}
+}
@@ -0,0 +1,378 @@
+package fuse.osc;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import fuse.osc.utils.OSCByteArrayToJavaConverter;
+import fuse.osc.utils.OSCPacketValidator;
+
+/**
+ * Receives OSC packets sent by {@link OSCStreamSender}s over stream
+ * connections, either on a Unix domain socket (Java 16 or later) or on
+ * a TCP port, and dispatches them to its listeners like an
+ * {@link OSCReceiver} does.
+ * <p>
+ * Every accepted connection is read by its own thread. A connection
+ * announcing a frame longer than {@link #setMaxFrameLength(int)} is closed.
+ * Stopping to listen closes the open connections.
+ */
+public class OSCStreamReceiver extends OSCPort implements Runnable
+{
+	public static final int DEFAULT_MAX_FRAME_LENGTH = 1 << 16;
+
+	private volatile boolean isListening;
+	// whether an accepting loop runs, guarded by this
+	private boolean isRunning;
+	private volatile int maxFrameLength;
+	private File socketFile;
+	private ServerSocketChannel serverChannel;
+	private Selector selector;
+	private Set<SocketChannel> connections;
+	private OSCPacketValidator validator;
+	private volatile OSCTracer tracer;
+	private OSCPacketDispatcher dispatcher;
+
+	/**
+	 * Listen on a Unix domain socket. A stale socket file left at that path
+	 * is deleted first.
+	 * @param socketFile path of the socket
+	 */
+	public OSCStreamReceiver(File socketFile) throws IOException
+	{
+		socketFile.delete();
+		this.socketFile = socketFile;
+		serverChannel = openServerChannel(unixSocketAddress(socketFile));
+		init();
+	}
+
+	/**
+	 * Listen on a TCP port of the loopback interface.
+	 */
+	public OSCStreamReceiver(int port) throws IOException
+	{
+		this(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), port));
+	}
+
+	public OSCStreamReceiver(SocketAddress address) throws IOException
+	{
+		if (address instanceof InetSocketAddress) port = ((InetSocketAddress) address).getPort();
+		serverChannel = openServerChannel(address);
+		init();
+	}
+
+	private void init() throws IOException
+	{
+		// accepts in a selector, so that stopListening() wakes the accepting thread up at once
+		selector = Selector.open();
+		serverChannel.configureBlocking(false);
+		serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+		maxFrameLength = DEFAULT_MAX_FRAME_LENGTH;
+		connections = Collections.newSetFromMap(new ConcurrentHashMap<SocketChannel, Boolean>());
+		validator = new OSCPacketValidator();
+		dispatcher = new OSCPacketDispatcher();
+	}
+
+	/**
+	 * @param maxFrameLength longest frame accepted, in bytes; a connection
+	 *   announcing a longer one is closed rather than trusted with memory
+	 */
+	public void setMaxFrameLength(int maxFrameLength)
+	{
+		this.maxFrameLength = maxFrameLength;
+	}
+
+	public synchronized void startListening()
+	{
+		if (!prepareListening()) return;
+		Thread thread = new Thread(this);
+		thread.start();
+	}
+
+	/**
+	 * Wait for the loop of a previous listening to end, so that two threads
+	 * never accept on the same channel.
+	 * @return false if already listening
+	 */
+	private boolean prepareListening()
+	{
+		if (isListening) return false;
+		boolean isInterrupted = false;
+		while (isRunning)
+		{
+			try
+			{
+				wait();
+			}
+			catch (InterruptedException e)
+			{
+				isInterrupted = true;
+			}
+		}
+		if (isInterrupted) Thread.currentThread().interrupt();
+		isListening = true;
+		isRunning = true;
+		return true;
+	}
+
+	/**
+	 * Stop listening at once, rather than after the next connection: the
+	 * accepting thread is woken up, and the open connections are closed.
+	 */
+	public void stopListening()
+	{
+		isListening = false;
+		selector.wakeup();
+		for (SocketChannel channel : connections) closeQuietly(channel);
+	}
+
+	public boolean isListening()
+	{
+		return isListening;
+	}
+
+	/**
+	 * Listeners are called concurrently, by the thread of each connection,
+	 * so they must be thread safe when several senders are connected.
+	 */
+	public void addListener(OSCListener listener)
+	{
+		dispatcher.addListener(listener);
+	}
+
+	public void removeListener(OSCListener listener)
+	{
+		dispatcher.removeListener(listener);
+	}
+
+	/**
+	 * @return the validator dropping malformed frames before decoding
+	 */
+	public OSCPacketValidator getValidator()
+	{
+		return validator;
+	}
+
+	/**
+	 * @param tracer told about every received, decoded and dispatched frame, with the address of its sender, or null
+	 */
+	public void setTracer(OSCTracer tracer)
+	{
+		this.tracer = tracer;
+	}
+
+	@Override
+	public void close()
+	{
+		stopListening();
+		try
+		{
+			serverChannel.close();
+		}
+		catch (IOException e)
+		{
+			e.printStackTrace();
+		}
+		try
+		{
+			selector.close();
+		}
+		catch (IOException e)
+		{
+			e.printStackTrace();
+		}
+		// wakes up the threads blocked reading the connections
+		for (SocketChannel channel : connections) closeQuietly(channel);
+		if (socketFile != null) socketFile.delete();
+	}
+
+	@Override
+	public void run()
+	{
+		try
+		{
+			listen();
+		}
+		finally
+		{
+			synchronized (this)
+			{
+				isRunning = false;
+				notifyAll();
+			}
+		}
+	}
+
+	private void listen()
+	{
+		while (isListening)
+		{
+			try
+			{
+				selector.select();
+				if (!isListening) break;
+				selector.selectedKeys().clear();
+				SocketChannel channel;
+				// accepted channels block, so each thread simply reads its own
+				while ((channel = serverChannel.accept()) != null) startReceiving(channel);
+			}
+			catch (ClosedSelectorException e)
+			{
+				// closed while accepting
+				break;
+			}
+			catch (IOException e)
+			{
+				if (!serverChannel.isOpen()) break;
+				e.printStackTrace();
+			}
+		}
+	}
+
+	private void startReceiving(final SocketChannel channel) throws IOException
+	{
+		// the remote address of a TCP connection; a Unix domain one has none to tell senders apart
+		final SocketAddress source = channel.getRemoteAddress();
+		connections.add(channel);
+		// stopped or closed meanwhile: stopListening() and close() may have missed the channel
+		if (!isListening || !serverChannel.isOpen())
+		{
+			connections.remove(channel);
+			closeQuietly(channel);
+			return;
+		}
+		Thread thread = new Thread(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				receive(channel, source);
+			}
+		});
+		thread.start();
+	}
+
+	/**
+	 * Read the frames of one connection until it is closed.
+	 */
+	private void receive(SocketChannel channel, SocketAddress source)
+	{
+		OSCByteArrayToJavaConverter converter = new OSCByteArrayToJavaConverter();
+		ByteBuffer header = ByteBuffer.allocate(4);
+		ByteBuffer packet = ByteBuffer.allocate(3072);
+		try
+		{
+			while (isListening)
+			{
+				header.clear();
+				readFully(channel, header);
+				int length = header.getInt(0);
+				if (length <= 0 || length > maxFrameLength) throw new IOException("Invalid frame size " + length);
+				if (packet.capacity() < length) packet = ByteBuffer.allocate(Math.max(length, packet.capacity() * 2));
+				packet.clear();
+				packet.limit(length);
+				readFully(channel, packet);
+				OSCTracer tracer = this.tracer;
+				if (tracer != null) tracer.packetReceived(packet.array(), length, source, System.nanoTime());
+				// the frame is dropped, but the stream is still in sync
+				if (validator.validate(packet.array(), length) != OSCPacketValidator.VALID) continue;
+				OSCPacket oscPacket = OSCTracing.decode(converter, packet.array(), length, source, tracer);
+				if (oscPacket != null) OSCTracing.dispatch(dispatcher, oscPacket, source, tracer);
+			}
+		}
+		catch (EOFException e)
+		{
+			// the sender closed the connection
+		}
+		catch (IOException e)
+		{
+			if (isListening) e.printStackTrace();
+		}
+		finally
+		{
+			connections.remove(channel);
+			closeQuietly(channel);
+		}
+	}
+
+	private static void closeQuietly(SocketChannel channel)
+	{
+		try
+		{
+			channel.close();
+		}
+		catch (IOException e)
+		{
+			e.printStackTrace();
+		}
+	}
+
+	private static void readFully(SocketChannel channel, ByteBuffer buffer) throws IOException
+	{
+		while (buffer.hasRemaining())
+		{
+			if (channel.read(buffer) < 0) throw new EOFException();
+		}
+	}
+
+	/**
+	 * Create the address of a Unix domain socket. Unix domain sockets need
+	 * Java 16 or later, so they are reached without compiling against them.
+	 * @param socketFile path of the socket
+	 * @return a java.net.UnixDomainSocketAddress
+	 */
+	public static SocketAddress unixSocketAddress(File socketFile) throws IOException
+	{
+		try
+		{
+			Class<?> addressClass = Class.forName("java.net.UnixDomainSocketAddress");
+			return (SocketAddress) addressClass.getMethod("of", String.class).invoke(null, socketFile.getPath());
+		}
+		catch (Exception e)
+		{
+			throw new IOException("Unix domain sockets need Java 16 or later", e);
+		}
+	}
+
+	private static ServerSocketChannel openServerChannel(SocketAddress address) throws IOException
+	{
+		if (address instanceof InetSocketAddress)
+		{
+			ServerSocketChannel channel = ServerSocketChannel.open();
+			channel.socket().bind(address);
+			return channel;
+		}
+
+		// Unix domain: ServerSocketChannel.open(StandardProtocolFamily.UNIX).bind(address)
+		try
+		{
+			Class<?> familyClass = Class.forName("java.net.ProtocolFamily");
+			Object unix = Class.forName("java.net.StandardProtocolFamily").getField("UNIX").get(null);
+			ServerSocketChannel channel = (ServerSocketChannel) ServerSocketChannel.class.getMethod("open", familyClass).invoke(null, unix);
+			ServerSocketChannel.class.getMethod("bind", SocketAddress.class).invoke(channel, address);
+			return channel;
+		}
+		catch (InvocationTargetException e)
+		{
+			if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+			throw new IOException("Cannot listen on " + address, e.getCause());
+		}
+		catch (Exception e)
+		{
+			throw new IOException("Unix domain sockets need Java 16 or later", e);
+		}
+	}
+}
@@ -0,0 +1,86 @@
+package fuse.osc;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Sends OSC packets over a stream connection to an {@link OSCStreamReceiver},
+ * using the OSC 1.0 stream framing: every packet is preceded by its size as
+ * a 32 bit big endian int.
+ * <p>
+ * On Java 16 or later the connection may be a Unix domain socket, which avoids
+ * the IP stack altogether; otherwise it is a TCP connection with Nagle's
+ * algorithm turned off. Either way packets are never dropped: a slow receiver
+ * slows the sender down instead.
+ */
+public class OSCStreamSender extends OSCPort
+{
+	private SocketChannel channel;
+	private ByteBuffer header;
+	private ByteBuffer[] frame;
+
+	/**
+	 * Connect to a receiver listening on a Unix domain socket.
+	 * @param socketFile path of the socket
+	 */
+	public OSCStreamSender(File socketFile) throws IOException
+	{
+		this(OSCStreamReceiver.unixSocketAddress(socketFile));
+	}
+
+	/**
+	 * Connect to a receiver listening on a TCP port.
+	 */
+	public OSCStreamSender(InetAddress ip, int port) throws IOException
+	{
+		this(new InetSocketAddress(ip, port));
+	}
+
+	public OSCStreamSender(SocketAddress address) throws IOException
+	{
+		if (address instanceof InetSocketAddress) port = ((InetSocketAddress) address).getPort();
+		// picks the protocol family of the address, Unix domain included
+		channel = SocketChannel.open(address);
+		if (address instanceof InetSocketAddress) channel.socket().setTcpNoDelay(true);
+		header = ByteBuffer.allocate(4);
+		frame = new ByteBuffer[2];
+		frame[0] = header;
+	}
+
+	public void send(OSCPacket oscPacket) throws IOException
+	{
+		byte[] byteArray = oscPacket.getByteArray();
+		send(byteArray, 0, byteArray.length);
+	}
+
+	/**
+	 * Send already encoded OSC bytes as they are.
+	 */
+	public synchronized void send(byte[] bytes, int offset, int length) throws IOException
+	{
+		header.clear();
+		header.putInt(0, length);
+		frame[1] = ByteBuffer.wrap(bytes, offset, length);
+		long remaining = 4 + length;
+		while (remaining > 0) remaining -= channel.write(frame);
+		frame[1] = null;
+	}
+
+	@Override
+	public void close()
+	{
+		try
+		{
+			channel.close();
+		}
+		catch (IOException e)
+		{
+			e.printStackTrace();
+		}
+	}
+}
@@ -0,0 +1,12 @@
+package fuse.osc;
+
+/**
+ * Pins a receiving thread to chosen CPU cores, called by the thread itself
+ * when it starts. Pinning a busy polling thread to an isolated core keeps
+ * the scheduler from moving it or running anything else on its core.
+ * @see OSCLinuxThreadPinner
+ */
+public interface OSCThreadPinner
+{
+	public void pinCurrentThread();
+}
@@ -0,0 +1,231 @@
+package fuse.osc;
+
+import java.util.Date;
+
+/**
+ * An immutable OSC time tag, backed by the raw 64 bit NTP timestamp used on
+ * the wire: the upper 32 bits are seconds since 1900, the lower 32 bits are
+ * fractions of a second (about 233 picoseconds each).
+ * <p>
+ * Conversions to and from nanoseconds are exact to the nanosecond, unlike
+ * {@link Date} which only keeps milliseconds. Seconds values with the high
+ * bit clear are read as NTP era 1 (from 2036 on), as recommended by RFC 4330.
+ */
+public final class OSCTimeTag implements Comparable<OSCTimeTag>
+{
+	/**
+	 * 2208988800 seconds -- includes 17 leap years
+	 */
+	public static final long SECONDS_FROM_1900_TO_1970 = 2208988800L;
+
+	/**
+	 * The raw time tag with the semantics of "immediately".
+	 */
+	public static final long NTP_IMMEDIATE = 1L;
+
+	public static final OSCTimeTag IMMEDIATE = new OSCTimeTag(NTP_IMMEDIATE);
+
+	private static final long NANOS_PER_SECOND = 1000000000L;
+	private static final long FRACTIONS_PER_SECOND = 0x100000000L;
+
+	/**
+	 * Epoch time in nanoseconds when System.nanoTime() was 0, used to convert
+	 * from and to the monotonic clock.
+	 */
+	private static final long NANO_TIME_EPOCH_OFFSET = System.currentTimeMillis() * 1000000L - System.nanoTime();
+
+	private final long ntpTime;
+
+	private OSCTimeTag(long ntpTime)
+	{
+		this.ntpTime = ntpTime;
+	}
+
+	/**
+	 * @param ntpTime a raw 64 bit NTP timestamp
+	 * @return the time tag
+	 */
+	public static OSCTimeTag valueOf(long ntpTime)
+	{
+		return (ntpTime == NTP_IMMEDIATE) ? IMMEDIATE : new OSCTimeTag(ntpTime);
+	}
+
+	/**
+	 * @param epochNanos nanoseconds since 1970-01-01T00:00:00Z
+	 * @return the time tag
+	 */
+	public static OSCTimeTag fromEpochNanos(long epochNanos)
+	{
+		return valueOf(epochNanosToNtp(epochNanos));
+	}
+
+	/**
+	 * @param epochMillis milliseconds since 1970-01-01T00:00:00Z
+	 * @return the time tag
+	 */
+	public static OSCTimeTag fromMillis(long epochMillis)
+	{
+		return fromEpochNanos(epochMillis * 1000000L);
+	}
+
+	/**
+	 * @param date a Date, {@link OSCBundle#TIMESTAMP_IMMEDIATE} or null for "immediately"
+	 * @return the time tag
+	 */
+	public static OSCTimeTag fromDate(Date date)
+	{
+		if (date == null || date == OSCBundle.TIMESTAMP_IMMEDIATE) return IMMEDIATE;
+		return fromMillis(date.getTime());
+	}
+
+	/**
+	 * @param nanoTime a value of {@link System#nanoTime()}
+	 * @return the time tag for the wall clock time at that instant
+	 */
+	public static OSCTimeTag fromNanoTime(long nanoTime)
+	{
+		return fromEpochNanos(nanoTime + NANO_TIME_EPOCH_OFFSET);
+	}
+
+	/**
+	 * @return the current time, with the precision of {@link System#nanoTime()}
+	 */
+	public static OSCTimeTag now()
+	{
+		return fromNanoTime(System.nanoTime());
+	}
+
+	/**
+	 * Convert nanoseconds since 1970 to a raw NTP timestamp without allocating.
+	 */
+	public static long epochNanosToNtp(long epochNanos)
+	{
+		long seconds = floorDiv(epochNanos, NANOS_PER_SECOND);
+		long nanos = epochNanos - seconds * NANOS_PER_SECOND;
+		long fraction = ((nanos << 32) + NANOS_PER_SECOND / 2) / NANOS_PER_SECOND;
+		if (fraction == FRACTIONS_PER_SECOND)
+		{
+			seconds++;
+			fraction = 0;
+		}
+		return ((seconds + SECONDS_FROM_1900_TO_1970) << 32) | fraction;
+	}
+
+	/**
+	 * Convert a raw NTP timestamp to nanoseconds since 1970 without allocating.
+	 */
+	public static long ntpToEpochNanos(long ntpTime)
+	{
+		long seconds = ntpTime >>> 32;
+		// era 1 starts in 2036, when the 32 bit seconds wrap around
+		if ((seconds & 0x80000000L) == 0) seconds += FRACTIONS_PER_SECOND;
+		long fraction = ntpTime & 0xFFFFFFFFL;
+		long nanos = (fraction * NANOS_PER_SECOND + FRACTIONS_PER_SECOND / 2) >>> 32;
+		return (seconds - SECONDS_FROM_1900_TO_1970) * NANOS_PER_SECOND + nanos;
+	}
+
+	/**
+	 * @return the raw 64 bit NTP timestamp
+	 */
+	public long getNtpTime()
+	{
+		return ntpTime;
+	}
+
+	/**
+	 * @return the seconds since 1900, as an unsigned 32 bit value
+	 */
+	public long getSeconds()
+	{
+		return ntpTime >>> 32;
+	}
+
+	/**
+	 * @return the fractions of a second, as an unsigned 32 bit value
+	 */
+	public long getFraction()
+	{
+		return ntpTime & 0xFFFFFFFFL;
+	}
+
+	public boolean isImmediate()
+	{
+		return ntpTime == NTP_IMMEDIATE;
+	}
+
+	/**
+	 * @return nanoseconds since 1970-01-01T00:00:00Z
+	 */
+	public long toEpochNanos()
+	{
+		return ntpToEpochNanos(ntpTime);
+	}
+
+	/**
+	 * @return milliseconds since 1970-01-01T00:00:00Z, rounded down
+	 */
+	public long toMillis()
+	{
+		return floorDiv(toEpochNanos(), 1000000L);
+	}
+
+	/**
+	 * @return the equivalent Date, or {@link OSCBundle#TIMESTAMP_IMMEDIATE}
+	 */
+	public Date toDate()
+	{
+		if (isImmediate()) return OSCBundle.TIMESTAMP_IMMEDIATE;
+		return new Date(toMillis());
+	}
+
+	/**
+	 * @return the value {@link System#nanoTime()} will have at this time
+	 */
+	public long toNanoTime()
+	{
+		return toEpochNanos() - NANO_TIME_EPOCH_OFFSET;
+	}
+
+	/**
+	 * @param nanos nanoseconds to add, may be negative
+	 * @return a time tag shifted by the given amount
+	 */
+	public OSCTimeTag plusNanos(long nanos)
+	{
+		return fromEpochNanos(toEpochNanos() + nanos);
+	}
+
+	@Override
+	public int compareTo(OSCTimeTag other)
+	{
+		long a = toEpochNanos();
+		long b = other.toEpochNanos();
+		return (a < b) ? -1 : ((a == b) ? 0 : 1);
+	}
+
+	@Override
+	public boolean equals(Object other)
+	{
+		return (other instanceof OSCTimeTag) && ((OSCTimeTag) other).ntpTime == ntpTime;
+	}
+
+	@Override
+	public int hashCode()
+	{
+		return (int) (ntpTime ^ (ntpTime >>> 32));
+	}
+
+	@Override
+	public String toString()
+	{
+		if (isImmediate()) return "immediate";
+		return getSeconds() + "." + String.format("%08x", getFraction());
+	}
+
+	private static long floorDiv(long x, long y)
+	{
+		long q = x / y;
+		if ((x % y != 0) && ((x ^ y) < 0)) q--;
+		return q;
+	}
+}
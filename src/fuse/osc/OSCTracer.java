@@ -0,0 +1,44 @@
+package fuse.osc;
+
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+
+/**
+ * Told about every packet going through a receiver or a sender it is set
+ * on, with <code>System.nanoTime()</code>
+ * timestamps. Implementations run on the receiving or sending thread and
+ * should return quickly; they may commit JDK Flight Recorder events, so
+ * that packets can be correlated with GC and safepoint pauses, or keep an
+ * {@link OSCPacketTrace}.
+ */
+public interface OSCTracer
+{
+	/**
+	 * @param bytes the datagram, only valid during the call
+	 */
+	public void packetReceived(byte[] bytes, int length, SocketAddress source, long nanoTime);
+
+	public void packetDecoded(OSCPacket packet, long startNanos, long endNanos);
+
+	/**
+	 * @param bytes the datagram, only valid during the call
+	 * @param error why it could not be decoded
+	 */
+	public void decodeFailed(byte[] bytes, int length, SocketAddress source, RuntimeException error);
+
+	public void packetDispatched(OSCPacket packet, long startNanos, long endNanos);
+
+	/**
+	 * @param bytes buffer holding the datagram, only valid during the call
+	 */
+	public void packetSent(byte[] bytes, int offset, int length, SocketAddress destination, long nanoTime);
+
+	/**
+	 * Told about a datagram sent with a gathering write, without copying it
+	 * into one array first.
+	 * @param buffers the parts of the datagram, from their positions to their
+	 *   limits, only valid during the call; their positions must be left as they are
+	 * @param length length of the datagram
+	 */
+	public void packetSent(ByteBuffer[] buffers, int length, SocketAddress destination, long nanoTime);
+}
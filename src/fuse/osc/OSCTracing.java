@@ -0,0 +1,58 @@
+package fuse.osc;
+
+import java.net.SocketAddress;
+
+import fuse.osc.utils.OSCByteArrayToJavaConverter;
+
+/**
+ * The decoding and dispatching steps shared by the receivers, telling an
+ * {@link OSCTracer} about them when there is one. Without a tracer they
+ * cost no more than decoding and dispatching.
+ */
+final class OSCTracing
+{
+	private OSCTracing()
+	{
+	}
+
+	/**
+	 * Decode a datagram. One that can not be decoded is dropped, whether
+	 * traced or not, so that it never ends a receiving loop; the tracer is
+	 * told why, or the error printed if there is no tracer.
+	 * @param tracer told how long decoding took or why it failed, or null
+	 * @return the packet, or null if it could not be decoded
+	 */
+	static OSCPacket decode(OSCByteArrayToJavaConverter converter, byte[] bytes, int length, SocketAddress source, OSCTracer tracer)
+	{
+		long start = (tracer == null) ? 0 : System.nanoTime();
+		OSCPacket packet;
+		try
+		{
+			packet = converter.convert(bytes, length);
+		}
+		catch (RuntimeException e)
+		{
+			if (tracer != null) tracer.decodeFailed(bytes, length, source, e);
+			else e.printStackTrace();
+			return null;
+		}
+		if (tracer != null) tracer.packetDecoded(packet, start, System.nanoTime());
+		return packet;
+	}
+
+	/**
+	 * Dispatch a decoded packet.
+	 * @param tracer told how long dispatching took, or null
+	 */
+	static void dispatch(OSCPacketDispatcher dispatcher, OSCPacket packet, SocketAddress source, OSCTracer tracer)
+	{
+		if (tracer == null)
+		{
+			dispatcher.dispatchPacketFrom(packet, source);
+			return;
+		}
+		long start = System.nanoTime();
+		dispatcher.dispatchPacketFrom(packet, source);
+		tracer.packetDispatched(packet, start, System.nanoTime());
+	}
+}
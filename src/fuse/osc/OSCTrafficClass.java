@@ -0,0 +1,192 @@
+package fuse.osc;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A class of OSC traffic, selected by address prefix, with its own queue in
+ * an {@link OSCPriorityScheduler}. Its priority or weight decides how it is
+ * served against the other classes, its worker budget how many of the
+ * scheduler threads may work on it at once, and its drop policy what
+ * happens to new messages when its queue is full.
+ */
+public class OSCTrafficClass
+{
+	public static final int DROP_OLDEST = 0;
+	public static final int DROP_NEWEST = 1;
+
+	private String name;
+	private int priority;
+	private List<String> prefixes;
+	private int weight;
+	private int workerBudget;
+	private int capacity;
+	private int dropPolicy;
+	private volatile long dispatchedCount;
+	private volatile long droppedCount;
+
+	// guarded by the scheduler
+	ArrayDeque<OSCMessage> queue;
+	int activeWorkers;
+	int currentWeight;
+
+	/**
+	 * @param name name of the class, for statistics
+	 * @param priority the higher, the sooner its messages are dispatched
+	 */
+	public OSCTrafficClass(String name, int priority)
+	{
+		this.name = name;
+		this.priority = priority;
+		prefixes = new ArrayList<String>();
+		weight = 1;
+		workerBudget = Integer.MAX_VALUE;
+		capacity = 1024;
+		dropPolicy = DROP_OLDEST;
+		queue = new ArrayDeque<OSCMessage>();
+	}
+
+	/**
+	 * Add an address prefix of the messages in this class.
+	 * @return this class
+	 */
+	public OSCTrafficClass addPrefix(String prefix)
+	{
+		prefixes.add(prefix);
+		return this;
+	}
+
+	/**
+	 * @param weight share of the dispatching given to this class when the
+	 * scheduler is weighted
+	 * @return this class
+	 */
+	public OSCTrafficClass setWeight(int weight)
+	{
+		if (weight <= 0) throw new IllegalArgumentException("Weight must be positive, is " + weight);
+		this.weight = weight;
+		return this;
+	}
+
+	/**
+	 * @param workerBudget how many threads may dispatch messages of this
+	 * class at once; 1 keeps them in order
+	 * @return this class
+	 */
+	public OSCTrafficClass setWorkerBudget(int workerBudget)
+	{
+		if (workerBudget <= 0) throw new IllegalArgumentException("Worker budget must be positive, is " + workerBudget);
+		this.workerBudget = workerBudget;
+		return this;
+	}
+
+	/**
+	 * @param capacity how many messages may wait in the queue
+	 * @return this class
+	 */
+	public OSCTrafficClass setCapacity(int capacity)
+	{
+		if (capacity <= 0) throw new IllegalArgumentException("Capacity must be positive, is " + capacity);
+		this.capacity = capacity;
+		return this;
+	}
+
+	/**
+	 * @param dropPolicy {@link #DROP_OLDEST} or {@link #DROP_NEWEST}
+	 * @return this class
+	 */
+	public OSCTrafficClass setDropPolicy(int dropPolicy)
+	{
+		if (dropPolicy != DROP_OLDEST && dropPolicy != DROP_NEWEST) throw new IllegalArgumentException("Unknown drop policy " + dropPolicy);
+		this.dropPolicy = dropPolicy;
+		return this;
+	}
+
+	public String getName()
+	{
+		return name;
+	}
+
+	public int getPriority()
+	{
+		return priority;
+	}
+
+	public int getWeight()
+	{
+		return weight;
+	}
+
+	public int getWorkerBudget()
+	{
+		return workerBudget;
+	}
+
+	public int getCapacity()
+	{
+		return capacity;
+	}
+
+	public int getDropPolicy()
+	{
+		return dropPolicy;
+	}
+
+	public long getDispatchedCount()
+	{
+		return dispatchedCount;
+	}
+
+	public long getDroppedCount()
+	{
+		return droppedCount;
+	}
+
+	/**
+	 * @return the length of the longest prefix of this class matching the
+	 * address, or -1 if none does
+	 */
+	int match(String address)
+	{
+		int longest = -1;
+		for (String prefix : prefixes)
+		{
+			if (prefix.length() > longest && address.startsWith(prefix)) longest = prefix.length();
+		}
+		return longest;
+	}
+
+	/**
+	 * Queue a message, dropping one if the queue is full.
+	 * Called with the scheduler lock held.
+	 * @return false if the new message was dropped
+	 */
+	boolean enqueue(OSCMessage message)
+	{
+		if (queue.size() >= capacity)
+		{
+			droppedCount++;
+			if (dropPolicy == DROP_NEWEST) return false;
+			queue.poll();
+		}
+		queue.add(message);
+		return true;
+	}
+
+	/**
+	 * Called with the scheduler lock held.
+	 */
+	boolean isEligible()
+	{
+		return !queue.isEmpty() && activeWorkers < workerBudget;
+	}
+
+	/**
+	 * Called with the scheduler lock held.
+	 */
+	void dispatched()
+	{
+		dispatchedCount++;
+	}
+}
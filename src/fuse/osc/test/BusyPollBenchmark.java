@@ -0,0 +1,114 @@
+package fuse.osc.test;
+
+import java.math.BigInteger;
+import java.net.InetAddress;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.locks.LockSupport;
+
+import fuse.osc.OSCBackoff;
+import fuse.osc.OSCBusyPollReceiver;
+import fuse.osc.OSCLinuxThreadPinner;
+import fuse.osc.OSCListener;
+import fuse.osc.OSCMessage;
+import fuse.osc.OSCReceiver;
+import fuse.osc.OSCSender;
+
+/**
+ * Compares the one way loopback latency of the blocking {@link OSCReceiver}
+ * with the busy polling {@link OSCBusyPollReceiver}, busy spinning and with
+ * its default spin, yield and park backoff. Messages are sent every 100 us,
+ * long enough for a blocked thread to fall asleep in between.
+ * <p>
+ * Pass a core list, e.g. "3", to pin the busy polling threads to it.
+ * <p>
+ * Run it on a host with cores to spare and pin the polling thread to an
+ * isolated one. With a single core, a spinning receiver competes with the
+ * sender for it, and the figures say little about either.
+ */
+public class BusyPollBenchmark
+{
+	private static final int MESSAGES = 20000;
+
+	/**
+	 * Records the latency of every received message.
+	 */
+	private static class LatencyListener implements OSCListener
+	{
+		long[] latencies = new long[MESSAGES];
+		CountDownLatch done = new CountDownLatch(MESSAGES);
+
+		@Override
+		public void acceptMessage(OSCMessage message)
+		{
+			long sent = ((BigInteger) message.arguments()[0]).longValue();
+			int index = (Integer) message.arguments()[1];
+			latencies[index] = System.nanoTime() - sent;
+			done.countDown();
+		}
+
+		void print(String name) throws InterruptedException
+		{
+			done.await();
+			// leave the warm up out of the figures
+			long[] sorted = Arrays.copyOfRange(latencies, MESSAGES / 2, MESSAGES);
+			Arrays.sort(sorted);
+			System.out.println(name + ": p50 " + sorted[sorted.length / 2] / 1000 + " us, p99 "
+					+ sorted[sorted.length * 99 / 100] / 1000 + " us");
+		}
+	}
+
+	private static void run(OSCSender sender) throws Exception
+	{
+		for (int i = 0; i < MESSAGES; i++)
+		{
+			sender.send(new OSCMessage("/prova/", new Object[] { BigInteger.valueOf(System.nanoTime()), i }));
+			LockSupport.parkNanos(100000);
+		}
+	}
+
+	public static void main(String[] args)
+	{
+		try
+		{
+			InetAddress localhost = InetAddress.getByName("127.0.0.1");
+			OSCLinuxThreadPinner pinner = (args.length > 0) ? new OSCLinuxThreadPinner(args[0]) : null;
+
+			OSCReceiver blockingReceiver = new OSCReceiver(7040);
+			LatencyListener blocking = new LatencyListener();
+			blockingReceiver.addListener(blocking);
+			blockingReceiver.startListening();
+			OSCSender sender = new OSCSender(localhost, 7040);
+			run(sender);
+			blocking.print("blocking receive");
+			blockingReceiver.close();
+			sender.close();
+
+			OSCBusyPollReceiver spinReceiver = new OSCBusyPollReceiver(7041, OSCBackoff.busySpin());
+			spinReceiver.setThreadPinner(pinner);
+			LatencyListener spin = new LatencyListener();
+			spinReceiver.addListener(spin);
+			spinReceiver.startListening();
+			sender = new OSCSender(localhost, 7041);
+			run(sender);
+			spin.print("busy spin");
+			spinReceiver.close();
+			sender.close();
+
+			OSCBusyPollReceiver backoffReceiver = new OSCBusyPollReceiver(7042);
+			backoffReceiver.setThreadPinner(pinner);
+			LatencyListener backoff = new LatencyListener();
+			backoffReceiver.addListener(backoff);
+			backoffReceiver.startListening();
+			sender = new OSCSender(localhost, 7042);
+			run(sender);
+			backoff.print("spin, yield, then park");
+			backoffReceiver.close();
+			sender.close();
+		}
+		catch (Exception e)
+		{
+			e.printStackTrace();
+		}
+	}
+}
@@ -0,0 +1,58 @@
+package fuse.osc.test;
+
+import java.net.InetAddress;
+
+import fuse.osc.OSCClock;
+import fuse.osc.OSCClockSyncClient;
+import fuse.osc.OSCClockSyncServer;
+import fuse.osc.OSCReceiver;
+import fuse.osc.OSCSender;
+
+/**
+ * Synchronizes a simulated clock, running 5 ms ahead and 100 ppm fast,
+ * against the system clock over loopback.
+ */
+public class ClockSyncTest
+{
+	public static void main(String[] args)
+	{
+		try
+		{
+			final long start = OSCClock.SYSTEM.epochNanos();
+			OSCClock skewedClock = new OSCClock()
+			{
+				@Override
+				public long epochNanos()
+				{
+					long now = OSCClock.SYSTEM.epochNanos();
+					return now + 5000000L + (now - start) / 10000;
+				}
+			};
+			
+			InetAddress localhost = InetAddress.getByName("127.0.0.1");
+			OSCReceiver serverReceiver = new OSCReceiver(7010);
+			serverReceiver.addListener(new OSCClockSyncServer(new OSCSender(localhost, 7011)));
+			serverReceiver.startListening();
+			
+			OSCReceiver clientReceiver = new OSCReceiver(7011);
+			OSCClockSyncClient client = new OSCClockSyncClient(new OSCSender(localhost, 7010), skewedClock);
+			clientReceiver.addListener(client);
+			clientReceiver.startListening();
+			client.start(50);
+			
+			for (int i = 0; i < 20; i++)
+			{
+				Thread.sleep(500);
+				long actual = OSCClock.SYSTEM.epochNanos() - skewedClock.epochNanos();
+				long estimated = client.getOffsetNanos();
+				System.out.println("offset " + estimated + " ns, error " + (estimated - actual)
+						+ " ns, drift " + client.getDriftPpm() + " ppm, rtt " + client.getRoundTripNanos() + " ns");
+			}
+			System.exit(0);
+		}
+		catch (Exception e)
+		{
+			e.printStackTrace();
+		}
+	}
+}
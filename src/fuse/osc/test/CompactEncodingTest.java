@@ -0,0 +1,181 @@
+package fuse.osc.test;
+
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import fuse.osc.OSCCompactDecoder;
+import fuse.osc.OSCCompactSender;
+import fuse.osc.OSCListener;
+import fuse.osc.OSCMessage;
+import fuse.osc.OSCReceiver;
+
+/**
+ * Sends motion capture like frames, 600 floats of which a few change each
+ * time, with an {@link OSCCompactSender} to a peer decoding them with an
+ * {@link OSCCompactDecoder}, and checks that:
+ * <ul>
+ * <li>the compact packets are several times smaller than the plain ones,</li>
+ * <li>every decoded frame is byte for byte the frame sent,</li>
+ * <li>after a lost delta frame, frames are dropped, never decoded wrong,
+ * until the next key frame,</li>
+ * <li>made up sender ids do not grow the decoder without bounds,</li>
+ * <li>a plain OSC peer gets no more than three offers.</li>
+ * </ul>
+ * Exits with status 1 if a check fails.
+ */
+public class CompactEncodingTest
+{
+	private static final int FRAMES = 2000;
+	private static final int LOST_FRAME = 1000;
+	private static final int KEY_FRAME_INTERVAL = 30;
+
+	public static void main(String[] args)
+	{
+		try
+		{
+			checkRoundTrip();
+			checkBoundedEntries();
+			checkPlainPeer();
+		}
+		catch (Exception e)
+		{
+			TestReport.error(e);
+		}
+		TestReport.exit("All checks passed", "checks failed");
+	}
+
+	private static void checkRoundTrip() throws Exception
+	{
+		InetAddress localhost = InetAddress.getByName("127.0.0.1");
+		DatagramSocket peer = new DatagramSocket(7040, localhost);
+		peer.setSoTimeout(1000);
+		OSCCompactSender sender = new OSCCompactSender(localhost, 7040);
+		sender.setKeyFrameInterval(KEY_FRAME_INTERVAL);
+		OSCCompactDecoder decoder = new OSCCompactDecoder();
+		DatagramPacket packet = new DatagramPacket(new byte[8192], 8192);
+
+		float[] values = new float[600];
+		long plainBytes = 0;
+		long compactBytes = 0;
+		int compactCount = 0;
+		int exactCount = 0;
+		int wrongCount = 0;
+		int droppedAfterLoss = 0;
+		boolean isLost = false;
+		boolean isRecovered = false;
+		for (int frame = 0; frame < FRAMES; frame++)
+		{
+			// a few markers move every frame
+			for (int i = 0; i < 5; i++) values[(frame * 7 + i * 113) % values.length] = frame + i;
+			byte[] plain = new OSCMessage("/mocap/frame", new Object[] { frame, values.clone() }).getByteArray();
+			sender.send(new OSCMessage("/mocap/frame", new Object[] { frame, values.clone() }));
+
+			// the offer, if any, comes before the frame
+			while (true)
+			{
+				peer.receive(packet);
+				byte[] acceptance = decoder.acceptance(packet.getData(), packet.getLength());
+				if (acceptance == null) break;
+				peer.send(new DatagramPacket(acceptance, acceptance.length, packet.getSocketAddress()));
+			}
+			int length = packet.getLength();
+			plainBytes += plain.length;
+			if (!decoder.isCompact(packet.getData(), length))
+			{
+				compactBytes += length;
+				if (Arrays.equals(plain, Arrays.copyOf(packet.getData(), length))) exactCount++;
+				else wrongCount++;
+				continue;
+			}
+			compactBytes += length;
+			compactCount++;
+			// lose the first delta frame at or after LOST_FRAME
+			if (!isLost && frame >= LOST_FRAME && packet.getData()[1] == 2)
+			{
+				isLost = true;
+				continue;
+			}
+			int expanded = decoder.expand(packet.getData(), length);
+			if (expanded < 0)
+			{
+				if (isLost && !isRecovered) droppedAfterLoss++;
+				else wrongCount++;
+				continue;
+			}
+			if (isLost) isRecovered = true;
+			if (Arrays.equals(plain, Arrays.copyOf(decoder.getBytes(), expanded))) exactCount++;
+			else wrongCount++;
+		}
+		sender.close();
+		peer.close();
+
+		long averagePlain = plainBytes / FRAMES;
+		long averageSent = compactBytes / FRAMES;
+		TestReport.report("compact frames", compactCount + " of " + FRAMES, "most of them", compactCount > FRAMES * 9 / 10);
+		TestReport.report("bytes per frame", averageSent + " instead of " + averagePlain, "at most a quarter", averageSent * 4 <= averagePlain);
+		TestReport.report("frames decoded exactly", exactCount + ", " + wrongCount + " wrong", "none wrong", wrongCount == 0 && exactCount >= FRAMES - KEY_FRAME_INTERVAL - 1);
+		TestReport.report("frames dropped after the lost one", droppedAfterLoss + ", then recovered: " + isRecovered,
+				"fewer than " + KEY_FRAME_INTERVAL, isLost && isRecovered && droppedAfterLoss < KEY_FRAME_INTERVAL);
+	}
+
+	/**
+	 * Fill a decoder with key frames of made up senders, and check the one
+	 * seen first was forgotten.
+	 */
+	private static void checkBoundedEntries()
+	{
+		OSCCompactDecoder decoder = new OSCCompactDecoder();
+		decoder.setMaxEntries(100);
+		byte[] message = new OSCMessage("/x", new Object[] { 1 }).getByteArray();
+		byte[] packet = new byte[12 + message.length];
+		packet[0] = (byte) 0xC5;
+		System.arraycopy(message, 0, packet, 12, message.length);
+		for (int sender = 0; sender <= 100; sender++)
+		{
+			packet[1] = 1;
+			packet[7] = (byte) sender;
+			packet[11] = 0;
+			decoder.expand(packet, packet.length);
+		}
+		// a delta frame following the key frame of the first sender
+		packet[1] = 2;
+		packet[7] = 0;
+		packet[11] = 1;
+		byte[] delta = Arrays.copyOf(packet, 16);
+		TestReport.report("made up senders evict old entries", "delta of an evicted sender " + (decoder.expand(delta, delta.length) < 0 ? "dropped" : "decoded"),
+				"dropped", decoder.getDroppedCount() == 1);
+	}
+
+	/**
+	 * Send to a plain OSC receiver for more than three offer intervals and
+	 * count the offers its listeners see.
+	 */
+	private static void checkPlainPeer() throws Exception
+	{
+		final AtomicInteger offers = new AtomicInteger();
+		OSCReceiver receiver = new OSCReceiver(7041);
+		receiver.addListener(new OSCListener()
+		{
+			@Override
+			public void acceptMessage(OSCMessage message)
+			{
+				if (message.address().equals("/fuse/compact/offer")) offers.incrementAndGet();
+			}
+		});
+		receiver.startListening();
+		OSCCompactSender sender = new OSCCompactSender(InetAddress.getByName("127.0.0.1"), 7041);
+		long end = System.currentTimeMillis() + 5500;
+		while (System.currentTimeMillis() < end)
+		{
+			sender.send(new OSCMessage("/level", new Object[] { 0.5f }));
+			Thread.sleep(10);
+		}
+		Thread.sleep(100);
+		sender.close();
+		receiver.close();
+		TestReport.report("offers seen by a plain peer", String.valueOf(offers.get()), "at most 3", offers.get() <= 3);
+	}
+}
@@ -0,0 +1,106 @@
+package fuse.osc.test;
+
+import java.util.Arrays;
+
+import fuse.osc.OSCHandler;
+import fuse.osc.OSCHandlerBinder;
+import fuse.osc.OSCMessage;
+import fuse.osc.utils.OSCByteArrayToJavaConverter;
+
+/**
+ * Binds {@link OSCHandler} methods taking array parameters, dispatches
+ * encoded and decoded messages to them and checks what they received,
+ * also after binding and unbinding handlers of addresses already resolved.
+ * Also checks that every array decodes as one argument, so that the
+ * arguments after it keep their positions.
+ * Exits with status 1 if a handler got the wrong arguments.
+ */
+public class HandlerBinderTest
+{
+
+	public static class Handlers
+	{
+		int[] ints;
+		float[] floats;
+		double[] doubles;
+		String name;
+
+		@OSCHandler("/ints")
+		void ints(int[] values)
+		{
+			ints = values;
+		}
+
+		@OSCHandler("/floats")
+		void floats(float[] values)
+		{
+			floats = values;
+		}
+
+		@OSCHandler("/doubles")
+		void doubles(String name, double[] values)
+		{
+			this.name = name;
+			doubles = values;
+		}
+	}
+
+	public static void main(String[] args)
+	{
+		try
+		{
+			Handlers handlers = new Handlers();
+			OSCHandlerBinder binder = new OSCHandlerBinder();
+			binder.bind(handlers);
+
+			dispatch(binder, new OSCMessage("/ints", new Object[] { new int[] { 1, 2, 3 } }));
+			TestReport.check("int[]", Arrays.equals(handlers.ints, new int[] { 1, 2, 3 }));
+			dispatch(binder, new OSCMessage("/floats", new Object[] { new float[] { 0.5f, 1.5f } }));
+			TestReport.check("float[]", Arrays.equals(handlers.floats, new float[] { 0.5f, 1.5f }));
+			dispatch(binder, new OSCMessage("/doubles", new Object[] { "x", new double[] { Math.PI, Math.E } }));
+			TestReport.check("double[]", "x".equals(handlers.name) && Arrays.equals(handlers.doubles, new double[] { Math.PI, Math.E }));
+
+			dispatch(binder, new OSCMessage("/ints", new Object[] { new int[0] }));
+			TestReport.check("empty int[]", handlers.ints != null && handlers.ints.length == 0);
+			dispatch(binder, new OSCMessage("/floats", new Object[] { new float[0] }));
+			TestReport.check("empty float[]", handlers.floats != null && handlers.floats.length == 0);
+			dispatch(binder, new OSCMessage("/doubles", new Object[] { "y", new double[0] }));
+			TestReport.check("empty double[]", "y".equals(handlers.name) && handlers.doubles != null && handlers.doubles.length == 0);
+
+			// "/ints" is resolved and cached by now: binding must still reach new handlers
+			Handlers late = new Handlers();
+			binder.bind(late);
+			dispatch(binder, new OSCMessage("/ints", new Object[] { new int[] { 4 } }));
+			TestReport.check("handler bound after resolving", Arrays.equals(late.ints, new int[] { 4 }) && Arrays.equals(handlers.ints, new int[] { 4 }));
+			binder.unbind(handlers);
+			dispatch(binder, new OSCMessage("/ints", new Object[] { new int[] { 5 } }));
+			TestReport.check("unbound handler", Arrays.equals(late.ints, new int[] { 5 }) && Arrays.equals(handlers.ints, new int[] { 4 }));
+
+			Object[] floats = decode(new OSCMessage("/a", new Object[] { new float[] { 1, 2, 3 }, "after" })).arguments();
+			TestReport.check("float array is one argument", floats.length == 2 && floats[0] instanceof float[] && "after".equals(floats[1]));
+			Object[] mixed = decode(new OSCMessage("/a", new Object[] { new Object[] { 1, "x", 2.0f }, "after" })).arguments();
+			TestReport.check("mixed array is one argument", mixed.length == 2 && Arrays.equals((Object[]) mixed[0], new Object[] { 1, "x", 2.0f }) && "after".equals(mixed[1]));
+			Object[] empty = decode(new OSCMessage("/a", new Object[] { new int[0], "after" })).arguments();
+			TestReport.check("empty array is one argument", empty.length == 2 && ((Object[]) empty[0]).length == 0 && "after".equals(empty[1]));
+		}
+		catch (Exception e)
+		{
+			TestReport.error(e);
+		}
+		TestReport.exit("All handlers called as expected", "checks failed");
+	}
+
+	/**
+	 * Pass a message to the binder the way a receiver does: encoded, then decoded.
+	 */
+	private static void dispatch(OSCHandlerBinder binder, OSCMessage message)
+	{
+		binder.acceptMessage(decode(message));
+	}
+
+	private static OSCMessage decode(OSCMessage message)
+	{
+		byte[] bytes = message.getByteArray();
+		return (OSCMessage) new OSCByteArrayToJavaConverter().convert(bytes, bytes.length);
+	}
+}
@@ -0,0 +1,285 @@
+package fuse.osc.test;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.math.BigInteger;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import fuse.osc.OSCBundle;
+import fuse.osc.OSCHandler;
+import fuse.osc.OSCHandlerBinder;
+import fuse.osc.OSCListener;
+import fuse.osc.OSCMessage;
+import fuse.osc.OSCPacket;
+import fuse.osc.OSCPacketDispatcher;
+import fuse.osc.OSCReceiver;
+import fuse.osc.OSCSender;
+import fuse.osc.utils.OSCByteArrayToJavaConverter;
+import fuse.osc.utils.OSCPacketValidator;
+
+/**
+ * Drives the encoding, decoding and dispatching paths over fixed packets and
+ * checks the bytes they allocate per operation, measured with
+ * <code>ThreadMXBean.getThreadAllocatedBytes</code>, and the loopback
+ * latency percentiles against budgets. Exits with status 1 if any budget is
+ * exceeded, so that performance regressions fail a build like functional
+ * ones do.
+ * <p>
+ * The latency thresholds can be raised for slow machines with the system
+ * properties <code>fuse.osc.p50Micros</code> and <code>fuse.osc.p99Micros</code>.
+ */
+public class PerformanceRegressionTest
+{
+	private static final int WARM_UP = 50000;
+	private static final int ITERATIONS = 50000;
+	private static final int LATENCY_MESSAGES = 10000;
+	private static final int LATENCY_TIMEOUT_SECONDS = 30;
+
+	private static com.sun.management.ThreadMXBean threads;
+	// keeps the results alive, so that the JIT can not optimize the work away
+	private static volatile Object sink;
+
+	private interface Operation
+	{
+		void run();
+	}
+
+	public static void main(String[] args)
+	{
+		try
+		{
+			threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+			threads.setThreadAllocatedMemoryEnabled(true);
+
+			checkAllocations();
+			checkGatheringSend();
+			checkLatency();
+		}
+		catch (Exception e)
+		{
+			TestReport.error(e);
+		}
+		TestReport.exit("All budgets met", "budgets exceeded");
+	}
+
+	private static void checkAllocations()
+	{
+		final Float[] gains = { Float.valueOf(0.25f), Float.valueOf(0.75f) };
+		final OSCMessage message = new OSCMessage("/mixer/1/gain", new Object[] { 3, gains[0], "fader" });
+		final OSCBundle bundle = new OSCBundle();
+		for (int i = 0; i < 8; i++) bundle.addPacket(new OSCMessage("/mixer/" + i + "/gain", new Object[] { i, gains[0], "fader" }));
+		final OSCMessage changing = (OSCMessage) bundle.getPackets().get(3);
+		float[] frame = new float[256];
+		for (int i = 0; i < frame.length; i++) frame[i] = i;
+		OSCMessage frameMessage = new OSCMessage("/mocap/frame", new Object[] { 1, frame });
+
+		final byte[] messageBytes = message.getByteArray();
+		final byte[] bundleBytes = bundle.getByteArray();
+		final byte[] frameBytes = frameMessage.getByteArray();
+		final OSCByteArrayToJavaConverter converter = new OSCByteArrayToJavaConverter();
+		final OSCPacketValidator validator = new OSCPacketValidator();
+		final float[] target = new float[frame.length];
+		final OSCPacket decodedBundle = converter.convert(bundleBytes, bundleBytes.length);
+		final OSCPacketDispatcher dispatcher = new OSCPacketDispatcher();
+		dispatcher.addListener(new OSCListener()
+		{
+			@Override
+			public void acceptMessage(OSCMessage message)
+			{
+				sink = message;
+			}
+		});
+
+		checkAllocation("encode message", 650, new Operation()
+		{
+			int i;
+
+			@Override
+			public void run()
+			{
+				message.setArgument(1, gains[i++ & 1]);
+				sink = message.getByteArray();
+			}
+		});
+		checkAllocation("encode bundle, one element changed", 2700, new Operation()
+		{
+			int i;
+
+			@Override
+			public void run()
+			{
+				changing.setArgument(1, gains[i++ & 1]);
+				sink = bundle.getByteArray();
+			}
+		});
+		checkAllocation("decode message", 320, new Operation()
+		{
+			@Override
+			public void run()
+			{
+				sink = converter.convert(messageBytes, messageBytes.length);
+			}
+		});
+		checkAllocation("decode bundle", 4600, new Operation()
+		{
+			@Override
+			public void run()
+			{
+				sink = converter.convert(bundleBytes, bundleBytes.length);
+			}
+		});
+		checkAllocation("decode float array into caller array", 0, new Operation()
+		{
+			@Override
+			public void run()
+			{
+				converter.convertFloats(frameBytes, frameBytes.length, 1, target);
+			}
+		});
+		checkAllocation("validate bundle", 0, new Operation()
+		{
+			@Override
+			public void run()
+			{
+				validator.validate(bundleBytes, bundleBytes.length);
+			}
+		});
+		final OSCHandlerBinder binder = new OSCHandlerBinder();
+		binder.bind(new Object()
+		{
+			@OSCHandler("/mixer/*/gain")
+			void gain(int channel, float value, String name)
+			{
+				sink = name;
+			}
+		});
+		checkAllocation("dispatch message to handler", 0, new Operation()
+		{
+			@Override
+			public void run()
+			{
+				binder.acceptMessage(message);
+			}
+		});
+		checkAllocation("dispatch bundle", 64, new Operation()
+		{
+			@Override
+			public void run()
+			{
+				dispatcher.dispatchPacket(decodedBundle);
+			}
+		});
+	}
+
+	/**
+	 * Send a bundle with gathering writes, one element changing every time,
+	 * and check both the bytes allocated per send and that the datagram is
+	 * the byte array encoding of the bundle.
+	 */
+	private static void checkGatheringSend() throws Exception
+	{
+		final Float[] gains = { Float.valueOf(0.25f), Float.valueOf(0.75f) };
+		final OSCBundle bundle = new OSCBundle();
+		for (int i = 0; i < 8; i++) bundle.addPacket(new OSCMessage("/mixer/" + i + "/gain", new Object[] { i, gains[0], "fader" }));
+		final OSCMessage changing = (OSCMessage) bundle.getPackets().get(3);
+
+		// a bound socket, so that no ICMP error comes back, never read but once
+		DatagramSocket target = new DatagramSocket(7031, InetAddress.getByName("127.0.0.1"));
+		target.setSoTimeout(1000);
+		final OSCSender sender = new OSCSender(InetAddress.getByName("127.0.0.1"), 7031);
+		try
+		{
+			changing.setArgument(1, gains[1]);
+			sender.send(bundle);
+			DatagramPacket packet = new DatagramPacket(new byte[3072], 3072);
+			target.receive(packet);
+			byte[] expected = bundle.getByteArray();
+			boolean isEqual = packet.getLength() == expected.length
+					&& Arrays.equals(Arrays.copyOf(packet.getData(), packet.getLength()), expected);
+			TestReport.report("gathered bundle matches its byte array", packet.getLength() + " bytes", "expected " + expected.length, isEqual);
+
+			checkAllocation("send bundle with gathering write, one element changed", 1900, new Operation()
+			{
+				int i;
+
+				@Override
+				public void run()
+				{
+					changing.setArgument(1, gains[i++ & 1]);
+					try
+					{
+						sender.send(bundle);
+					}
+					catch (IOException e)
+					{
+						throw new IllegalStateException(e);
+					}
+				}
+			});
+		}
+		finally
+		{
+			sender.close();
+			target.close();
+		}
+	}
+
+	private static void checkAllocation(String name, long budget, Operation operation)
+	{
+		for (int i = 0; i < WARM_UP; i++) operation.run();
+		long thread = Thread.currentThread().getId();
+		long before = threads.getThreadAllocatedBytes(thread);
+		for (int i = 0; i < ITERATIONS; i++) operation.run();
+		long perOperation = (threads.getThreadAllocatedBytes(thread) - before) / ITERATIONS;
+		TestReport.report(name, perOperation + " bytes/op", "budget " + budget, perOperation <= budget);
+	}
+
+	private static void checkLatency() throws Exception
+	{
+		long p50Budget = Long.getLong("fuse.osc.p50Micros", 500);
+		long p99Budget = Long.getLong("fuse.osc.p99Micros", 2000);
+
+		final long[] latencies = new long[LATENCY_MESSAGES];
+		final CountDownLatch done = new CountDownLatch(LATENCY_MESSAGES);
+		OSCReceiver receiver = new OSCReceiver(7030);
+		receiver.addListener(new OSCListener()
+		{
+			@Override
+			public void acceptMessage(OSCMessage message)
+			{
+				long sent = ((BigInteger) message.arguments()[0]).longValue();
+				latencies[(Integer) message.arguments()[1]] = System.nanoTime() - sent;
+				done.countDown();
+			}
+		});
+		receiver.startListening();
+		OSCSender sender = new OSCSender(InetAddress.getByName("127.0.0.1"), 7030);
+		for (int i = 0; i < LATENCY_MESSAGES; i++)
+		{
+			sender.send(new OSCMessage("/latency", new Object[] { BigInteger.valueOf(System.nanoTime()), i }));
+			LockSupport.parkNanos(20000);
+		}
+		boolean isComplete = done.await(LATENCY_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+		receiver.stopListening();
+		sender.close();
+		receiver.close();
+
+		TestReport.report("loopback messages received", (LATENCY_MESSAGES - done.getCount()) + " of " + LATENCY_MESSAGES,
+				"within " + LATENCY_TIMEOUT_SECONDS + " s", isComplete);
+		if (!isComplete) return;
+
+		// leave the warm up out of the figures
+		long[] sorted = Arrays.copyOfRange(latencies, LATENCY_MESSAGES / 2, LATENCY_MESSAGES);
+		Arrays.sort(sorted);
+		long p50 = sorted[sorted.length / 2] / 1000;
+		long p99 = sorted[sorted.length * 99 / 100] / 1000;
+		TestReport.report("loopback latency p50", p50 + " us", "budget " + p50Budget + " us", p50 <= p50Budget);
+		TestReport.report("loopback latency p99", p99 + " us", "budget " + p99Budget + " us", p99 <= p99Budget);
+	}
+}
@@ -0,0 +1,117 @@
+package fuse.osc.test;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import fuse.osc.OSCListener;
+import fuse.osc.OSCMessage;
+import fuse.osc.OSCPriorityScheduler;
+import fuse.osc.OSCTrafficClass;
+
+/**
+ * Measures how long cue messages wait behind a burst of bulk messages
+ * taking 50 us each to handle, once with the cues in a class of their own
+ * of an {@link OSCPriorityScheduler}, and once with all messages in its
+ * default class, as in a shared FIFO queue. Bulk messages come 100 at a
+ * time, faster than they are handled, each burst followed by one cue, so
+ * that the bulk backlog keeps growing. The scheduler has two threads, and
+ * the bulk class may use only one of them.
+ * <p>
+ * On a single core VM, over three runs:
+ * <pre>
+ * cue class:   p50 4 to 8 us, p99 35 to 480 us
+ * shared FIFO: p50 about 300 ms, p99 about 630 ms
+ * </pre>
+ * With a single core both threads share it, so a cue may still wait for the
+ * operating system to switch away from a bulk message being handled, which
+ * is what spreads the p99 of the cue class.
+ */
+public class PriorityBenchmark
+{
+	private static final int BULK_MESSAGES = 20000;
+	private static final int BURST = 100;
+	private static final int CUES = BULK_MESSAGES / BURST;
+	private static final long BULK_NANOS = 50000;
+
+	/**
+	 * Handles bulk messages slowly and records the latency of every cue.
+	 */
+	private static class Handler implements OSCListener
+	{
+		long[] sent = new long[CUES];
+		long[] latencies = new long[CUES];
+		CountDownLatch done = new CountDownLatch(BULK_MESSAGES + CUES);
+
+		@Override
+		public void acceptMessage(OSCMessage message)
+		{
+			if (message.address().startsWith("/cue"))
+			{
+				int index = (Integer) message.arguments()[0];
+				latencies[index] = System.nanoTime() - sent[index];
+			}
+			else
+			{
+				long end = System.nanoTime() + BULK_NANOS;
+				while (System.nanoTime() < end)
+				{
+					// busy, like decoding and applying a large message
+				}
+			}
+			done.countDown();
+		}
+
+		void print(String name) throws InterruptedException
+		{
+			if (!done.await(60, TimeUnit.SECONDS))
+			{
+				System.out.println(name + ": not all messages were dispatched");
+				return;
+			}
+			long[] sorted = latencies.clone();
+			Arrays.sort(sorted);
+			System.out.println(name + ": p50 " + sorted[sorted.length / 2] / 1000 + " us, p99 "
+					+ sorted[sorted.length * 99 / 100] / 1000 + " us");
+		}
+	}
+
+	private static void run(OSCPriorityScheduler scheduler, Handler handler) throws Exception
+	{
+		scheduler.addListener(handler);
+		OSCMessage bulk = new OSCMessage("/bulk/points", new Object[] { 1.0f, 2.0f, 3.0f });
+		for (int cue = 0; cue < CUES; cue++)
+		{
+			for (int i = 0; i < BURST; i++) scheduler.acceptMessage(bulk);
+			handler.sent[cue] = System.nanoTime();
+			scheduler.acceptMessage(new OSCMessage("/cue/go", new Object[] { cue }));
+			// a burst takes 5 ms to handle, so the backlog grows
+			Thread.sleep(2);
+		}
+	}
+
+	public static void main(String[] args)
+	{
+		try
+		{
+			OSCPriorityScheduler scheduler = new OSCPriorityScheduler(2, OSCPriorityScheduler.STRICT);
+			scheduler.getDefaultClass().setCapacity(BULK_MESSAGES).setWorkerBudget(1);
+			scheduler.addClass(new OSCTrafficClass("cue", 10).addPrefix("/cue"));
+			Handler cues = new Handler();
+			run(scheduler, cues);
+			cues.print("cue class");
+			scheduler.shutdown();
+
+			scheduler = new OSCPriorityScheduler(2, OSCPriorityScheduler.STRICT);
+			scheduler.getDefaultClass().setCapacity(BULK_MESSAGES + CUES);
+			Handler fifo = new Handler();
+			run(scheduler, fifo);
+			fifo.print("shared FIFO");
+			scheduler.shutdown();
+		}
+		catch (Exception e)
+		{
+			e.printStackTrace();
+		}
+	}
+}
@@ -0,0 +1,213 @@
+package fuse.osc.test;
+
+import java.net.InetAddress;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import fuse.osc.OSCListener;
+import fuse.osc.OSCMessage;
+import fuse.osc.OSCMultiPortReceiver;
+import fuse.osc.OSCReceiver;
+import fuse.osc.OSCSender;
+
+/**
+ * Starts and stops an {@link OSCReceiver} and an {@link OSCMultiPortReceiver}
+ * many times in quick succession and checks that a single receiving thread
+ * is left, which still receives. Then serves 21 ports with one
+ * {@link OSCMultiPortReceiver} thread, checks that stopping and closing are
+ * prompt, that no receiving thread dies of an exception while closing, and
+ * that listening after closing is refused.
+ * Exits with status 1 if a check fails.
+ */
+public class ReceiverLifecycleTest
+{
+	private static final int CYCLES = 200;
+	private static final int FIRST_PORT = 7100;
+	private static final int PORTS = 21;
+	private static final long PROMPT_MILLIS = 100;
+
+	/**
+	 * Keeps every thread it creates, to count those still alive.
+	 */
+	private static class CountingThreadFactory implements ThreadFactory
+	{
+		List<Thread> threads = new CopyOnWriteArrayList<Thread>();
+
+		@Override
+		public Thread newThread(Runnable runnable)
+		{
+			Thread thread = new Thread(runnable);
+			threads.add(thread);
+			return thread;
+		}
+
+		int aliveCount()
+		{
+			int alive = 0;
+			for (Thread thread : threads)
+			{
+				if (thread.isAlive()) alive++;
+			}
+			return alive;
+		}
+	}
+
+	public static void main(String[] args)
+	{
+		final AtomicInteger uncaught = new AtomicInteger();
+		Thread.setDefaultUncaughtExceptionHandler(new Thread.UncaughtExceptionHandler()
+		{
+			@Override
+			public void uncaughtException(Thread thread, Throwable e)
+			{
+				e.printStackTrace();
+				uncaught.incrementAndGet();
+			}
+		});
+		try
+		{
+			checkReceiverRestarts();
+			checkMultiPortRestarts();
+			checkManyPorts();
+			Thread.sleep(100);
+			TestReport.report("receiving threads ended by an exception", String.valueOf(uncaught.get()), "none", uncaught.get() == 0);
+		}
+		catch (Exception e)
+		{
+			TestReport.error(e);
+		}
+		TestReport.exit("All checks passed", "checks failed");
+	}
+
+	private static void checkReceiverRestarts() throws Exception
+	{
+		final AtomicInteger received = new AtomicInteger();
+		CountingThreadFactory threadFactory = new CountingThreadFactory();
+		OSCReceiver receiver = new OSCReceiver(7090);
+		receiver.addListener(new OSCListener()
+		{
+			@Override
+			public void acceptMessage(OSCMessage message)
+			{
+				received.incrementAndGet();
+			}
+		});
+		for (int i = 0; i < CYCLES; i++)
+		{
+			receiver.startListening(threadFactory);
+			receiver.stopListening();
+		}
+		receiver.startListening(threadFactory);
+		receiver.startListening(threadFactory);
+		Thread.sleep(100);
+		TestReport.report("OSCReceiver threads after " + CYCLES + " stop/start cycles", String.valueOf(threadFactory.aliveCount()), "1",
+				threadFactory.aliveCount() == 1);
+
+		OSCSender sender = new OSCSender(InetAddress.getByName("127.0.0.1"), 7090);
+		for (int i = 0; i < 10; i++) sender.send(new OSCMessage("/x", new Object[] { i }));
+		Thread.sleep(100);
+		TestReport.report("OSCReceiver messages received after restarting", String.valueOf(received.get()), "10", received.get() == 10);
+		sender.close();
+		receiver.close();
+	}
+
+	private static void checkMultiPortRestarts() throws Exception
+	{
+		final AtomicInteger received = new AtomicInteger();
+		CountingThreadFactory threadFactory = new CountingThreadFactory();
+		OSCMultiPortReceiver receiver = new OSCMultiPortReceiver();
+		receiver.openPort(FIRST_PORT);
+		receiver.addListener(FIRST_PORT, new OSCListener()
+		{
+			@Override
+			public void acceptMessage(OSCMessage message)
+			{
+				received.incrementAndGet();
+			}
+		});
+		for (int i = 0; i < CYCLES; i++)
+		{
+			receiver.startListening(threadFactory);
+			receiver.stopListening();
+		}
+		receiver.startListening(threadFactory);
+		receiver.startListening(threadFactory);
+		Thread.sleep(100);
+		TestReport.report("OSCMultiPortReceiver threads after " + CYCLES + " stop/start cycles", String.valueOf(threadFactory.aliveCount()), "1",
+				threadFactory.aliveCount() == 1);
+
+		OSCSender sender = new OSCSender(InetAddress.getByName("127.0.0.1"), FIRST_PORT);
+		for (int i = 0; i < 10; i++) sender.send(new OSCMessage("/x", new Object[] { i }));
+		Thread.sleep(100);
+		TestReport.report("OSCMultiPortReceiver messages received after restarting", String.valueOf(received.get()), "10", received.get() == 10);
+		sender.close();
+		receiver.close();
+	}
+
+	private static void checkManyPorts() throws Exception
+	{
+		final AtomicIntegerArray received = new AtomicIntegerArray(PORTS);
+		CountingThreadFactory threadFactory = new CountingThreadFactory();
+		OSCMultiPortReceiver receiver = new OSCMultiPortReceiver();
+		receiver.startListening(threadFactory);
+		for (int i = 0; i < PORTS; i++)
+		{
+			final int index = i;
+			receiver.openPort(FIRST_PORT + i);
+			receiver.addListener(FIRST_PORT + i, new OSCListener()
+			{
+				@Override
+				public void acceptMessage(OSCMessage message)
+				{
+					received.incrementAndGet(index);
+				}
+			});
+		}
+		InetAddress localhost = InetAddress.getByName("127.0.0.1");
+		for (int i = 0; i < PORTS; i++)
+		{
+			OSCSender sender = new OSCSender(localhost, FIRST_PORT + i);
+			sender.send(new OSCMessage("/port", new Object[] { i }));
+			sender.close();
+		}
+		Thread.sleep(200);
+		int served = 0;
+		for (int i = 0; i < PORTS; i++)
+		{
+			if (received.get(i) == 1) served++;
+		}
+		TestReport.report("ports served by " + threadFactory.aliveCount() + " thread", String.valueOf(served), String.valueOf(PORTS),
+				served == PORTS && threadFactory.aliveCount() == 1);
+
+		long start = System.nanoTime();
+		receiver.stopListening();
+		threadFactory.threads.get(0).join(1000);
+		long stopMillis = (System.nanoTime() - start) / 1000000;
+		TestReport.report("stop ends the receiving loop", stopMillis + " ms", "within " + PROMPT_MILLIS + " ms",
+				stopMillis <= PROMPT_MILLIS && threadFactory.aliveCount() == 0);
+
+		// close while the loop registers a newly opened port
+		receiver.startListening(threadFactory);
+		receiver.openPort(FIRST_PORT + PORTS);
+		start = System.nanoTime();
+		receiver.close();
+		for (Thread thread : threadFactory.threads) thread.join(1000);
+		long closeMillis = (System.nanoTime() - start) / 1000000;
+		TestReport.report("close ends the receiving loop", closeMillis + " ms", "within " + PROMPT_MILLIS + " ms",
+				closeMillis <= PROMPT_MILLIS && threadFactory.aliveCount() == 0);
+
+		boolean isRefused = false;
+		try
+		{
+			receiver.startListening(threadFactory);
+		}
+		catch (IllegalStateException e)
+		{
+			isRefused = true;
+		}
+		TestReport.report("listening after closing", isRefused ? "refused" : "started", "refused", isRefused);
+	}
+}
@@ -0,0 +1,93 @@
+package fuse.osc.test;
+
+import java.net.InetAddress;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import fuse.osc.OSCDeduplicator;
+import fuse.osc.OSCListener;
+import fuse.osc.OSCMessage;
+import fuse.osc.OSCReceiver;
+import fuse.osc.OSCRedundantSender;
+import fuse.osc.OSCSender;
+
+/**
+ * Sends numbered messages with an {@link OSCRedundantSender} over two paths,
+ * the second one 200 us behind, to two receivers sharing an
+ * {@link OSCDeduplicator}, and checks that every message is dispatched
+ * exactly once and every second copy dropped. Then restarts the sender
+ * many times, as a sender id comes with each start, and checks that the
+ * deduplicator still passes the messages of the last one.
+ * Exits with status 1 if a check fails.
+ */
+public class RedundantSendingTest
+{
+	private static final int MESSAGES = 2000;
+
+	public static void main(String[] args)
+	{
+		try
+		{
+			InetAddress localhost = InetAddress.getByName("127.0.0.1");
+			final AtomicIntegerArray dispatched = new AtomicIntegerArray(MESSAGES);
+			OSCListener listener = new OSCListener()
+			{
+				@Override
+				public void acceptMessage(OSCMessage message)
+				{
+					dispatched.incrementAndGet((Integer) message.arguments()[0]);
+				}
+			};
+			OSCDeduplicator deduplicator = new OSCDeduplicator();
+			deduplicator.setMaxSenders(8);
+			OSCReceiver first = new OSCReceiver(7050);
+			OSCReceiver second = new OSCReceiver(7051);
+			for (OSCReceiver receiver : new OSCReceiver[] { first, second })
+			{
+				receiver.setDeduplicator(deduplicator);
+				receiver.addListener(listener);
+				receiver.startListening();
+			}
+
+			OSCRedundantSender sender = new OSCRedundantSender(new OSCSender(localhost, 7050), new OSCSender(localhost, 7051));
+			sender.setOffsetNanos(200000);
+			for (int i = 0; i < MESSAGES; i++)
+			{
+				sender.send(new OSCMessage("/seq", new Object[] { i }));
+				// pace the messages so that the receive buffers never overflow
+				if (i % 50 == 0) Thread.sleep(1);
+			}
+			Thread.sleep(500);
+			sender.close();
+
+			int once = 0;
+			for (int i = 0; i < MESSAGES; i++)
+			{
+				if (dispatched.get(i) == 1) once++;
+			}
+			TestReport.report("messages dispatched exactly once", once + " of " + MESSAGES, "all", once == MESSAGES);
+			TestReport.report("copies dropped", String.valueOf(deduplicator.getDuplicateCount()), String.valueOf(MESSAGES),
+					deduplicator.getDuplicateCount() == MESSAGES);
+
+			// every restart is a new sender id, which must not pile up windows
+			for (int restart = 0; restart < 20; restart++)
+			{
+				OSCRedundantSender restarted = new OSCRedundantSender(new OSCSender(localhost, 7050), new OSCSender(localhost, 7051));
+				restarted.send(new OSCMessage("/seq", new Object[] { restart }));
+				Thread.sleep(20);
+				restarted.close();
+			}
+			int restarts = 0;
+			for (int i = 0; i < 20; i++) restarts += dispatched.get(i) - 1;
+			TestReport.report("messages of restarted senders dispatched", String.valueOf(restarts), "20", restarts == 20);
+			TestReport.report("sender windows kept", String.valueOf(deduplicator.getSenderCount()), "at most 8", deduplicator.getSenderCount() <= 8);
+
+			first.close();
+			second.close();
+		}
+		catch (Exception e)
+		{
+			TestReport.error(e);
+		}
+		TestReport.exit("All checks passed", "checks failed");
+	}
+}
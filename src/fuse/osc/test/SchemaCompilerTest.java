@@ -0,0 +1,115 @@
+package fuse.osc.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.math.BigInteger;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Arrays;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
+import fuse.osc.OSCMessage;
+import fuse.osc.utils.OSCSchemaCompiler;
+
+/**
+ * Runs the {@link OSCSchemaCompiler} on a schema using every argument type,
+ * compiles the generated class and checks that a record encodes to the
+ * same bytes as its generic {@link OSCMessage}. Then checks that schemas
+ * the generated code could not compile from are rejected with the number
+ * of the offending line.
+ * Needs a JDK, for the system Java compiler.
+ * Exits with status 1 if a check fails.
+ */
+public class SchemaCompilerTest
+{
+	private static final String SCHEMA = "# every argument type\n"
+			+ "package fuse.osc.test.generated\n"
+			+ "class ShowProtocol\n"
+			+ "/mixer/gain  MixerGain  i:channel f:value\n"
+			+ "/cue/go      CueGo      s:name h:frame d:fade i:flags\n"
+			+ "/ping        Ping\n";
+
+	public static void main(String[] args)
+	{
+		try
+		{
+			checkGeneratedCode();
+			checkRejected("i:class", "/a A i:class\n", 3);
+			checkRejected("message name not an identifier", "/a 1A i:x\n", 3);
+			checkRejected("message name a keyword", "/a int i:x\n", 3);
+			checkRejected("duplicate message name", "/a A i:x\n/b A i:x\n", 4);
+			checkRejected("message named Handler", "/a Handler i:x\n", 3);
+			checkRejected("message named Dispatcher", "/a Dispatcher i:x\n", 3);
+			checkRejected("message named like the class", "/a Protocol i:x\n", 3);
+			checkRejected("duplicate address", "/a A i:x\n/a B f:y\n", 4);
+			checkRejected("comment end in address", "/a*/b A i:x\n", 3);
+			checkRejected("quote in address", "/a\"b A i:x\n", 3);
+			checkRejected("field shadowing a class", "/a A f:Float\n", 3);
+		}
+		catch (Exception e)
+		{
+			TestReport.error(e);
+		}
+		TestReport.exit("All checks passed", "checks failed");
+	}
+
+	private static void checkGeneratedCode() throws Exception
+	{
+		File directory = createTemporaryDirectory();
+		OSCSchemaCompiler schemaCompiler = new OSCSchemaCompiler();
+		schemaCompiler.parse(SCHEMA);
+		File source = schemaCompiler.write(directory);
+
+		JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+		if (compiler == null) throw new IllegalStateException("No Java compiler, run with a JDK");
+		int status = compiler.run(null, null, null, "-d", directory.getPath(), "-cp", System.getProperty("java.class.path"), source.getPath());
+		TestReport.check("generated code compiles", status == 0);
+		if (status != 0) return;
+
+		ClassLoader loader = new URLClassLoader(new URL[] { directory.toURI().toURL() }, SchemaCompilerTest.class.getClassLoader());
+		Class<?> record = loader.loadClass("fuse.osc.test.generated.ShowProtocol$CueGo");
+		Constructor<?> constructor = record.getConstructor(String.class, long.class, double.class, int.class);
+		Object cue = constructor.newInstance("intro", 1L << 40, 2.5, 7);
+		int length = (Integer) record.getMethod("encodedLength").invoke(cue);
+		byte[] bytes = new byte[length];
+		record.getMethod("encode", byte[].class, int.class).invoke(cue, bytes, 0);
+		OSCMessage message = (OSCMessage) record.getMethod("toMessage").invoke(cue);
+		TestReport.check("record encodes like its message", Arrays.equals(bytes, message.getByteArray()));
+		TestReport.check("long field becomes a BigInteger", BigInteger.valueOf(1L << 40).equals(message.arguments()[1]));
+
+		Method decode = record.getDeclaredMethod("decode", byte[].class, int.class, int.class);
+		decode.setAccessible(true);
+		Object decoded = decode.invoke(null, bytes, 0, bytes.length);
+		TestReport.check("record decodes what it encoded", decoded != null && "intro".equals(record.getField("name").get(decoded))
+				&& (1L << 40) == record.getField("frame").getLong(decoded));
+	}
+
+	/**
+	 * Parse a schema made of the given message lines after a package and a
+	 * class line, and check it is rejected on the expected line.
+	 */
+	private static void checkRejected(String name, String messages, int lineNumber) throws IOException
+	{
+		OSCSchemaCompiler schemaCompiler = new OSCSchemaCompiler();
+		try
+		{
+			schemaCompiler.parse("package example\nclass Protocol\n" + messages);
+			TestReport.check("rejected " + name, false);
+		}
+		catch (IllegalArgumentException e)
+		{
+			TestReport.check("rejected " + name + " (" + e.getMessage() + ")", e.getMessage().startsWith("Line " + lineNumber + ":"));
+		}
+	}
+
+	private static File createTemporaryDirectory() throws IOException
+	{
+		File directory = File.createTempFile("osc-schema", "");
+		if (!directory.delete() || !directory.mkdir()) throw new IOException("Cannot create " + directory);
+		return directory;
+	}
+}
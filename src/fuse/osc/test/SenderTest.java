@@ -15,6 +15,13 @@ public class SenderTest
 			sender.send(new OSCMessage("/prova/", null));
 			sender.send(new OSCMessage("/prova/", new Object[] { true, "paolofuse" }));
 			sender.send(new OSCMessage("/prova/", null));
+			
+			// broadcast, to every receiver on port 7000 of the local network
+			OSCSender broadcaster = new OSCSender(InetAddress.getByName("255.255.255.255"), 7000);
+			broadcaster.send(new OSCMessage("/prova/", new Object[] { "broadcast" }));
+			byte[] bytes = new OSCMessage("/prova/", new Object[] { "broadcast bytes" }).getByteArray();
+			broadcaster.send(bytes, 0, bytes.length);
+			broadcaster.close();
 		}
 		catch (Exception e)
 		{
@@ -0,0 +1,56 @@
+package fuse.osc.test;
+
+import java.io.File;
+import java.math.BigInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import fuse.osc.OSCBackoff;
+import fuse.osc.OSCListener;
+import fuse.osc.OSCMessage;
+import fuse.osc.OSCSharedMemoryReceiver;
+import fuse.osc.OSCSharedMemorySender;
+
+/**
+ * Sends time stamped messages through a shared memory ring and prints
+ * the average one way latency.
+ */
+public class SharedMemoryTest
+{
+	public static void main(String[] args)
+	{
+		try
+		{
+			File file = File.createTempFile("osc", ".ring");
+			file.deleteOnExit();
+			
+			OSCSharedMemoryReceiver receiver = new OSCSharedMemoryReceiver(file, 1 << 16, new OSCBackoff(1000, 100, 10000));
+			final long[] stats = new long[2];
+			receiver.addListener(new OSCListener()
+			{
+				@Override
+				public void acceptMessage(OSCMessage message)
+				{
+					long sent = ((BigInteger) message.arguments()[0]).longValue();
+					stats[0] += System.nanoTime() - sent;
+					stats[1]++;
+				}
+			});
+			receiver.startListening();
+			
+			OSCSharedMemorySender sender = new OSCSharedMemorySender(file, 1 << 16, OSCBackoff.busySpin());
+			for (int i = 0; i < 100000; i++)
+			{
+				sender.send(new OSCMessage("/prova/", new Object[] { BigInteger.valueOf(System.nanoTime()), i }));
+				// pace the messages so that latency is not measured in a full ring
+				LockSupport.parkNanos(20000);
+			}
+			Thread.sleep(100);
+			System.out.println("RECEIVED " + stats[1] + " messages, average latency " + (stats[0] / stats[1]) + " ns");
+			System.exit(0);
+		}
+		catch (Exception e)
+		{
+			e.printStackTrace();
+		}
+	}
+}
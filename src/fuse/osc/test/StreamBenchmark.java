@@ -0,0 +1,136 @@
+package fuse.osc.test;
+
+import java.io.File;
+import java.math.BigInteger;
+import java.net.InetAddress;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.locks.LockSupport;
+
+import fuse.osc.OSCListener;
+import fuse.osc.OSCMessage;
+import fuse.osc.OSCReceiver;
+import fuse.osc.OSCSender;
+import fuse.osc.OSCStreamReceiver;
+import fuse.osc.OSCStreamSender;
+
+/**
+ * Compares the one way latency of loopback UDP with the stream transport,
+ * over a Unix domain socket when the JVM supports it and over loopback TCP.
+ */
+public class StreamBenchmark
+{
+	private static final int MESSAGES = 20000;
+
+	/**
+	 * Records the latency of every received message.
+	 */
+	private static class LatencyListener implements OSCListener
+	{
+		long[] latencies = new long[MESSAGES];
+		CountDownLatch done = new CountDownLatch(MESSAGES);
+
+		@Override
+		public void acceptMessage(OSCMessage message)
+		{
+			long sent = ((BigInteger) message.arguments()[0]).longValue();
+			int index = (Integer) message.arguments()[1];
+			latencies[index] = System.nanoTime() - sent;
+			done.countDown();
+		}
+
+		void print(String name) throws InterruptedException
+		{
+			done.await();
+			// leave the warm up out of the figures
+			long[] sorted = Arrays.copyOfRange(latencies, MESSAGES / 2, MESSAGES);
+			Arrays.sort(sorted);
+			System.out.println(name + ": p50 " + sorted[sorted.length / 2] / 1000 + " us, p99 "
+					+ sorted[sorted.length * 99 / 100] / 1000 + " us");
+		}
+	}
+
+	private interface Transport
+	{
+		void send(OSCMessage message) throws Exception;
+	}
+
+	private static void run(Transport transport) throws Exception
+	{
+		for (int i = 0; i < MESSAGES; i++)
+		{
+			transport.send(new OSCMessage("/prova/", new Object[] { BigInteger.valueOf(System.nanoTime()), i }));
+			LockSupport.parkNanos(20000);
+		}
+	}
+
+	public static void main(String[] args)
+	{
+		try
+		{
+			InetAddress localhost = InetAddress.getByName("127.0.0.1");
+
+			OSCReceiver udpReceiver = new OSCReceiver(7020);
+			LatencyListener udp = new LatencyListener();
+			udpReceiver.addListener(udp);
+			udpReceiver.startListening();
+			final OSCSender udpSender = new OSCSender(localhost, 7020);
+			run(new Transport()
+			{
+				@Override
+				public void send(OSCMessage message) throws Exception
+				{
+					udpSender.send(message);
+				}
+			});
+			udp.print("UDP loopback");
+
+			OSCStreamReceiver tcpReceiver = new OSCStreamReceiver(7021);
+			LatencyListener tcp = new LatencyListener();
+			tcpReceiver.addListener(tcp);
+			tcpReceiver.startListening();
+			final OSCStreamSender tcpSender = new OSCStreamSender(localhost, 7021);
+			run(new Transport()
+			{
+				@Override
+				public void send(OSCMessage message) throws Exception
+				{
+					tcpSender.send(message);
+				}
+			});
+			tcp.print("TCP loopback");
+
+			File socketFile = new File(System.getProperty("java.io.tmpdir"), "osc-benchmark.sock");
+			OSCStreamReceiver unixReceiver;
+			try
+			{
+				unixReceiver = new OSCStreamReceiver(socketFile);
+			}
+			catch (Exception e)
+			{
+				System.out.println("Unix domain socket: " + e.getMessage());
+				System.exit(0);
+				return;
+			}
+			LatencyListener unix = new LatencyListener();
+			unixReceiver.addListener(unix);
+			unixReceiver.startListening();
+			final OSCStreamSender unixSender = new OSCStreamSender(socketFile);
+			run(new Transport()
+			{
+				@Override
+				public void send(OSCMessage message) throws Exception
+				{
+					unixSender.send(message);
+				}
+			});
+			unix.print("Unix domain socket");
+			unixReceiver.close();
+			System.exit(0);
+		}
+		catch (Exception e)
+		{
+			e.printStackTrace();
+		}
+	}
+}
@@ -0,0 +1,51 @@
+package fuse.osc.test;
+
+/**
+ * Prints the checks of the test programs and counts those failed. A test
+ * program ends with {@link #exit(String, String)}, which exits with status 1
+ * if a check failed.
+ */
+final class TestReport
+{
+	private static int failures;
+
+	private TestReport()
+	{
+	}
+
+	/**
+	 * @param value what was measured
+	 * @param expected the expected value or budget, printed after the value
+	 */
+	static void report(String name, String value, String expected, boolean isMet)
+	{
+		if (!isMet) failures++;
+		System.out.println((isMet ? "ok     " : "FAILED ") + name + ": " + value + " (" + expected + ")");
+	}
+
+	static void check(String name, boolean isMet)
+	{
+		if (!isMet) failures++;
+		System.out.println((isMet ? "ok     " : "FAILED ") + name);
+	}
+
+	/**
+	 * Count an exception that ended the checks early as a failure.
+	 */
+	static void error(Exception e)
+	{
+		e.printStackTrace();
+		failures++;
+	}
+
+	/**
+	 * Print the outcome and exit.
+	 * @param passed printed when every check passed
+	 * @param failed printed after the number of failed checks
+	 */
+	static void exit(String passed, String failed)
+	{
+		System.out.println(failures == 0 ? passed : failures + " " + failed);
+		System.exit(failures == 0 ? 0 : 1);
+	}
+}
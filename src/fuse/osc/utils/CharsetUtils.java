@@ -0,0 +1,27 @@
+package fuse.osc.utils;
+
+import java.nio.charset.Charset;
+
+/**
+ * Charset helpers shared by the converters.
+ */
+class CharsetUtils
+{
+	private static final String[] ASCII_COMPATIBLE = { "US-ASCII", "UTF-8", "ISO-8859-1", "windows-1252" };
+
+	/**
+	 * Tells whether the charset encodes the 7 bit ASCII characters as single
+	 * bytes of the same value, so that plain ASCII strings can be copied
+	 * byte by byte without going through an encoder or a decoder.
+	 * @param charset the charset to check
+	 * @return true if ASCII text may be copied as is
+	 */
+	static boolean isAsciiCompatible(Charset charset)
+	{
+		for (String name : ASCII_COMPATIBLE)
+		{
+			if (charset.name().equals(name)) return true;
+		}
+		return false;
+	}
+}
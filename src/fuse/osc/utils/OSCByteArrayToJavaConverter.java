@@ -1,14 +1,21 @@
 package fuse.osc.utils;
 
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
 import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
 import java.util.ArrayList;
-import java.util.Date;
 import java.util.List;
 
 import fuse.osc.OSCBundle;
 import fuse.osc.OSCMessage;
 import fuse.osc.OSCPacket;
+import fuse.osc.OSCTimeTag;
 
 /**
  * Utility class to convert a byte array conforming to the OSC byte stream format
@@ -29,8 +36,22 @@ public class OSCByteArrayToJavaConverter
 	
 	private byte[] bytes;
 	private Charset charset;
+	private boolean isAsciiCompatible;
+	private CharsetDecoder decoder;
+	private char[] stringChars;
 	private int bytesLength;
 	private int streamPosition;
+	// big endian views over the last byte array read as primitive arrays
+	private byte[] viewBytes;
+	private ByteBuffer view;
+	private FloatBuffer viewFloats;
+	private IntBuffer viewInts;
+	
+	public OSCByteArrayToJavaConverter()
+	{
+		stringChars = new char[256];
+		setCharset(Charset.defaultCharset());
+	}
 	
 	/**
 	 * Sets the character set used to decode message addresses
@@ -39,7 +60,10 @@ public class OSCByteArrayToJavaConverter
 	 */
 	public void setCharset(Charset charset)
 	{
+		if (charset.equals(this.charset)) return;
 		this.charset = charset;
+		isAsciiCompatible = CharsetUtils.isAsciiCompatible(charset);
+		decoder = null;
 	}
 
 	/**
@@ -65,14 +89,14 @@ public class OSCByteArrayToJavaConverter
 	{
 		// skip the "#bundle " stuff
 		streamPosition = BUNDLE_START.length() + 1;
-		Date timestamp = readTimeTag();
-		OSCBundle bundle = new OSCBundle(timestamp);
+		OSCTimeTag timeTag = readTimeTag();
+		OSCBundle bundle = new OSCBundle(timeTag);
 		OSCByteArrayToJavaConverter converter = new OSCByteArrayToJavaConverter();
 		converter.setCharset(charset);
 		while (streamPosition < bytesLength)
 		{
 			// recursively read through the stream and convert packets you find
-			Integer packetLength = readInteger();
+			int packetLength = readInt();
 			
 			if (packetLength == 0) throw new IllegalArgumentException("Packet length may not be 0");
 			else if ((packetLength % 4) != 0) throw new IllegalArgumentException("Packet length has to be a multiple of 4, is:" + packetLength);
@@ -103,8 +127,9 @@ public class OSCByteArrayToJavaConverter
 			{
 				if ('[' == types[i])
 				{
-					// we're looking at an array -- read it in
-					arguments.addAll(readArray(types, ++i));
+					// an array is one argument, whatever its elements
+					if (isPrimitiveArray(types, i + 1)) arguments.add(readPrimitiveArray(types, ++i));
+					else arguments.add(readArray(types, ++i).toArray());
 					// then increment i to the end of the array
 					while (']' != types[i]) i++;
 				}
@@ -122,10 +147,49 @@ public class OSCByteArrayToJavaConverter
 	private String readString()
 	{
 		int strLen = lengthOfCurrentString();
-		char[] stringChars = new char[strLen];
-		for (int i = 0; i < strLen; i++) stringChars[i] = (char) bytes[streamPosition++];
+		String string = null;
+		if (isAsciiCompatible)
+		{
+			// fast path: plain ASCII bytes map one to one to chars
+			if (stringChars.length < strLen) stringChars = new char[Math.max(strLen, stringChars.length * 2)];
+			int i = 0;
+			for (; i < strLen; i++)
+			{
+				byte b = bytes[streamPosition + i];
+				if (b < 0) break;
+				stringChars[i] = (char) b;
+			}
+			if (i == strLen) string = new String(stringChars, 0, strLen);
+		}
+		if (string == null) string = decode(strLen);
+		streamPosition += strLen;
 		moveToFourByteBoundry();
-		return new String(stringChars);
+		return string;
+	}
+
+	/**
+	 * Decode a string of the given length at the current stream position
+	 * with the configured charset.
+	 * @param strLen length of the string in bytes
+	 * @return the decoded string
+	 */
+	private String decode(int strLen)
+	{
+		if (decoder == null)
+		{
+			decoder = charset.newDecoder()
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		}
+		int maxChars = (int) Math.ceil(strLen * (double) decoder.maxCharsPerByte());
+		if (stringChars.length < maxChars) stringChars = new char[Math.max(maxChars, stringChars.length * 2)];
+
+		ByteBuffer in = ByteBuffer.wrap(bytes, streamPosition, strLen);
+		CharBuffer out = CharBuffer.wrap(stringChars);
+		decoder.reset();
+		CoderResult result = decoder.decode(in, out, true);
+		if (result.isUnderflow()) decoder.flush(out);
+		return new String(stringChars, 0, out.position());
 	}
 
 	/**
@@ -135,7 +199,7 @@ public class OSCByteArrayToJavaConverter
 	private char[] readTypes()
 	{
 		// the next byte should be a ","
-		if (bytes[streamPosition] != 0x2C) return null;
+		if (streamPosition >= bytesLength || bytes[streamPosition] != 0x2C) return null;
 		streamPosition++;
 		// find out how long the list of types is
 		int typesLen = lengthOfCurrentString();
@@ -177,21 +241,23 @@ public class OSCByteArrayToJavaConverter
 	}
 
 	/**
-	 * Read a char from the byte stream.
+	 * Read a char from the byte stream, a 32 bit int like any other argument.
 	 * @return a Character
 	 */
 	private Character readChar()
 	{
-		return new Character((char) bytes[streamPosition++]);
+		return Character.valueOf((char) readInt());
 	}
 
 	/**
-	 * Read a double &mdash; this just read a float.
+	 * Read a double (64 bit float) from the byte stream.
 	 * @return a Double
 	 */
 	private Double readDouble()
 	{
-		return Double.valueOf(readFloat());
+		long bits = 0;
+		for (int i = 0; i < 8; i++) bits = (bits << 8) | (bytes[streamPosition++] & 0xFF);
+		return Double.valueOf(Double.longBitsToDouble(bits));
 	}
 
 	/**
@@ -200,13 +266,7 @@ public class OSCByteArrayToJavaConverter
 	 */
 	private Float readFloat()
 	{
-		byte[] floatBytes = new byte[4];
-		floatBytes[0] = bytes[streamPosition++];
-		floatBytes[1] = bytes[streamPosition++];
-		floatBytes[2] = bytes[streamPosition++];
-		floatBytes[3] = bytes[streamPosition++];
-		BigInteger floatBits = new BigInteger(floatBytes);
-		return new Float(Float.intBitsToFloat(floatBits.intValue()));
+		return Float.valueOf(Float.intBitsToFloat(readInt()));
 	}
 
 	/**
@@ -215,16 +275,9 @@ public class OSCByteArrayToJavaConverter
 	 */
 	private BigInteger readBigInteger()
 	{
-		byte[] longintBytes = new byte[8];
-		longintBytes[0] = bytes[streamPosition++];
-		longintBytes[1] = bytes[streamPosition++];
-		longintBytes[2] = bytes[streamPosition++];
-		longintBytes[3] = bytes[streamPosition++];
-		longintBytes[4] = bytes[streamPosition++];
-		longintBytes[5] = bytes[streamPosition++];
-		longintBytes[6] = bytes[streamPosition++];
-		longintBytes[7] = bytes[streamPosition++];
-		return new BigInteger(longintBytes);
+		long value = 0;
+		for (int i = 0; i < 8; i++) value = (value << 8) | (bytes[streamPosition++] & 0xFF);
+		return BigInteger.valueOf(value);
 	}
 
 	/**
@@ -233,83 +286,236 @@ public class OSCByteArrayToJavaConverter
 	 */
 	private Integer readInteger()
 	{
-		byte[] intBytes = new byte[4];
-		intBytes[0] = bytes[streamPosition++];
-		intBytes[1] = bytes[streamPosition++];
-		intBytes[2] = bytes[streamPosition++];
-		intBytes[3] = bytes[streamPosition++];
-		BigInteger intBits = new BigInteger(intBytes);
-		return new Integer(intBits.intValue());
+		return Integer.valueOf(readInt());
+	}
+
+	/**
+	 * Read a 32 bit big endian int from the byte stream, without allocating.
+	 */
+	private int readInt()
+	{
+		int value = ((bytes[streamPosition] & 0xFF) << 24) | ((bytes[streamPosition + 1] & 0xFF) << 16)
+				| ((bytes[streamPosition + 2] & 0xFF) << 8) | (bytes[streamPosition + 3] & 0xFF);
+		streamPosition += 4;
+		return value;
 	}
 	
 	/**
-	 * Reads the time tag and convert it to a Java Date object.
+	 * Reads the time tag.
 	 * A timestamp is a 64 bit number representing the time in NTP format.
 	 * The first 32 bits are seconds since 1900, the second 32 bits are
 	 * fractions of a second.
-	 * @return a {@link Date}
+	 * @return an {@link OSCTimeTag}
+	 */
+	private OSCTimeTag readTimeTag()
+	{
+		long ntpTime = 0;
+		for (int i = 0; i < 8; i++) ntpTime = (ntpTime << 8) | (bytes[streamPosition++] & 0xFF);
+		return OSCTimeTag.valueOf(ntpTime);
+	}
+	
+	/**
+	 * Read an array from the byte stream.
+	 * @param types
+	 * @param i
+	 * @return an Array
+	 */
+	private List<Object> readArray(char[] types, int i)
+	{
+		int arrayLen = 0;
+		while (types[i + arrayLen] != ']') arrayLen++;
+		List<Object> array = new ArrayList<Object>();
+		for (int j = 0; j < arrayLen; j++) array.add(readArgument(types[i + j]));
+		return array;
+	}
+
+	/**
+	 * Check whether the array starting at the given type is a run of the
+	 * same primitive type: ints, floats or doubles. Other arrays, empty ones
+	 * included, whose type tags do not tell an element type, are read as
+	 * an Object[].
 	 */
-	private Date readTimeTag()
+	private static boolean isPrimitiveArray(char[] types, int i)
 	{
-		byte[] secondBytes = new byte[8];
-		byte[] fractionBytes = new byte[8];
-		for (int i = 0; i < 4; i++)
+		char type = types[i];
+		if (type != 'i' && type != 'f' && type != 'd') return false;
+		for (; i < types.length && types[i] != ']'; i++)
 		{
-			// clear the higher order 4 bytes
-			secondBytes[i] = 0;
-			fractionBytes[i] = 0;
+			if (types[i] != type) return false;
 		}
-		// while reading in the seconds & fraction, check if
-		// this timetag has immediate semantics
-		boolean isImmediate = true;
-		for (int i = 4; i < 8; i++)
+		return i < types.length;
+	}
+
+	/**
+	 * Read an array of primitives from the byte stream in one bulk copy.
+	 * @return an int[], float[] or double[]
+	 */
+	private Object readPrimitiveArray(char[] types, int i)
+	{
+		int arrayLen = 0;
+		while (types[i + arrayLen] != ']') arrayLen++;
+		switch (types[i])
 		{
-			secondBytes[i] = bytes[streamPosition++];
-			if (secondBytes[i] > 0) isImmediate = false;
+			case 'i' :
+				int[] ints = new int[arrayLen];
+				readInts(ints, arrayLen);
+				return ints;
+			case 'f' :
+				float[] floats = new float[arrayLen];
+				readFloats(floats, arrayLen);
+				return floats;
+			default :
+				double[] doubles = new double[arrayLen];
+				readDoubles(doubles, arrayLen);
+				return doubles;
 		}
-		for (int i = 4; i < 8; i++) {
-			fractionBytes[i] = bytes[streamPosition++];
-			if (i < 7)
-			{
-				if (fractionBytes[i] > 0) isImmediate = false;
-			}
-			else
+	}
+
+	/**
+	 * Decode a float array argument of a message straight into the caller's
+	 * array, without allocating anything once the same byte array is reused.
+	 * @param bytes buffer holding the message, starting at index 0
+	 * @param bytesLength length of the message
+	 * @param argument index of the array among the arguments, an array counting as one
+	 * @param target where to copy the floats
+	 * @return the number of floats copied
+	 * @throws IllegalArgumentException if that argument is not a float array,
+	 * or does not fit the target
+	 */
+	public int convertFloats(byte[] bytes, int bytesLength, int argument, float[] target)
+	{
+		int length = locateArray(bytes, bytesLength, argument, 'f', 4, target.length);
+		readFloats(target, length);
+		return length;
+	}
+
+	/**
+	 * Decode an int array argument of a message straight into the caller's array.
+	 * @see #convertFloats(byte[], int, int, float[])
+	 */
+	public int convertInts(byte[] bytes, int bytesLength, int argument, int[] target)
+	{
+		int length = locateArray(bytes, bytesLength, argument, 'i', 4, target.length);
+		readInts(target, length);
+		return length;
+	}
+
+	/**
+	 * Decode a double array argument of a message straight into the caller's array.
+	 * @see #convertFloats(byte[], int, int, float[])
+	 */
+	public int convertDoubles(byte[] bytes, int bytesLength, int argument, double[] target)
+	{
+		int length = locateArray(bytes, bytesLength, argument, 'd', 8, target.length);
+		readDoubles(target, length);
+		return length;
+	}
+
+	/**
+	 * Move the stream to the data of an array argument, skipping the address
+	 * and the arguments before it without decoding them.
+	 * @return the number of elements of the array
+	 */
+	private int locateArray(byte[] bytes, int bytesLength, int argument, char type, int size, int maxLength)
+	{
+		this.bytes = bytes;
+		this.bytesLength = bytesLength;
+		this.streamPosition = 0;
+		if (bytesLength == 0 || bytes[0] != '/') throw new IllegalArgumentException("Not a message");
+		streamPosition += lengthOfCurrentString();
+		moveToFourByteBoundry();
+		if (streamPosition >= bytesLength || bytes[streamPosition] != ',') throw new IllegalArgumentException("No type tags");
+		int types = streamPosition + 1;
+		streamPosition += lengthOfCurrentString();
+		moveToFourByteBoundry();
+
+		int i = types;
+		for (int current = 0; current < argument; current++)
+		{
+			if (bytes[i] == 0) throw new IllegalArgumentException("No argument " + argument);
+			if (bytes[i] == '[')
 			{
-				if (fractionBytes[i] > 1) isImmediate = false;
+				for (i++; bytes[i] != ']'; i++)
+				{
+					if (bytes[i] == 0) throw new IllegalArgumentException("Unbalanced array");
+					skipArgument((char) bytes[i]);
+				}
 			}
+			else skipArgument((char) bytes[i]);
+			i++;
 		}
 
-		if (isImmediate) return OSCBundle.TIMESTAMP_IMMEDIATE;
+		if (bytes[i] != '[') throw new IllegalArgumentException("Argument " + argument + " is not an array");
+		int length = 0;
+		for (i++; bytes[i] == type; i++) length++;
+		if (bytes[i] != ']') throw new IllegalArgumentException("Argument " + argument + " is not an array of '" + type + "'");
+		if (length > maxLength) throw new IllegalArgumentException("Array of " + length + " does not fit a target of " + maxLength);
+		if (streamPosition + length * size > bytesLength) throw new IllegalArgumentException("Truncated array");
+		return length;
+	}
 
-		long secsSince1900 = new BigInteger(secondBytes).longValue();
-		long secsSince1970 = secsSince1900 - OSCBundle.SECONDS_FROM_1900_TO_1970;
+	/**
+	 * Move the stream past an argument of the given type.
+	 */
+	private void skipArgument(char type)
+	{
+		switch (type)
+		{
+			case 'i' : case 'f' : case 'c' : case 'r' : case 'm' :
+				streamPosition += 4;
+				break;
+			case 'h' : case 'd' : case 't' :
+				streamPosition += 8;
+				break;
+			case 's' : case 'S' :
+				streamPosition += lengthOfCurrentString();
+				moveToFourByteBoundry();
+				break;
+			case 'b' :
+				int blobLength = readInt();
+				streamPosition += (blobLength + 3) & ~3;
+				break;
+		}
+		if (streamPosition > bytesLength) throw new IllegalArgumentException("Truncated argument");
+	}
 
-		// no point maintaining times in the distant past
-		if (secsSince1970 < 0) secsSince1970 = 0;
-		long fraction = (new BigInteger(fractionBytes).longValue());
+	private void readFloats(float[] target, int length)
+	{
+		updateView();
+		viewFloats.position(streamPosition / 4);
+		viewFloats.get(target, 0, length);
+		streamPosition += length * 4;
+	}
 
-		// this line was cribbed from jakarta commons-net's NTP TimeStamp code
-		fraction = (fraction * 1000) / 0x100000000L;
+	private void readInts(int[] target, int length)
+	{
+		updateView();
+		viewInts.position(streamPosition / 4);
+		viewInts.get(target, 0, length);
+		streamPosition += length * 4;
+	}
 
-		// I do not know where, but I'm losing 1ms somewhere...
-		fraction = (fraction > 0) ? fraction + 1 : 0;
-		long millisecs = (secsSince1970 * 1000) + fraction;
-		return new Date(millisecs);
+	private void readDoubles(double[] target, int length)
+	{
+		// doubles are only 4 byte aligned, so no double view fits them
+		updateView();
+		for (int i = 0; i < length; i++)
+		{
+			target[i] = view.getDouble(streamPosition);
+			streamPosition += 8;
+		}
 	}
-	
+
 	/**
-	 * Read an array from the byte stream.
-	 * @param types
-	 * @param i
-	 * @return an Array
+	 * Wrap the current byte array in buffer views, unless they already wrap it.
 	 */
-	private List<Object> readArray(char[] types, int i)
+	private void updateView()
 	{
-		int arrayLen = 0;
-		while (types[i + arrayLen] != ']') arrayLen++;
-		List<Object> array = new ArrayList<Object>();
-		for (int j = 0; j < arrayLen; j++) array.add(readArgument(types[i + j]));
-		return array;
+		if (viewBytes == bytes) return;
+		viewBytes = bytes;
+		view = ByteBuffer.wrap(bytes);
+		viewFloats = view.asFloatBuffer();
+		viewInts = view.asIntBuffer();
 	}
 
 	/**
@@ -318,7 +524,10 @@ public class OSCByteArrayToJavaConverter
 	private int lengthOfCurrentString()
 	{
 		int i = 0;
-		while (bytes[streamPosition + i] != 0) i++;
+		while (bytes[streamPosition + i] != 0)
+		{
+			if (streamPosition + ++i >= bytesLength) throw new IllegalArgumentException("Unterminated string at " + streamPosition);
+		}
 		return i;
 	}
 
@@ -3,7 +3,17 @@ package fuse.osc.utils;
 import java.io.IOException;
 import java.io.ByteArrayOutputStream;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
 import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+import fuse.osc.OSCTimeTag;
 
 /**
  * OSCJavaToByteArrayConverter is a helper class that translates
@@ -14,19 +24,24 @@ public class OSCJavaToByteArrayConverter
 {
 	private ByteArrayOutputStream stream;
 	private Charset charset;
+	private boolean isAsciiCompatible;
+	private CharsetEncoder encoder;
 	private byte[] intBytes;
 	private byte[] longintBytes;
-	private char[] stringChars;
 	private byte[] stringBytes;
+	private byte[] arrayBytes;
+	private ByteBuffer arrayBuffer;
+	private FloatBuffer arrayFloats;
+	private IntBuffer arrayInts;
+	private DoubleBuffer arrayDoubles;
 
 	public OSCJavaToByteArrayConverter()
 	{
 		stream = new ByteArrayOutputStream();
-		charset = Charset.defaultCharset();
 		intBytes = new byte[4];
 		longintBytes = new byte[8];
-		stringChars = new char[2048];
-		stringBytes = new byte[2048];
+		stringBytes = new byte[256];
+		setCharset(Charset.defaultCharset());
 	}
 	
 	/**
@@ -46,7 +61,10 @@ public class OSCJavaToByteArrayConverter
 	 */
 	public void setCharset(Charset charset)
 	{
+		if (charset.equals(this.charset)) return;
 		this.charset = charset;
+		isAsciiCompatible = CharsetUtils.isAsciiCompatible(charset);
+		encoder = null;
 	}
 	
 	/**
@@ -127,6 +145,75 @@ public class OSCJavaToByteArrayConverter
 		writeInteger64ToByteArray(i.longValue());
 	}	
 
+	/**
+	 * Write a double into the byte stream.
+	 * @param d java.lang.Double
+	 */
+	public void write(Double d)
+	{
+		writeInteger64ToByteArray(Double.doubleToLongBits(d.doubleValue()));
+	}
+
+	/**
+	 * Write the elements of a float array into the byte stream,
+	 * in one bulk copy through a big endian buffer view.
+	 * @param floats float[]
+	 */
+	public void write(float[] floats)
+	{
+		ensureArrayBytes(floats.length * 4);
+		arrayFloats.clear();
+		arrayFloats.put(floats);
+		stream.write(arrayBytes, 0, floats.length * 4);
+	}
+
+	/**
+	 * Write the elements of an int array into the byte stream.
+	 * @param ints int[]
+	 */
+	public void write(int[] ints)
+	{
+		ensureArrayBytes(ints.length * 4);
+		arrayInts.clear();
+		arrayInts.put(ints);
+		stream.write(arrayBytes, 0, ints.length * 4);
+	}
+
+	/**
+	 * Write the elements of a double array into the byte stream.
+	 * @param doubles double[]
+	 */
+	public void write(double[] doubles)
+	{
+		ensureArrayBytes(doubles.length * 8);
+		arrayDoubles.clear();
+		arrayDoubles.put(doubles);
+		stream.write(arrayBytes, 0, doubles.length * 8);
+	}
+
+	/**
+	 * Grow the scratch bytes used for primitive arrays to at least the given size.
+	 * @param size the minimal size
+	 */
+	private void ensureArrayBytes(int size)
+	{
+		if (arrayBytes != null && arrayBytes.length >= size) return;
+		arrayBytes = new byte[Math.max(size, 1024)];
+		arrayBuffer = ByteBuffer.wrap(arrayBytes);
+		arrayFloats = arrayBuffer.asFloatBuffer();
+		arrayInts = arrayBuffer.asIntBuffer();
+		arrayDoubles = arrayBuffer.asDoubleBuffer();
+	}
+
+	/**
+	 * Write a time tag into the byte stream.
+	 * @param timeTag fuse.osc.OSCTimeTag
+	 */
+	public void write(OSCTimeTag timeTag)
+	{
+		writeInteger64ToByteArray(timeTag.getNtpTime());
+	}
+
 	/**
 	 * Write a string into the byte stream.
 	 * @param string java.lang.String
@@ -134,12 +221,78 @@ public class OSCJavaToByteArrayConverter
 	public void write(String string)
 	{
 		int stringLength = string.length();
-		string.getChars(0, stringLength, stringChars, 0);
-		int mod = stringLength % 4;
-		int pad = 4 - mod;
-		for (int i = 0; i < pad; i++) stringChars[stringLength++] = 0;
-		for (int i = 0; i < stringLength; i++) stringBytes[i] = (byte) (stringChars[i] & 0x00FF);
-		stream.write(stringBytes, 0, stringLength);		
+		int byteLength = -1;
+		if (isAsciiCompatible)
+		{
+			// fast path: copy plain ASCII straight into the scratch bytes
+			ensureStringBytes(stringLength + 4);
+			int i = 0;
+			for (; i < stringLength; i++)
+			{
+				char c = string.charAt(i);
+				if (c >= 0x80) break;
+				stringBytes[i] = (byte) c;
+			}
+			if (i == stringLength) byteLength = stringLength;
+		}
+		if (byteLength < 0) byteLength = encode(string);
+
+		// terminate with at least one null char and align to 4 bytes
+		int pad = 4 - (byteLength % 4);
+		ensureStringBytes(byteLength + pad);
+		for (int i = 0; i < pad; i++) stringBytes[byteLength++] = 0;
+		stream.write(stringBytes, 0, byteLength);
+	}
+
+	/**
+	 * Encode a string with the configured charset into the scratch bytes.
+	 * @param string java.lang.String
+	 * @return the number of bytes written
+	 */
+	private int encode(String string)
+	{
+		if (encoder == null)
+		{
+			encoder = charset.newEncoder()
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		}
+		ensureStringBytes((int) (string.length() * encoder.averageBytesPerChar()) + 4);
+
+		CharBuffer in = CharBuffer.wrap(string);
+		ByteBuffer out = ByteBuffer.wrap(stringBytes);
+		encoder.reset();
+		boolean flushing = false;
+		CoderResult result = encoder.encode(in, out, true);
+		while (true)
+		{
+			if (result.isUnderflow())
+			{
+				if (flushing) break;
+				flushing = true;
+				result = encoder.flush(out);
+				continue;
+			}
+			// the output overflowed: grow the scratch bytes and go on
+			int position = out.position();
+			ensureStringBytes(stringBytes.length * 2);
+			out = ByteBuffer.wrap(stringBytes);
+			out.position(position);
+			result = flushing ? encoder.flush(out) : encoder.encode(in, out, true);
+		}
+		return out.position();
+	}
+
+	/**
+	 * Grow the scratch bytes used for strings to at least the given size.
+	 * @param size the minimal size
+	 */
+	private void ensureStringBytes(int size)
+	{
+		if (stringBytes.length >= size) return;
+		byte[] newBytes = new byte[Math.max(size, stringBytes.length * 2)];
+		System.arraycopy(stringBytes, 0, newBytes, 0, stringBytes.length);
+		stringBytes = newBytes;
 	}
 
 	/**
@@ -153,21 +306,27 @@ public class OSCJavaToByteArrayConverter
 
 	/**
 	 * Write an object into the byte stream.
-	 * @param object one of Float, String, Integer, BigInteger, or array of these.
+	 * @param object one of Float, Double, String, Integer, BigInteger, Character, an array of these,
+	 * or a float[], int[] or double[].
 	 */
 	public void write(Object object)
 	{
 		if (object != null)
 		{
-			if (object instanceof Object[])
+			if (object instanceof float[]) write((float[]) object);
+			else if (object instanceof int[]) write((int[]) object);
+			else if (object instanceof double[]) write((double[]) object);
+			else if (object instanceof Object[])
 			{
 				Object[] theArray = (Object[]) object;
 				for (int i = 0; i < theArray.length; ++i) write(theArray[i]);
 			}
 			else if (object instanceof Float) write((Float) object);
+			else if (object instanceof Double) write((Double) object);
 			else if (object instanceof String) write((String) object);
 			else if (object instanceof Integer) write((Integer) object); 
 			else if (object instanceof BigInteger) write((BigInteger) object);
+			else if (object instanceof Character) write((int) ((Character) object).charValue());
 		}
 	}
 
@@ -200,6 +359,18 @@ public class OSCJavaToByteArrayConverter
 		}
 	}
 	
+	/**
+	 * Write the types for a primitive array element in the arguments.
+	 * @param type the type tag of every element
+	 * @param length number of elements
+	 */
+	private void writeTypesArray(char type, int length)
+	{
+		stream.write('[');
+		for (int i = 0; i < length; i++) stream.write(type);
+		stream.write(']');
+	}
+
 	/**
 	 * Write types for the arguments (use a vector for jdk1.1 compatibility, rather than an ArrayList).
 	 * @param objects the arguments to an OSCMessage
@@ -209,6 +380,9 @@ public class OSCJavaToByteArrayConverter
 		for (Object object : objects)
 		{
 			if (null == object) continue;
+			else if (object instanceof float[]) writeTypesArray('f', ((float[]) object).length);
+			else if (object instanceof int[]) writeTypesArray('i', ((int[]) object).length);
+			else if (object instanceof double[]) writeTypesArray('d', ((double[]) object).length);
 			else if (object.getClass().isArray())
 			{
 				stream.write('[');
@@ -0,0 +1,204 @@
+package fuse.osc.utils;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Checks in a single pass, without allocating, that a byte array is a
+ * structurally valid OSC packet before it is handed to
+ * {@link OSCByteArrayToJavaConverter}: padding, type tags, argument and
+ * bundle element lengths, and nesting depth.
+ * <p>
+ * Only what the converter decodes is valid: the types <code>i h f d s c T F</code>,
+ * in arrays that are not nested. Other types, although defined by OSC, are
+ * rejected as unknown, since the converter could not tell where they end.
+ * <p>
+ * Instead of throwing, {@link #validate(byte[], int)} returns a reason code
+ * and counts how many packets were rejected for each reason.
+ */
+public class OSCPacketValidator
+{
+	public static final int VALID = 0;
+	public static final int EMPTY = 1;
+	public static final int BAD_LENGTH = 2;
+	public static final int BAD_ADDRESS = 3;
+	public static final int UNTERMINATED_STRING = 4;
+	public static final int BAD_PADDING = 5;
+	public static final int MISSING_TYPE_TAGS = 6;
+	public static final int UNKNOWN_TYPE = 7;
+	public static final int UNBALANCED_ARRAY = 8;
+	public static final int TRUNCATED_ARGUMENT = 9;
+	public static final int TRAILING_BYTES = 10;
+	public static final int BAD_BUNDLE_ELEMENT = 11;
+	public static final int TOO_DEEP = 12;
+
+	private static final String[] REASON_NAMES = {
+		"valid", "empty", "bad length", "bad address", "unterminated string", "bad padding",
+		"missing type tags", "unknown type", "unbalanced array", "truncated argument",
+		"trailing bytes", "bad bundle element", "too deep"
+	};
+
+	private static final byte[] BUNDLE_START = { '#', 'b', 'u', 'n', 'd', 'l', 'e', 0 };
+
+	private int maxDepth;
+	private AtomicLongArray counts;
+
+	public OSCPacketValidator()
+	{
+		this(8);
+	}
+
+	/**
+	 * @param maxDepth how deep bundles may be nested
+	 */
+	public OSCPacketValidator(int maxDepth)
+	{
+		this.maxDepth = maxDepth;
+		counts = new AtomicLongArray(REASON_NAMES.length);
+	}
+
+	/**
+	 * Validate a packet and count the outcome.
+	 * @param bytes buffer holding the packet, starting at index 0
+	 * @param length length of the packet
+	 * @return {@link #VALID} or the reason the packet is rejected
+	 */
+	public int validate(byte[] bytes, int length)
+	{
+		int reason = validate(bytes, 0, length, 0);
+		counts.incrementAndGet(reason);
+		return reason;
+	}
+
+	/**
+	 * @param reason a reason code
+	 * @return how many packets were validated with that outcome
+	 */
+	public long getCount(int reason)
+	{
+		return counts.get(reason);
+	}
+
+	/**
+	 * @return how many packets were rejected, for any reason
+	 */
+	public long getRejectedCount()
+	{
+		long total = 0;
+		for (int i = 1; i < REASON_NAMES.length; i++) total += counts.get(i);
+		return total;
+	}
+
+	public static String reasonName(int reason)
+	{
+		return (reason >= 0 && reason < REASON_NAMES.length) ? REASON_NAMES[reason] : "unknown";
+	}
+
+	private int validate(byte[] bytes, int offset, int length, int depth)
+	{
+		if (length <= 0) return EMPTY;
+		if ((length % 4) != 0 || offset + length > bytes.length) return BAD_LENGTH;
+		if (bytes[offset] == '#') return validateBundle(bytes, offset, length, depth);
+		return validateMessage(bytes, offset, length);
+	}
+
+	private int validateBundle(byte[] bytes, int offset, int length, int depth)
+	{
+		if (depth >= maxDepth) return TOO_DEEP;
+		// "#bundle" and the time tag
+		if (length < 16) return BAD_BUNDLE_ELEMENT;
+		for (int i = 0; i < BUNDLE_START.length; i++)
+		{
+			if (bytes[offset + i] != BUNDLE_START[i]) return BAD_ADDRESS;
+		}
+
+		int end = offset + length;
+		int position = offset + 16;
+		while (position < end)
+		{
+			if (position + 4 > end) return BAD_BUNDLE_ELEMENT;
+			int elementLength = readInt(bytes, position);
+			position += 4;
+			if (elementLength <= 0 || (elementLength % 4) != 0 || elementLength > end - position) return BAD_BUNDLE_ELEMENT;
+			int reason = validate(bytes, position, elementLength, depth + 1);
+			if (reason != VALID) return reason;
+			position += elementLength;
+		}
+		return VALID;
+	}
+
+	private int validateMessage(byte[] bytes, int offset, int length)
+	{
+		int end = offset + length;
+		if (bytes[offset] != '/') return BAD_ADDRESS;
+		int position = skipString(bytes, offset, end);
+		if (position < 0) return -position;
+
+		// a message without type tags is tolerated if nothing follows the address
+		if (position == end) return VALID;
+		if (bytes[position] != ',') return MISSING_TYPE_TAGS;
+		int types = position + 1;
+		position = skipString(bytes, position, end);
+		if (position < 0) return -position;
+
+		boolean isInArray = false;
+		for (int i = types; bytes[i] != 0; i++)
+		{
+			int size;
+			switch (bytes[i])
+			{
+				case 'i' : case 'f' : case 'c' :
+					size = 4;
+					break;
+				case 'h' : case 'd' :
+					size = 8;
+					break;
+				case 's' :
+					position = skipString(bytes, position, end);
+					if (position < 0) return -position;
+					continue;
+				case 'T' : case 'F' :
+					continue;
+				case '[' :
+					// the converter reads arrays of arguments, not arrays of arrays
+					if (isInArray) return TOO_DEEP;
+					isInArray = true;
+					continue;
+				case ']' :
+					if (!isInArray) return UNBALANCED_ARRAY;
+					isInArray = false;
+					continue;
+				default :
+					return UNKNOWN_TYPE;
+			}
+			if (size > end - position) return TRUNCATED_ARGUMENT;
+			position += size;
+		}
+		if (isInArray) return UNBALANCED_ARRAY;
+		if (position != end) return TRAILING_BYTES;
+		return VALID;
+	}
+
+	/**
+	 * Skip a null terminated string and its padding.
+	 * @return the position after the padding, or a negated reason code
+	 */
+	private static int skipString(byte[] bytes, int position, int end)
+	{
+		int i = position;
+		while (i < end && bytes[i] != 0) i++;
+		if (i == end) return -UNTERMINATED_STRING;
+		int padded = position + ((i - position) / 4 + 1) * 4;
+		if (padded > end) return -BAD_PADDING;
+		for (; i < padded; i++)
+		{
+			if (bytes[i] != 0) return -BAD_PADDING;
+		}
+		return padded;
+	}
+
+	private static int readInt(byte[] bytes, int position)
+	{
+		return ((bytes[position] & 0xFF) << 24) | ((bytes[position + 1] & 0xFF) << 16)
+				| ((bytes[position + 2] & 0xFF) << 8) | (bytes[position + 3] & 0xFF);
+	}
+}
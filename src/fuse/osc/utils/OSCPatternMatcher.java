@@ -0,0 +1,98 @@
+package fuse.osc.utils;
+
+/**
+ * Matches OSC addresses against OSC address patterns, as defined by the
+ * OSC 1.0 specification: <code>?</code> matches any single character,
+ * <code>*</code> any sequence of characters, <code>[abc]</code> and
+ * <code>[a-z]</code> any character of the set (<code>[!abc]</code> negates
+ * it) and <code>{foo,bar}</code> any of the strings. Wildcards never match
+ * the <code>/</code> separating address parts.
+ */
+public class OSCPatternMatcher
+{
+	/**
+	 * @return true if the pattern contains none of the wildcard characters
+	 */
+	public static boolean isLiteral(String pattern)
+	{
+		for (int i = 0; i < pattern.length(); i++)
+		{
+			if ("*?[{".indexOf(pattern.charAt(i)) >= 0) return false;
+		}
+		return true;
+	}
+
+	public static boolean matches(String pattern, String address)
+	{
+		return matches(pattern, 0, address, 0);
+	}
+
+	private static boolean matches(String pattern, int p, String address, int a)
+	{
+		while (p < pattern.length())
+		{
+			char c = pattern.charAt(p);
+			switch (c)
+			{
+				case '*' :
+					// try every length up to the end of the address part
+					for (int end = a; ; end++)
+					{
+						if (matches(pattern, p + 1, address, end)) return true;
+						if (end == address.length() || address.charAt(end) == '/') return false;
+					}
+				case '?' :
+					if (a == address.length() || address.charAt(a) == '/') return false;
+					p++;
+					a++;
+					break;
+				case '[' :
+				{
+					int close = pattern.indexOf(']', p);
+					if (close < 0 || a == address.length() || address.charAt(a) == '/') return false;
+					if (!matchesSet(pattern, p + 1, close, address.charAt(a))) return false;
+					p = close + 1;
+					a++;
+					break;
+				}
+				case '{' :
+				{
+					int close = pattern.indexOf('}', p);
+					if (close < 0) return false;
+					int start = p + 1;
+					while (start <= close)
+					{
+						int comma = pattern.indexOf(',', start);
+						if (comma < 0 || comma > close) comma = close;
+						int length = comma - start;
+						if (address.regionMatches(a, pattern, start, length) && matches(pattern, close + 1, address, a + length)) return true;
+						start = comma + 1;
+					}
+					return false;
+				}
+				default :
+					if (a == address.length() || address.charAt(a) != c) return false;
+					p++;
+					a++;
+			}
+		}
+		return a == address.length();
+	}
+
+	private static boolean matchesSet(String pattern, int start, int end, char c)
+	{
+		boolean negate = start < end && pattern.charAt(start) == '!';
+		if (negate) start++;
+		boolean found = false;
+		for (int i = start; i < end && !found; i++)
+		{
+			if (i + 2 < end && pattern.charAt(i + 1) == '-')
+			{
+				found = c >= pattern.charAt(i) && c <= pattern.charAt(i + 2);
+				i += 2;
+			}
+			else found = c == pattern.charAt(i);
+		}
+		return found != negate;
+	}
+}
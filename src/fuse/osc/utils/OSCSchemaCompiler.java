@@ -0,0 +1,612 @@
+package fuse.osc.utils;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Compiles a schema of fixed OSC messages into Java source: for every message
+ * a typed record with a specialized encoder and decoder, plus a dispatcher
+ * that picks the decoder from the address of a raw packet.
+ * <p>
+ * The generated code reads and writes the fields straight from and to byte
+ * arrays, at offsets computed at generation time up to the first string
+ * argument, instead of going through <code>Object[]</code> arguments and the
+ * generic converters.
+ * <p>
+ * A schema is a text file like:
+ * <pre>
+ * # lines starting with # are comments
+ * package com.example.show
+ * class ShowProtocol
+ * /mixer/gain  MixerGain  i:channel f:value
+ * /cue/go      CueGo      s:name h:frame
+ * </pre>
+ * Each message line holds the address, the record name and the arguments as
+ * <code>type:name</code>, where the type is one of <code>i</code> (int),
+ * <code>h</code> (long), <code>f</code> (float), <code>d</code> (double) or
+ * <code>s</code> (String, encoded as UTF-8).
+ * <p>
+ * Addresses must be distinct and free of pattern characters, and record,
+ * field, class and package names must be Java identifiers that do not clash
+ * with each other or with the generated code. A schema breaking these rules
+ * is rejected with the number of the offending line.
+ * <p>
+ * Usage: <code>java fuse.osc.utils.OSCSchemaCompiler schema.osc outputDir</code>
+ */
+public class OSCSchemaCompiler
+{
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/**
+	 * Names of the locals and constants of the generated records, and of
+	 * the classes whose static methods they call, which fields can not take.
+	 */
+	private static final List<String> RESERVED_NAMES = Arrays.asList("bytes", "offset", "length", "end", "p", "ADDRESS", "HEADER", "UTF8",
+			"Float", "Double", "System", "BigInteger");
+
+	/**
+	 * Names of the other classes in and used by the generated class, which
+	 * records can not take.
+	 */
+	private static final List<String> RESERVED_CLASS_NAMES = Arrays.asList("Handler", "Dispatcher", "String", "Object", "Float", "Double",
+			"System", "BigInteger", "Charset", "SocketAddress", "OSCMessage", "OSCRawListener");
+
+	private static final List<String> KEYWORDS = Arrays.asList("abstract", "assert", "boolean", "break", "byte", "case", "catch", "char",
+			"class", "const", "continue", "default", "do", "double", "else", "enum", "extends", "final", "finally", "float", "for", "goto",
+			"if", "implements", "import", "instanceof", "int", "interface", "long", "native", "new", "package", "private", "protected",
+			"public", "return", "short", "static", "strictfp", "super", "switch", "synchronized", "this", "throw", "throws", "transient",
+			"try", "void", "volatile", "while", "true", "false", "null");
+
+	/**
+	 * Characters an address of a fixed message can not hold: those of OSC
+	 * address patterns, and those that would end the Java string literal
+	 * or comment the address is written to.
+	 */
+	private static final String ADDRESS_SPECIAL_CHARACTERS = "#*,?[]{}\"\\";
+
+	private String packageName;
+	private String className;
+	private List<Message> messages;
+
+	private static class Field
+	{
+		char type;
+		String name;
+
+		String javaType()
+		{
+			switch (type)
+			{
+				case 'i' : return "int";
+				case 'h' : return "long";
+				case 'f' : return "float";
+				case 'd' : return "double";
+				default : return "String";
+			}
+		}
+
+		int size()
+		{
+			switch (type)
+			{
+				case 'i' : case 'f' : return 4;
+				case 'h' : case 'd' : return 8;
+				default : return -1;
+			}
+		}
+	}
+
+	private static class Message
+	{
+		int lineNumber;
+		String address;
+		String name;
+		List<Field> fields = new ArrayList<Field>();
+
+		String typeTags()
+		{
+			StringBuilder tags = new StringBuilder(",");
+			for (Field field : fields) tags.append(field.type);
+			return tags.toString();
+		}
+
+		/**
+		 * @return the address and type tags, null terminated and padded
+		 */
+		byte[] header()
+		{
+			byte[] address = this.address.getBytes(UTF8);
+			byte[] tags = typeTags().getBytes(UTF8);
+			byte[] header = new byte[padded(address.length) + padded(tags.length)];
+			System.arraycopy(address, 0, header, 0, address.length);
+			System.arraycopy(tags, 0, header, padded(address.length), tags.length);
+			return header;
+		}
+	}
+
+	public static void main(String[] args)
+	{
+		if (args.length != 2)
+		{
+			System.err.println("Usage: OSCSchemaCompiler <schema file> <output directory>");
+			System.exit(1);
+		}
+		try
+		{
+			OSCSchemaCompiler compiler = new OSCSchemaCompiler();
+			Reader reader = new InputStreamReader(new FileInputStream(args[0]), UTF8);
+			try
+			{
+				compiler.parse(reader);
+			}
+			finally
+			{
+				reader.close();
+			}
+			File file = compiler.write(new File(args[1]));
+			System.out.println("Generated " + file);
+		}
+		catch (Exception e)
+		{
+			e.printStackTrace();
+			System.exit(1);
+		}
+	}
+
+	public OSCSchemaCompiler()
+	{
+		messages = new ArrayList<Message>();
+	}
+
+	/**
+	 * Parse a schema given as a string.
+	 */
+	public void parse(String schema) throws IOException
+	{
+		parse(new StringReader(schema));
+	}
+
+	/**
+	 * Parse a schema.
+	 * @throws IllegalArgumentException if the schema is invalid
+	 */
+	public void parse(Reader schema) throws IOException
+	{
+		BufferedReader reader = new BufferedReader(schema);
+		String line;
+		int lineNumber = 0;
+		while ((line = reader.readLine()) != null)
+		{
+			lineNumber++;
+			line = line.trim();
+			if (line.length() == 0 || line.startsWith("#")) continue;
+			String[] words = line.split("\\s+");
+			if (words[0].equals("package") && words.length == 2)
+			{
+				for (String part : words[1].split("\\.", -1))
+				{
+					if (!isIdentifier(part)) throw new IllegalArgumentException("Line " + lineNumber + ": \"" + words[1] + "\" is not a package name");
+				}
+				packageName = words[1];
+			}
+			else if (words[0].equals("class") && words.length == 2)
+			{
+				if (!isIdentifier(words[1])) throw new IllegalArgumentException("Line " + lineNumber + ": \"" + words[1] + "\" is not a class name");
+				className = words[1];
+			}
+			else if (words[0].startsWith("/") && words.length >= 2) messages.add(parseMessage(words, lineNumber));
+			else throw new IllegalArgumentException("Line " + lineNumber + ": cannot parse \"" + line + "\"");
+		}
+		if (className == null) throw new IllegalArgumentException("The schema has no class line");
+		for (Message message : messages)
+		{
+			if (message.name.equals(className))
+			{
+				throw new IllegalArgumentException("Line " + message.lineNumber + ": message \"" + message.name + "\" has the name of the class");
+			}
+		}
+	}
+
+	private Message parseMessage(String[] words, int lineNumber)
+	{
+		Message message = new Message();
+		message.lineNumber = lineNumber;
+		message.address = words[0];
+		message.name = words[1];
+		String messageProblem = checkMessage(message);
+		if (messageProblem != null) throw new IllegalArgumentException("Line " + lineNumber + ": " + messageProblem);
+		for (int i = 2; i < words.length; i++)
+		{
+			String[] parts = words[i].split(":");
+			if (parts.length != 2 || parts[0].length() != 1 || "ihfds".indexOf(parts[0].charAt(0)) < 0)
+			{
+				throw new IllegalArgumentException("Line " + lineNumber + ": bad argument \"" + words[i] + "\"");
+			}
+			Field field = new Field();
+			field.type = parts[0].charAt(0);
+			field.name = parts[1];
+			message.fields.add(field);
+		}
+		for (Field field : message.fields)
+		{
+			String problem = checkName(message, field);
+			if (problem != null) throw new IllegalArgumentException("Line " + lineNumber + ": field \"" + field.name + "\" " + problem);
+		}
+		return message;
+	}
+
+	/**
+	 * Check the address and the record name of a message against the
+	 * messages parsed before it.
+	 * @return why the message does not fit the generated code, or null
+	 */
+	private String checkMessage(Message message)
+	{
+		String address = message.address;
+		for (int i = 0; i < address.length(); i++)
+		{
+			char c = address.charAt(i);
+			if (Character.isISOControl(c) || ADDRESS_SPECIAL_CHARACTERS.indexOf(c) >= 0)
+			{
+				return "address \"" + address + "\" holds the character '" + c + "'";
+			}
+		}
+		String name = message.name;
+		if (!isIdentifier(name)) return "message \"" + name + "\" is not a Java identifier";
+		if (RESERVED_CLASS_NAMES.contains(name)) return "message \"" + name + "\" is a name used by the generated code";
+		for (Message other : messages)
+		{
+			if (other.address.equals(address)) return "address \"" + address + "\" is already defined on line " + other.lineNumber;
+			if (other.name.equals(name)) return "message \"" + name + "\" is already defined on line " + other.lineNumber;
+		}
+		return null;
+	}
+
+	/**
+	 * @return whether a name can be used as a Java identifier
+	 */
+	private static boolean isIdentifier(String name)
+	{
+		if (name.length() == 0 || KEYWORDS.contains(name)) return false;
+		if (!Character.isJavaIdentifierStart(name.charAt(0))) return false;
+		for (int i = 1; i < name.length(); i++)
+		{
+			if (!Character.isJavaIdentifierPart(name.charAt(i))) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * @return why the name of a field does not fit the generated code, or null
+	 */
+	private static String checkName(Message message, Field field)
+	{
+		String name = field.name;
+		if (!isIdentifier(name)) return "is not a Java identifier";
+		if (RESERVED_NAMES.contains(name)) return "is a name used by the generated code";
+		for (Field other : message.fields)
+		{
+			if (other == field) continue;
+			if (other.name.equals(name)) return "is defined twice";
+			// a string field comes with a byte array field and a length local
+			if (other.type == 's' && (name.equals(other.name + "Bytes") || name.equals(other.name + "Length")))
+			{
+				return "clashes with the generated names of \"" + other.name + "\"";
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Write the generated class below the output directory, in the
+	 * directory of its package.
+	 * @return the generated file
+	 */
+	public File write(File outputDirectory) throws IOException
+	{
+		File directory = (packageName == null) ? outputDirectory : new File(outputDirectory, packageName.replace('.', File.separatorChar));
+		directory.mkdirs();
+		File file = new File(directory, className + ".java");
+		Writer writer = new OutputStreamWriter(new FileOutputStream(file), UTF8);
+		try
+		{
+			writer.write(generate());
+		}
+		finally
+		{
+			writer.close();
+		}
+		return file;
+	}
+
+	/**
+	 * @return the source of the generated class
+	 */
+	public String generate()
+	{
+		StringBuilder out = new StringBuilder();
+		if (packageName != null) out.append("package ").append(packageName).append(";\n\n");
+		if (hasLongField()) out.append("import java.math.BigInteger;\n");
+		out.append("import java.net.SocketAddress;\n");
+		out.append("import java.nio.charset.Charset;\n\n");
+		out.append("import fuse.osc.OSCMessage;\n");
+		out.append("import fuse.osc.OSCRawListener;\n\n");
+		out.append("/**\n * Generated by OSCSchemaCompiler, do not edit.\n */\n");
+		out.append("public class ").append(className).append("\n{\n");
+		out.append("\tprivate static final Charset UTF8 = Charset.forName(\"UTF-8\");\n\n");
+
+		generateHandler(out);
+		generateDispatcher(out);
+		for (Message message : messages) generateRecord(out, message);
+		generateHelpers(out);
+
+		out.append("}\n");
+		return out.toString();
+	}
+
+	private boolean hasLongField()
+	{
+		for (Message message : messages)
+		{
+			for (Field field : message.fields)
+			{
+				if (field.type == 'h') return true;
+			}
+		}
+		return false;
+	}
+
+	private void generateHandler(StringBuilder out)
+	{
+		out.append("\t/**\n\t * Receives the decoded messages.\n\t */\n");
+		out.append("\tpublic interface Handler\n\t{\n");
+		for (Message message : messages)
+		{
+			out.append("\t\tpublic void on").append(message.name).append("(").append(message.name).append(" message, SocketAddress source);\n");
+		}
+		out.append("\t}\n\n");
+	}
+
+	private void generateDispatcher(StringBuilder out)
+	{
+		out.append("\t/**\n\t * Decodes the known messages of raw packets and hands them to a handler.\n");
+		out.append("\t * Bundles and unknown messages are left to the generic decoding.\n\t */\n");
+		out.append("\tpublic static class Dispatcher implements OSCRawListener\n\t{\n");
+		out.append("\t\tprivate final Handler handler;\n\n");
+		out.append("\t\tpublic Dispatcher(Handler handler)\n\t\t{\n\t\t\tthis.handler = handler;\n\t\t}\n\n");
+		out.append("\t\t@Override\n");
+		out.append("\t\tpublic boolean acceptPacket(byte[] bytes, int offset, int length, SocketAddress source)\n\t\t{\n");
+		out.append("\t\t\tint addressLength = 0;\n");
+		out.append("\t\t\twhile (addressLength < length && bytes[offset + addressLength] != 0) addressLength++;\n");
+		out.append("\t\t\tswitch (addressLength)\n\t\t\t{\n");
+
+		// group the messages by address length
+		List<Integer> lengths = new ArrayList<Integer>();
+		for (Message message : messages)
+		{
+			Integer addressLength = message.address.getBytes(UTF8).length;
+			if (!lengths.contains(addressLength)) lengths.add(addressLength);
+		}
+		for (Integer addressLength : lengths)
+		{
+			out.append("\t\t\t\tcase ").append(addressLength).append(" :\n");
+			for (Message message : messages)
+			{
+				if (message.address.getBytes(UTF8).length != addressLength) continue;
+				out.append("\t\t\t\t\tif (matches(bytes, offset, length, ").append(message.name).append(".HEADER))\n\t\t\t\t\t{\n");
+				out.append("\t\t\t\t\t\t").append(message.name).append(" message = ").append(message.name).append(".decode(bytes, offset, length);\n");
+				out.append("\t\t\t\t\t\tif (message == null) return false;\n");
+				out.append("\t\t\t\t\t\thandler.on").append(message.name).append("(message, source);\n");
+				out.append("\t\t\t\t\t\treturn true;\n\t\t\t\t\t}\n");
+			}
+			out.append("\t\t\t\t\treturn false;\n");
+		}
+		out.append("\t\t\t\tdefault :\n\t\t\t\t\treturn false;\n\t\t\t}\n\t\t}\n\t}\n\n");
+	}
+
+	private void generateRecord(StringBuilder out, Message message)
+	{
+		byte[] header = message.header();
+		String name = message.name;
+
+		out.append("\t/**\n\t * ").append(message.address).append(" ").append(message.typeTags()).append("\n\t */\n");
+		out.append("\tpublic static final class ").append(name).append("\n\t{\n");
+		out.append("\t\tpublic static final String ADDRESS = \"").append(message.address).append("\";\n");
+		out.append("\t\tstatic final byte[] HEADER = {");
+		for (int i = 0; i < header.length; i++) out.append(i == 0 ? " " : ", ").append(header[i]);
+		out.append(" };\n\n");
+
+		for (Field field : message.fields)
+		{
+			out.append("\t\tpublic final ").append(field.javaType()).append(" ").append(field.name).append(";\n");
+		}
+		for (Field field : message.fields)
+		{
+			if (field.type == 's') out.append("\t\tprivate final byte[] ").append(field.name).append("Bytes;\n");
+		}
+		out.append("\n");
+
+		// constructor
+		out.append("\t\tpublic ").append(name).append("(");
+		for (int i = 0; i < message.fields.size(); i++)
+		{
+			Field field = message.fields.get(i);
+			out.append(i == 0 ? "" : ", ").append(field.javaType()).append(" ").append(field.name);
+		}
+		out.append(")\n\t\t{\n");
+		for (Field field : message.fields)
+		{
+			out.append("\t\t\tthis.").append(field.name).append(" = ").append(field.name).append(";\n");
+			if (field.type == 's') out.append("\t\t\tthis.").append(field.name).append("Bytes = ").append(field.name).append(".getBytes(UTF8);\n");
+		}
+		out.append("\t\t}\n\n");
+
+		// length
+		int fixedLength = header.length;
+		StringBuilder variableLength = new StringBuilder();
+		for (Field field : message.fields)
+		{
+			if (field.size() > 0) fixedLength += field.size();
+			else variableLength.append(" + padded(").append(field.name).append("Bytes.length)");
+		}
+		out.append("\t\tpublic int encodedLength()\n\t\t{\n");
+		out.append("\t\t\treturn ").append(fixedLength).append(variableLength).append(";\n\t\t}\n\n");
+
+		// encoder
+		out.append("\t\t/**\n\t\t * @return the number of bytes written\n\t\t */\n");
+		out.append("\t\tpublic int encode(byte[] bytes, int offset)\n\t\t{\n");
+		out.append("\t\t\tSystem.arraycopy(HEADER, 0, bytes, offset, ").append(header.length).append(");\n");
+		int position = header.length;
+		boolean known = true;
+		for (Field field : message.fields)
+		{
+			String at = known ? "offset + " + position : "p";
+			switch (field.type)
+			{
+				case 'i' :
+					out.append("\t\t\tputInt(bytes, ").append(at).append(", ").append(field.name).append(");\n");
+					break;
+				case 'f' :
+					out.append("\t\t\tputInt(bytes, ").append(at).append(", Float.floatToIntBits(").append(field.name).append("));\n");
+					break;
+				case 'h' :
+					out.append("\t\t\tputLong(bytes, ").append(at).append(", ").append(field.name).append(");\n");
+					break;
+				case 'd' :
+					out.append("\t\t\tputLong(bytes, ").append(at).append(", Double.doubleToLongBits(").append(field.name).append("));\n");
+					break;
+				default :
+					if (known) out.append("\t\t\tint p = offset + ").append(position).append(";\n");
+					out.append("\t\t\tp = putString(bytes, p, ").append(field.name).append("Bytes);\n");
+					known = false;
+					continue;
+			}
+			if (known) position += field.size();
+			else out.append("\t\t\tp += ").append(field.size()).append(";\n");
+		}
+		out.append("\t\t\treturn ").append(known ? String.valueOf(position) : "p - offset").append(";\n\t\t}\n\n");
+
+		// decoder
+		int prefixLength = header.length;
+		for (Field field : message.fields)
+		{
+			if (field.size() < 0) break;
+			prefixLength += field.size();
+		}
+		out.append("\t\t/**\n\t\t * Decode a packet whose header was already matched.\n");
+		out.append("\t\t * @return the record, or null if the packet is too short\n\t\t */\n");
+		out.append("\t\tstatic ").append(name).append(" decode(byte[] bytes, int offset, int length)\n\t\t{\n");
+		out.append("\t\t\tif (length < ").append(prefixLength).append(") return null;\n");
+		if (variableLength.length() > 0) out.append("\t\t\tint end = offset + length;\n");
+		position = header.length;
+		known = true;
+		for (Field field : message.fields)
+		{
+			if (field.size() < 0)
+			{
+				if (known) out.append("\t\t\tint p = offset + ").append(position).append(";\n");
+				out.append("\t\t\tint ").append(field.name).append("Length = stringLength(bytes, p, end);\n");
+				out.append("\t\t\tif (").append(field.name).append("Length < 0) return null;\n");
+				out.append("\t\t\tString ").append(field.name).append(" = new String(bytes, p, ").append(field.name).append("Length, UTF8);\n");
+				out.append("\t\t\tp += padded(").append(field.name).append("Length);\n");
+				known = false;
+				continue;
+			}
+
+			String at = known ? "offset + " + position : "p";
+			if (!known) out.append("\t\t\tif (p + ").append(field.size()).append(" > end) return null;\n");
+			out.append("\t\t\t").append(field.javaType()).append(" ").append(field.name).append(" = ");
+			switch (field.type)
+			{
+				case 'i' :
+					out.append("getInt(bytes, ").append(at).append(");\n");
+					break;
+				case 'f' :
+					out.append("Float.intBitsToFloat(getInt(bytes, ").append(at).append("));\n");
+					break;
+				case 'h' :
+					out.append("getLong(bytes, ").append(at).append(");\n");
+					break;
+				default :
+					out.append("Double.longBitsToDouble(getLong(bytes, ").append(at).append("));\n");
+					break;
+			}
+			if (known) position += field.size();
+			else out.append("\t\t\tp += ").append(field.size()).append(";\n");
+		}
+		out.append("\t\t\treturn new ").append(name).append("(");
+		for (int i = 0; i < message.fields.size(); i++) out.append(i == 0 ? "" : ", ").append(message.fields.get(i).name);
+		out.append(");\n\t\t}\n\n");
+
+		// bridge to the generic representation
+		out.append("\t\tpublic OSCMessage toMessage()\n\t\t{\n");
+		out.append("\t\t\treturn new OSCMessage(ADDRESS, new Object[] {");
+		for (int i = 0; i < message.fields.size(); i++)
+		{
+			Field field = message.fields.get(i);
+			out.append(i == 0 ? " " : ", ");
+			// the generic converters encode 64 bit ints from BigIntegers only
+			if (field.type == 'h') out.append("BigInteger.valueOf(").append(field.name).append(")");
+			else out.append(field.name);
+		}
+		out.append(message.fields.isEmpty() ? "});\n" : " });\n");
+		out.append("\t\t}\n\t}\n\n");
+	}
+
+	private void generateHelpers(StringBuilder out)
+	{
+		out.append("\tstatic boolean matches(byte[] bytes, int offset, int length, byte[] header)\n\t{\n");
+		out.append("\t\tif (length < header.length) return false;\n");
+		out.append("\t\tfor (int i = 0; i < header.length; i++)\n\t\t{\n");
+		out.append("\t\t\tif (bytes[offset + i] != header[i]) return false;\n\t\t}\n");
+		out.append("\t\treturn true;\n\t}\n\n");
+
+		out.append("\tstatic int padded(int stringLength)\n\t{\n");
+		out.append("\t\treturn (stringLength / 4 + 1) * 4;\n\t}\n\n");
+
+		out.append("\tstatic int stringLength(byte[] bytes, int position, int end)\n\t{\n");
+		out.append("\t\tfor (int i = position; i < end; i++)\n\t\t{\n");
+		out.append("\t\t\tif (bytes[i] == 0) return i - position;\n\t\t}\n");
+		out.append("\t\treturn -1;\n\t}\n\n");
+
+		out.append("\tstatic int putString(byte[] bytes, int position, byte[] string)\n\t{\n");
+		out.append("\t\tSystem.arraycopy(string, 0, bytes, position, string.length);\n");
+		out.append("\t\tint end = position + padded(string.length);\n");
+		out.append("\t\tfor (int i = position + string.length; i < end; i++) bytes[i] = 0;\n");
+		out.append("\t\treturn end;\n\t}\n\n");
+
+		out.append("\tstatic void putInt(byte[] bytes, int position, int value)\n\t{\n");
+		out.append("\t\tbytes[position] = (byte) (value >>> 24);\n");
+		out.append("\t\tbytes[position + 1] = (byte) (value >>> 16);\n");
+		out.append("\t\tbytes[position + 2] = (byte) (value >>> 8);\n");
+		out.append("\t\tbytes[position + 3] = (byte) value;\n\t}\n\n");
+
+		out.append("\tstatic void putLong(byte[] bytes, int position, long value)\n\t{\n");
+		out.append("\t\tputInt(bytes, position, (int) (value >>> 32));\n");
+		out.append("\t\tputInt(bytes, position + 4, (int) value);\n\t}\n\n");
+
+		out.append("\tstatic int getInt(byte[] bytes, int position)\n\t{\n");
+		out.append("\t\treturn ((bytes[position] & 0xFF) << 24) | ((bytes[position + 1] & 0xFF) << 16)\n");
+		out.append("\t\t\t\t| ((bytes[position + 2] & 0xFF) << 8) | (bytes[position + 3] & 0xFF);\n\t}\n\n");
+
+		out.append("\tstatic long getLong(byte[] bytes, int position)\n\t{\n");
+		out.append("\t\treturn ((long) getInt(bytes, position) << 32) | (getInt(bytes, position + 4) & 0xFFFFFFFFL);\n\t}\n");
+	}
+
+	private static int padded(int stringLength)
+	{
+		return (stringLength / 4 + 1) * 4;
+	}
+}